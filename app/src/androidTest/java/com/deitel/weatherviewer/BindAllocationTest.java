@@ -0,0 +1,166 @@
+package com.deitel.weatherviewer;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts the objects allocated to bind the rows of an hourly forecast once its items exist. The
+ * first test binds detached items, which only runs WeatherArrayAdapter's own formatting: it must
+ * not allocate. The second scrolls the list of the running app, where the TextViews lay out their
+ * new text and a row whose condition changed loads its image, and reports what a bound row costs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BindAllocationTest {
+
+    private static final String TAG = "BindAllocationTest";
+    private static final int HOURS = 168;
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule =
+            new ActivityTestRule<>(MainActivity.class, false, false);
+
+    //the items are never attached, so TextView.setText doesn't lay the text out, and every hour has
+    //the same condition, so no image is loaded. What is left is the formatting done by the adapter.
+    @Test
+    public void formattingARow_allocatesNothing() {
+        final AtomicInteger allocations = new AtomicInteger();
+        final Forecast forecast = hourlyForecast(HOURS, HOURS);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context = InstrumentationRegistry.getTargetContext();
+                RecyclerView parent = new RecyclerView(context);
+                parent.setLayoutManager(new LinearLayoutManager(context));
+                WeatherArrayAdapter adapter = new WeatherArrayAdapter(context, WeatherFormatter.TemperatureUnit.CELSIUS);
+                adapter.setForecast(forecast);
+
+                //a few items are reused for every row, like in a scrolling list. The first binds
+                //size their buffers.
+                WeatherArrayAdapter.ViewHolder[] items = new WeatherArrayAdapter.ViewHolder[4];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = adapter.onCreateViewHolder(parent, 0);
+                }
+                for (int position = 0; position < forecast.size(); position++) {
+                    adapter.onBindViewHolder(items[position % items.length], position);
+                }
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                for (int position = 0; position < forecast.size(); position++) {
+                    adapter.onBindViewHolder(items[position % items.length], position);
+                }
+                allocations.set(Debug.getThreadAllocCount());
+                Debug.stopAllocCounting();
+            }
+        });
+
+        Log.i(TAG, allocations.get() + " allocations for " + forecast.size() + " binds");
+        assertEquals("allocations for " + forecast.size() + " binds", 0, allocations.get());
+    }
+
+    //scrolls the app's list a page at a time, so the rows are bound, measured, laid out and drawn
+    //like during a fling. The count includes the TextViews' layouts and the Drawables of the rows
+    //whose condition changed, which the framework allocates, so it is reported and not asserted.
+    @Test
+    public void scrollingAnHourlyForecast_reportsAllocationsPerRow() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = InstrumentationRegistry.getTargetContext();
+        new File(context.getFilesDir(), ForecastStore.SNAPSHOT_FILE).delete();
+        MainActivity activity = activityRule.launchActivity(null);
+        final RecyclerView listView = (RecyclerView) activity.findViewById(R.id.weatherListView);
+        final Forecast forecast = hourlyForecast(HOURS, 3);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ((WeatherArrayAdapter) listView.getAdapter()).setForecast(forecast);
+            }
+        });
+        instrumentation.waitForIdleSync();
+        assertTrue("the list isn't laid out", listView.getHeight() > 0 && listView.getChildCount() > 0);
+
+        //down and up once, so every item that is reused has sized its buffers.
+        scrollToEnd(instrumentation, listView, 1);
+        scrollToEnd(instrumentation, listView, -1);
+
+        Metrics.Histogram binds = Metrics.histogram("adapter.bind", "us");
+        Metrics.reset();
+        final AtomicInteger allocations = new AtomicInteger();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+            }
+        });
+        scrollToEnd(instrumentation, listView, 1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                allocations.set(Debug.getThreadAllocCount());
+                Debug.stopAllocCounting();
+            }
+        });
+
+        long rows = binds.getCount();
+        Log.i(TAG, allocations.get() + " allocations for " + rows + " rows scrolled into view, "
+                + (rows > 0 ? allocations.get() / rows : 0) + " per row");
+        assertTrue("only " + rows + " rows were bound", rows > listView.getChildCount());
+    }
+
+    //scrolls the list a page at a time in a direction until it can't scroll any further, and waits
+    //for each page to be drawn.
+    private static void scrollToEnd(Instrumentation instrumentation, final RecyclerView listView, final int direction) {
+        final boolean[] scrolling = {true};
+        while (scrolling[0]) {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    listView.scrollBy(0, direction * listView.getHeight());
+                    scrolling[0] = listView.canScrollVertically(direction);
+                }
+            });
+            instrumentation.waitForIdleSync();
+        }
+    }
+
+    //an hourly forecast with varied conditions.
+    static Forecast hourlyForecast(int hours) {
+        return hourlyForecast(hours, 3);
+    }
+
+    //an hourly forecast whose condition changes every conditionHours hours, going through a few
+    //bundled conditions. A row whose condition differs from its item's previous one loads a new
+    //Drawable for its image. The condition never changes if conditionHours is at least hours.
+    static Forecast hourlyForecast(int hours, int conditionHours) {
+        int[] codes = {
+                ConditionTable.codeFor("few clouds", "02d"),
+                ConditionTable.codeFor("light rain", "10d"),
+                ConditionTable.codeFor("clear sky", "01d"),
+                ConditionTable.codeFor("broken clouds", "04d")
+        };
+        Forecast forecast = new Forecast(hours);
+        forecast.setCity(4930956, "Boston");
+        for (int hour = 0; hour < hours; hour++) {
+            forecast.add(1497542400L + hour * 3600L, 10 + hour % 15, 14 + hour % 15, 40 + hour % 50,
+                    codes[hour / conditionHours % codes.length]);
+        }
+        return forecast;
+    }
+}
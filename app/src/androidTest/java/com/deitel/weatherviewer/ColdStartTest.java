@@ -0,0 +1,76 @@
+package com.deitel.weatherviewer;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.widget.EditText;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from launching MainActivity until its RecyclerView shows a forecast, when the
+ * forecast snapshot of an earlier run is on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ColdStartTest {
+
+    private static final String TAG = "ColdStartTest";
+    private static final String QUERY = "Boston, MA, US";
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule =
+            new ActivityTestRule<>(MainActivity.class, false, false);
+
+    @Before
+    public void writeSnapshot() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        int rain = ConditionTable.codeFor("light rain", "10d");
+        Forecast forecast = new Forecast(16);
+        forecast.setCity(4930956, "Boston");
+        for (int day = 0; day < 16; day++) {
+            forecast.add(1497542400L + day * 86400L, 50 + day, 60 + day, 80, rain);
+        }
+        new ForecastSnapshot(new File(context.getFilesDir(), ForecastStore.SNAPSHOT_FILE))
+                .save(new ForecastSnapshot.Item(QUERY, forecast, System.currentTimeMillis()));
+    }
+
+    @Test
+    public void snapshotIsDisplayedWithoutWaitingForTheNetwork() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+        long start = SystemClock.elapsedRealtime();
+        final MainActivity activity = activityRule.launchActivity(null);
+        final RecyclerView listView = (RecyclerView) activity.findViewById(R.id.weatherListView);
+
+        //wait until the first day of the forecast is laid out.
+        final AtomicInteger children = new AtomicInteger();
+        while (children.get() == 0 && SystemClock.elapsedRealtime() - start < 5000) {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    children.set(listView.getChildCount());
+                }
+            });
+        }
+        long timeToContent = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "time to content: " + timeToContent + " ms");
+
+        assertTrue(children.get() > 0);
+        assertEquals(QUERY, ((EditText) activity.findViewById(R.id.locationEditText)).getText().toString());
+        //without the snapshot the list stays empty until a web service round trip completes.
+        assertTrue("time to content " + timeToContent + " ms", timeToContent < 1500);
+    }
+}
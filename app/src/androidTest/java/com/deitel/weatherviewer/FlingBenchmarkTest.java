@@ -0,0 +1,110 @@
+package com.deitel.weatherviewer;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Flings through a 168 hour forecast and measures the time between frames, and the time each row
+ * takes to bind. A frame that takes longer than the display's refresh interval is a dropped frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FlingBenchmarkTest {
+
+    private static final String TAG = "FlingBenchmarkTest";
+    private static final int FLINGS = 6;
+    private static final long FLING_MILLIS = 1500;
+    //a 60 Hz display draws a frame every 16.7 ms.
+    private static final long FRAME_MICROS = 16667;
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule =
+            new ActivityTestRule<>(MainActivity.class, false, false);
+
+    //without a snapshot the app starts with an empty list and makes no request.
+    @Before
+    public void deleteSnapshot() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        new File(context.getFilesDir(), ForecastStore.SNAPSHOT_FILE).delete();
+    }
+
+    @Test
+    public void flingThroughAnHourlyForecast() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        MainActivity activity = activityRule.launchActivity(null);
+        final RecyclerView listView = (RecyclerView) activity.findViewById(R.id.weatherListView);
+        final Forecast forecast = BindAllocationTest.hourlyForecast(168);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ((WeatherArrayAdapter) listView.getAdapter()).setForecast(forecast);
+            }
+        });
+        instrumentation.waitForIdleSync();
+
+        //the time between frames while the list flings, recorded by the Choreographer.
+        final Metrics.Histogram frames = Metrics.histogram("fling.frame", "us");
+        final Metrics.Histogram binds = Metrics.histogram("adapter.bind", "us");
+        final boolean[] flinging = {true};
+        Metrics.reset();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    private long previousFrameNanos;
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if (previousFrameNanos != 0) {
+                            frames.record((frameTimeNanos - previousFrameNanos) / 1000);
+                        }
+                        previousFrameNanos = frameTimeNanos;
+                        if (flinging[0]) {
+                            Choreographer.getInstance().postFrameCallback(this);
+                        }
+                    }
+                });
+            }
+        });
+
+        //down and up again, as fast as a user flings.
+        for (int fling = 0; fling < FLINGS; fling++) {
+            final int velocity = fling % 2 == 0 ? 20000 : -20000;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    listView.fling(0, velocity);
+                }
+            });
+            SystemClock.sleep(FLING_MILLIS);
+        }
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                flinging[0] = false;
+            }
+        });
+
+        Log.i(TAG, "frames: " + frames);
+        Log.i(TAG, "binds: " + binds);
+        assertEquals(168, listView.getAdapter().getItemCount());
+        assertTrue("no frames", frames.getCount() > 0);
+        //half the frames must be on time, anything less means the list stutters all the time.
+        assertTrue("frames: " + frames, frames.getPercentile(0.5) < 2 * FRAME_MICROS);
+    }
+}
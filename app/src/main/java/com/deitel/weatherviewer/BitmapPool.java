@@ -0,0 +1,120 @@
+package com.deitel.weatherviewer;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+//BitmapPool keeps the Bitmaps that are no longer used so that decoding the next image of the same
+//size and config can reuse their memory (BitmapFactory.Options.inBitmap) instead of allocating a
+//new Bitmap, which means less garbage and fewer GC pauses while the user scrolls.
+//A Bitmap may only be reused when nothing displays it anymore, so its users count their
+//references: the IconCache's memory tier holds one while the Bitmap is cached, each ImageView
+//displaying it holds one, and so does a loaded image on its way to the GUI thread. When the last
+//reference is released the Bitmap goes into the pool. Bitmaps nobody released (e.g. of an
+//ImageView that was destroyed) are simply garbage collected. All methods are thread safe.
+public class BitmapPool {
+
+    private static final Metrics.Counter HITS = Metrics.counter("icon.pool.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("icon.pool.misses");
+
+    private final int maxBytes;
+    private int bytes;
+
+    //the unused Bitmaps by size and config, the least recently used sizes first.
+    private final Map<Long, ArrayDeque<Bitmap>> free = new LinkedHashMap<>(16, 0.75f, true);
+    //the number of references to each Bitmap in use. Weak so a Bitmap whose user never released it
+    //can still be garbage collected.
+    private final Map<Bitmap, int[]> references = new WeakHashMap<>();
+
+    //maxBytes is the most memory the unused Bitmaps may keep.
+    public BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    //take an unused mutable Bitmap of the given size and config out of the pool, or null if there
+    //is none. The caller decodes into it.
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = free.get(key(width, height, config));
+        Bitmap bitmap = bitmaps == null ? null : bitmaps.poll();
+        if (bitmap == null) {
+            MISSES.increment();
+            return null;
+        }
+        HITS.increment();
+        bytes -= bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    //add a reference to bitmap.
+    public synchronized void retain(Bitmap bitmap) {
+        int[] count = references.get(bitmap);
+        if (count == null) {
+            references.put(bitmap, new int[] {1});
+        }
+        else {
+            count[0]++;
+        }
+    }
+
+    //remove a reference to bitmap, after the last one it goes into the pool.
+    public synchronized void release(Bitmap bitmap) {
+        int[] count = references.get(bitmap);
+        if (count == null) {
+            return; //never retained
+        }
+        if (--count[0] == 0) {
+            references.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    //add a Bitmap nobody uses to the pool, e.g. one taken with get that couldn't be decoded into.
+    public synchronized void put(Bitmap bitmap) {
+        //only mutable Bitmaps can be decoded into.
+        if (!bitmap.isMutable() || bitmap.isRecycled() || bitmap.getAllocationByteCount() > maxBytes) {
+            return;
+        }
+
+        Long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = free.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            free.put(key, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        bytes += bitmap.getAllocationByteCount();
+        trim();
+    }
+
+    //the memory kept by the unused Bitmaps.
+    public synchronized int getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[" + bytes + "/" + maxBytes + " bytes, " + references.size() + " in use]";
+    }
+
+    //drop the least recently used Bitmaps until the pool fits in maxBytes.
+    private void trim() {
+        Iterator<ArrayDeque<Bitmap>> sizes = free.values().iterator();
+        while (bytes > maxBytes && sizes.hasNext()) {
+            ArrayDeque<Bitmap> bitmaps = sizes.next();
+            while (bytes > maxBytes && !bitmaps.isEmpty()) {
+                bytes -= bitmaps.poll().getAllocationByteCount();
+            }
+            if (bitmaps.isEmpty()) {
+                sizes.remove();
+            }
+        }
+    }
+
+    private static Long key(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | (config == null ? 0xFF : config.ordinal());
+    }
+}
@@ -0,0 +1,112 @@
+package com.deitel.weatherviewer;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.List;
+
+//CitySuggestionAdapter provides the cities the locationEditText (an AutoCompleteTextView) suggests
+//while the user types. The AutoCompleteTextView's Filter searches the CityIndex in a seperate thread
+//every time the text changes, a search takes well under a millisecond. Until the index is loaded
+//(or if the app was built without one) there are simply no suggestions.
+public class CitySuggestionAdapter extends BaseAdapter implements Filterable {
+
+    //the number of suggestions displayed at most, more don't fit above the keyboard.
+    private static final int MAX_SUGGESTIONS = 8;
+    //the time a search of the index takes, in microseconds.
+    private static final Metrics.Histogram SEARCH_TIME = Metrics.histogram("cities.search", "us");
+
+    private final LayoutInflater inflater;
+    //set from the GUI thread, read by the Filter's thread.
+    private volatile CityIndex cityIndex;
+    //the displayed suggestions, only used in the GUI thread.
+    private List<CityIndex.City> cities = Collections.emptyList();
+
+    public CitySuggestionAdapter(Context context){
+        inflater = LayoutInflater.from(context);
+    }
+
+    //the index to search, null removes the suggestions.
+    public void setCityIndex(CityIndex cityIndex){
+        this.cityIndex = cityIndex;
+    }
+
+    @Override
+    public int getCount() {
+        return cities.size();
+    }
+
+    @Override
+    public CityIndex.City getItem(int position) {
+        return cities.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return cities.get(position).id;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        //the dropdown's items are reused as it is scrolled, like the forecast's.
+        TextView textView = (TextView) convertView;
+        if (textView == null){
+            textView = (TextView) inflater.inflate(android.R.layout.simple_dropdown_item_1line, parent, false);
+        }
+        textView.setText(cities.get(position).toString());
+        return textView;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return filter;
+    }
+
+    private final Filter filter = new Filter() {
+        //performFiltering is called in the Filter's own thread.
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            FilterResults results = new FilterResults();
+            CityIndex index = cityIndex;
+            if (index == null || constraint == null){
+                return results;
+            }
+
+            long start = Metrics.beginSection("CityIndex.search");
+            List<CityIndex.City> found = index.search(constraint.toString(), MAX_SUGGESTIONS);
+            SEARCH_TIME.recordSince(start);
+            Metrics.endSection();
+
+            results.values = found;
+            results.count = found.size();
+            return results;
+        }
+
+        //publishResults is called in the GUI thread.
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            cities = results.values != null
+                    ? (List<CityIndex.City>) results.values : Collections.<CityIndex.City>emptyList();
+            if (results.count > 0){
+                notifyDataSetChanged();
+            }
+            else {
+                notifyDataSetInvalidated();
+            }
+        }
+
+        //the text the AutoCompleteTextView shows when a suggestion is picked.
+        @Override
+        public CharSequence convertResultToString(Object resultValue) {
+            return resultValue.toString();
+        }
+    };
+}
@@ -0,0 +1,61 @@
+package com.deitel.weatherviewer;
+
+//ConditionIcons maps the openweathermap.org icon names ("01d", "10n", ...) to the icons bundled
+//with the app in res/drawable, so the weather-condition images are displayed in the first frame
+//without a download, even offline. The icon set is small and hasn't changed in years: two digits
+//for the condition and "d" or "n" for day or night. Looking an icon up computes its slot in a
+//table from the three characters, nothing is allocated. Icon names we don't know (e.g. one the
+//web service adds later) are still downloaded by the IconLoader.
+public final class ConditionIcons {
+
+    //one slot per possible icon name: 100 conditions, day and night.
+    private static final int[] DRAWABLES = new int[200];
+
+    static {
+        put("01d", R.drawable.ic_weather_clear_day);
+        put("01n", R.drawable.ic_weather_clear_night);
+        put("02d", R.drawable.ic_weather_few_clouds_day);
+        put("02n", R.drawable.ic_weather_few_clouds_night);
+        put("03d", R.drawable.ic_weather_scattered_clouds);
+        put("03n", R.drawable.ic_weather_scattered_clouds);
+        put("04d", R.drawable.ic_weather_broken_clouds);
+        put("04n", R.drawable.ic_weather_broken_clouds);
+        put("09d", R.drawable.ic_weather_shower_rain);
+        put("09n", R.drawable.ic_weather_shower_rain);
+        put("10d", R.drawable.ic_weather_rain_day);
+        put("10n", R.drawable.ic_weather_rain_night);
+        put("11d", R.drawable.ic_weather_thunderstorm);
+        put("11n", R.drawable.ic_weather_thunderstorm);
+        put("13d", R.drawable.ic_weather_snow);
+        put("13n", R.drawable.ic_weather_snow);
+        put("50d", R.drawable.ic_weather_mist);
+        put("50n", R.drawable.ic_weather_mist);
+    }
+
+    private ConditionIcons() {
+    }
+
+    //the bundled drawable resource for the icon name, or 0 if there is none.
+    public static int getDrawable(String iconName) {
+        int slot = slot(iconName);
+        return slot < 0 ? 0 : DRAWABLES[slot];
+    }
+
+    private static void put(String iconName, int drawable) {
+        DRAWABLES[slot(iconName)] = drawable;
+    }
+
+    //the icon name's index in DRAWABLES, or -1 if it isn't two digits followed by 'd' or 'n'.
+    private static int slot(String iconName) {
+        if (iconName == null || iconName.length() != 3) {
+            return -1;
+        }
+        int tens = iconName.charAt(0) - '0';
+        int ones = iconName.charAt(1) - '0';
+        char time = iconName.charAt(2);
+        if (tens < 0 || tens > 9 || ones < 0 || ones > 9 || (time != 'd' && time != 'n')) {
+            return -1;
+        }
+        return (tens * 10 + ones) * 2 + (time == 'n' ? 1 : 0);
+    }
+}
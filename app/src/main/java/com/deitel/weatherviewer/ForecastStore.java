@@ -0,0 +1,66 @@
+package com.deitel.weatherviewer;
+
+import android.content.Context;
+
+import java.io.File;
+
+//ForecastStore holds the app's local forecast store: the ForecastCache with the web service's
+//responses, the ForecastSnapshot of the forecasts the user looked at last, and the ForecastFetcher
+//that fills them. MainActivity reads from them and the RefreshJobService writes to them in the
+//background, so both must use the same objects: the cache's memory tier and the snapshot's
+//serialized saves only work within one instance.
+public final class ForecastStore {
+
+    //UNITS is the units parameter of every web service request, it is part of the cache key.
+    //Forecasts are always requested in degrees Celsius and converted when they are displayed, so
+    //switching to degrees F needs no request.
+    public static final String UNITS = "metric";
+    //the name of the file in getFilesDir() with the forecasts displayed last.
+    static final String SNAPSHOT_FILE = "forecast_snapshot";
+
+    private static ForecastCache forecastCache;
+    private static ForecastFetcher fetcher;
+    private static ForecastSnapshot snapshot;
+    private static ForecastUrls forecastUrls;
+
+    private ForecastStore() {
+    }
+
+    //get the app's ForecastCache, creating it the first time. It lives in the app's cache directory
+    //so Android may reclaim it when space is low. Creating it doesn't touch the disk.
+    public static synchronized ForecastCache getCache(Context context) {
+        if (forecastCache == null) {
+            long ttlMinutes = context.getResources().getInteger(R.integer.forecast_cache_ttl_minutes);
+            forecastCache = new ForecastCache(new File(context.getApplicationContext().getCacheDir(), "forecasts"),
+                    ttlMinutes * 60 * 1000);
+        }
+        return forecastCache;
+    }
+
+    //get the ForecastFetcher that stores its forecasts in the app's ForecastCache.
+    public static synchronized ForecastFetcher getFetcher(Context context) {
+        if (fetcher == null) {
+            fetcher = new ForecastFetcher(getCache(context), HttpClient.getDefault());
+        }
+        return fetcher;
+    }
+
+    //get the app's ForecastSnapshot.
+    public static synchronized ForecastSnapshot getSnapshot(Context context) {
+        if (snapshot == null) {
+            snapshot = new ForecastSnapshot(new File(context.getApplicationContext().getFilesDir(), SNAPSHOT_FILE));
+        }
+        return snapshot;
+    }
+
+    //get the ForecastUrls of the openweathermap.org web service.
+    public static synchronized ForecastUrls getUrls(Context context) {
+        if (forecastUrls == null) {
+            forecastUrls = new ForecastUrls(context.getString(R.string.web_service_url),
+                    context.getString(R.string.three_hourly_service_url),
+                    context.getString(R.string.hourly_service_url),
+                    context.getString(R.string.group_service_url), BuildConfig.API_KEY, UNITS);
+        }
+        return forecastUrls;
+    }
+}
@@ -0,0 +1,242 @@
+package com.deitel.weatherviewer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//IconCache caches the weather-condition images in two tiers so they don't need to be redownloaded.
+//The first tier keeps decoded Bitmaps in memory and is bounded by the number of bytes the Bitmaps
+//use, evicting the least recently used ones. The second tier keeps the downloaded PNG files in the
+//app's cache directory so they survive the app being terminated. All methods are thread safe.
+//The memory tier holds a BitmapPool reference to each of its Bitmaps, so an evicted Bitmap is
+//reused for the next decode once it isn't displayed anymore.
+public class IconCache {
+
+    //the cache shared by every WeatherArrayAdapter, so it survives the activity being recreated.
+    private static IconCache instance;
+
+    //the disk tier is trimmed to this size, the whole openweathermap.org icon set is much smaller.
+    private static final long MAX_DISK_BYTES = 512 * 1024;
+
+    private final LruCache<String, Bitmap> memory;
+    private final File directory;
+    private final BitmapPool bitmapPool;
+
+    //hit/miss/eviction counters, useful to check the cache is sized correctly.
+    private final AtomicInteger memoryHits = new AtomicInteger();
+    private final AtomicInteger memoryMisses = new AtomicInteger();
+    private final AtomicInteger diskHits = new AtomicInteger();
+    private final AtomicInteger diskMisses = new AtomicInteger();
+    private final AtomicInteger evictions = new AtomicInteger();
+
+    //get the app's IconCache, creating it the first time. The memory tier may use 1/32 of the
+    //memory available to the app, and its BitmapPool a quarter of that.
+    public static synchronized IconCache getInstance(Context context) {
+        if (instance == null) {
+            int maxMemoryBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, Integer.MAX_VALUE);
+            instance = new IconCache(new File(context.getApplicationContext().getCacheDir(), "icons"),
+                    maxMemoryBytes);
+        }
+        return instance;
+    }
+
+    public IconCache(File directory, int maxMemoryBytes) {
+        this.directory = directory;
+        this.bitmapPool = new BitmapPool(maxMemoryBytes / 4);
+        this.memory = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            //the size of an entry is the number of bytes used by its pixels.
+            @Override
+            protected int sizeOf(String url, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String url, Bitmap oldBitmap, Bitmap newBitmap) {
+                if (evicted) {
+                    evictions.incrementAndGet();
+                }
+                bitmapPool.release(oldBitmap);
+            }
+        };
+    }
+
+    //the Bitmap for url if it is in memory, or null. The Bitmap is retained for the caller, who
+    //releases it to the BitmapPool when it no longer displays it. This never touches the disk so
+    //it may be called from the GUI thread.
+    public Bitmap get(String url) {
+        Bitmap bitmap;
+        //the pool's lock makes sure the Bitmap isn't evicted and released between the two steps.
+        synchronized (bitmapPool) {
+            bitmap = memory.get(url);
+            if (bitmap != null) {
+                bitmapPool.retain(bitmap);
+            }
+        }
+        (bitmap != null ? memoryHits : memoryMisses).incrementAndGet();
+        return bitmap;
+    }
+
+    //the pool the Bitmaps of this cache are released to and decoded into.
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    //true if the Bitmap for url is in memory. Unlike get this isn't counted as a hit or miss.
+    public boolean isInMemory(String url) {
+        return memory.get(url) != null;
+    }
+
+    //the PNG for url from the disk tier, or null if it was never downloaded. Decoding it is left
+    //to the caller so reading and decoding can run on different threads. Must be called from a
+    //background thread.
+    public byte[] readFromDisk(String url) {
+        File file = fileFor(url);
+        byte[] encoded = null;
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                encoded = readFully(in);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (encoded == null) {
+            diskMisses.incrementAndGet();
+            return null;
+        }
+
+        diskHits.incrementAndGet();
+        //mark the file as recently used so it is the last to be trimmed.
+        file.setLastModified(System.currentTimeMillis());
+        return encoded;
+    }
+
+    //add an image read from the disk tier to the memory tier.
+    public void putInMemory(String url, Bitmap bitmap) {
+        bitmapPool.retain(bitmap);
+        memory.put(url, bitmap);
+    }
+
+    //add a downloaded image to both tiers. encoded is the PNG as downloaded, bitmap is the decoded
+    //image. Must be called from a background thread.
+    public void put(String url, byte[] encoded, Bitmap bitmap) {
+        putInMemory(url, bitmap);
+
+        synchronized (this) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+
+            //we write to a temporary file and rename it so a reader never sees a partial image.
+            File file = fileFor(url);
+            File temp = new File(directory, file.getName() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(encoded);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                temp.delete();
+                return;
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+
+            trimDisk();
+        }
+    }
+
+    //read the whole image from the stream, so it can be both decoded and written to disk.
+    public static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    public int getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public int getMemoryMisses() {
+        return memoryMisses.get();
+    }
+
+    public int getDiskHits() {
+        return diskHits.get();
+    }
+
+    public int getDiskMisses() {
+        return diskMisses.get();
+    }
+
+    public int getEvictions() {
+        return evictions.get();
+    }
+
+    //the number of bytes used by the Bitmaps in memory.
+    public int getMemoryBytes() {
+        return memory.size();
+    }
+
+    @Override
+    public String toString() {
+        return "IconCache[memory " + memoryHits + " hits, " + memoryMisses + " misses, "
+                + evictions + " evictions, " + memory.size() + "/" + memory.maxSize() + " bytes; disk "
+                + diskHits + " hits, " + diskMisses + " misses; " + bitmapPool + "]";
+    }
+
+    //delete the least recently used files until the disk tier fits in MAX_DISK_BYTES.
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_DISK_BYTES; i++) {
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    //each image is stored in its own file, the URL encoded URL is always a valid file name.
+    private File fileFor(String url) {
+        try {
+            return new File(directory, URLEncoder.encode(url, "UTF-8"));
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); //every JVM supports UTF-8
+        }
+    }
+}
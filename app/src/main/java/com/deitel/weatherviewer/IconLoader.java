@@ -0,0 +1,348 @@
+package com.deitel.weatherviewer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//IconLoader displays weather-condition images in ImageViews, loading them from the IconCache or
+//downloading them in a seperate thread. Many days of a forecast share the same image, so requests
+//for an image that is already being loaded wait for that download instead of starting another one.
+//Each ImageView is tagged with the URL it currently wants, so a list item that was reused for
+//another day never displays the image of the day it showed before.
+//Disk reads and decoding run on WeatherExecutors.DECODE and downloads on WeatherExecutors.ICON_NETWORK.
+//Images of visible list items are loaded before prefetched ones.
+//Images are decoded at the size of the ImageView rather than the size of the file, with 2 bytes
+//per pixel if they are opaque, and into a Bitmap from the BitmapPool when one of that size is free.
+//Each ImageView holds a BitmapPool reference to the Bitmap it displays.
+//IconLoader must only be used from the GUI thread.
+public class IconLoader {
+
+    //from the first request of an image until it is displayed, and the time to decode it, in microseconds.
+    private static final Metrics.Histogram LOAD_TIME = Metrics.histogram("icon.load", "us");
+    private static final Metrics.Histogram DECODE_TIME = Metrics.histogram("icon.decode", "us");
+
+    private final IconCache iconCache;
+    private final BitmapPool bitmapPool;
+    //the size in pixels of the ImageViews, images are decoded no larger than that.
+    private final int targetSize;
+    //downloads the images.
+    private final HttpClient httpClient = HttpClient.getDefault();
+
+    //used to hand loaded images back to the GUI thread.
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    //the images being loaded, each with the ImageViews waiting for it. Only used on the GUI thread.
+    private final Map<String, Request> pending = new HashMap<>();
+
+    //Request is one image being loaded and the ImageViews it will be displayed in.
+    private static class Request {
+        final String url;
+        final long startedAt = System.nanoTime();
+        final List<ImageView> imageViews = new ArrayList<>();
+        volatile int priority;
+        volatile boolean cancelled;
+        //the queued step of the request and the pool it is queued on, so it can be reprioritized.
+        volatile PriorityExecutor executor;
+        volatile PriorityExecutor.Task task;
+
+        Request(String url, int priority) {
+            this.url = url;
+            this.priority = priority;
+        }
+    }
+
+    public IconLoader(IconCache iconCache, int targetSize) {
+        this.iconCache = iconCache;
+        this.bitmapPool = iconCache.getBitmapPool();
+        this.targetSize = targetSize;
+    }
+
+    //display the image at url in imageView.
+    public void load(ImageView imageView, String url) {
+        //if the ImageView was waiting for another image, it doesn't want it anymore.
+        String previousUrl = (String) imageView.getTag(R.id.icon_request);
+        if (previousUrl != null && !previousUrl.equals(url)) {
+            detach(imageView, previousUrl);
+        }
+        imageView.setTag(R.id.icon_request, url);
+
+        //if the image is in memory we display it right away.
+        Bitmap bitmap = iconCache.get(url);
+        if (bitmap != null) {
+            show(imageView, bitmap);
+            return;
+        }
+
+        //otherwise we clear the image the reused ImageView is still showing, and wait for the
+        //image to be loaded, starting a new request only if nobody else is waiting for it.
+        show(imageView, null);
+        Request request = start(url, PriorityExecutor.PRIORITY_VISIBLE);
+        if (!request.imageViews.contains(imageView)) {
+            request.imageViews.add(imageView);
+        }
+    }
+
+    //display one of the icons bundled with the app (see ConditionIcons) in imageView, instead of an
+    //image loaded from the web.
+    public void loadBundled(ImageView imageView, int drawable) {
+        String previousUrl = (String) imageView.getTag(R.id.icon_request);
+        if (previousUrl != null) {
+            detach(imageView, previousUrl);
+            imageView.setTag(R.id.icon_request, null);
+        }
+
+        imageView.setImageResource(drawable);
+        Bitmap previous = (Bitmap) imageView.getTag(R.id.icon_bitmap);
+        if (previous != null) {
+            imageView.setTag(R.id.icon_bitmap, null);
+            bitmapPool.release(previous);
+        }
+    }
+
+    //load the image at url into the IconCache without displaying it, so it is ready when an
+    //ImageView needs it. Prefetches wait for the images of visible items.
+    public void prefetch(String url) {
+        if (!pending.containsKey(url) && !iconCache.isInMemory(url)) {
+            start(url, PriorityExecutor.PRIORITY_PREFETCH);
+        }
+    }
+
+    //find or create the request for url, making sure it has at least the given priority.
+    private Request start(String url, int priority) {
+        Request request = pending.get(url);
+        if (request == null) {
+            request = new Request(url, priority);
+            pending.put(url, request);
+            //the image is probably on disk, so we look there first.
+            submit(request, WeatherExecutors.DECODE, new ReadFromDiskStep(request));
+        }
+        else if (request.priority < priority) {
+            //a prefetched image is now needed by a visible item.
+            request.priority = priority;
+            PriorityExecutor.Task task = request.task;
+            if (task != null) {
+                request.executor.raisePriority(task, priority);
+            }
+        }
+        return request;
+    }
+
+    //queue the next step of request on executor.
+    private static void submit(Request request, PriorityExecutor executor, Runnable step) {
+        request.executor = executor;
+        request.task = executor.execute(step, request.priority);
+    }
+
+    //stop waiting for the image at url in imageView, if no other ImageView is waiting for it
+    //and it wasn't prefetched, the request is cancelled.
+    private void detach(ImageView imageView, String url) {
+        Request request = pending.get(url);
+        if (request == null) {
+            return;
+        }
+
+        request.imageViews.remove(imageView);
+        if (request.imageViews.isEmpty() && request.priority == PriorityExecutor.PRIORITY_VISIBLE) {
+            pending.remove(url);
+            request.cancelled = true;
+            PriorityExecutor.Task task = request.task;
+            if (task != null) {
+                request.executor.remove(task);
+            }
+        }
+    }
+
+    //display bitmap, which was retained for imageView, in imageView (or clear it if bitmap is null)
+    //and release the Bitmap imageView displayed before.
+    private void show(ImageView imageView, Bitmap bitmap) {
+        Bitmap previous = (Bitmap) imageView.getTag(R.id.icon_bitmap);
+        if (bitmap == previous) {
+            if (bitmap != null) {
+                bitmapPool.release(bitmap); //imageView already holds a reference
+            }
+            return;
+        }
+
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+        }
+        else {
+            imageView.setImageDrawable(null);
+        }
+        imageView.setTag(R.id.icon_bitmap, bitmap);
+        if (previous != null) {
+            bitmapPool.release(previous);
+        }
+    }
+
+    //hand the loaded image, which was retained for the delivery, to the GUI thread and display it
+    //in every ImageView that still wants it.
+    private void deliver(final Request request, final Bitmap bitmap) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (pending.get(request.url) == request) {
+                    pending.remove(request.url);
+                }
+                if (bitmap == null) {
+                    return;
+                }
+                LOAD_TIME.recordSince(request.startedAt);
+
+                for (ImageView imageView : request.imageViews) {
+                    if (request.url.equals(imageView.getTag(R.id.icon_request))) {
+                        bitmapPool.retain(bitmap);
+                        show(imageView, bitmap);
+                    }
+                }
+                bitmapPool.release(bitmap);
+            }
+        });
+    }
+
+
+    //decode an image no larger than targetSize, null if it isn't a valid image. The Bitmap is
+    //retained for its delivery to the GUI thread.
+    private Bitmap decode(byte[] encoded) {
+        long start = Metrics.beginSection("IconLoader.decode");
+        try {
+            //first we only read the image's size, which doesn't decode any pixels.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            IconDecodePlan plan = new IconDecodePlan(encoded, options.outWidth, options.outHeight, targetSize);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = plan.sampleSize;
+            if (plan.density != 0) {
+                options.inScaled = true;
+                options.inDensity = plan.density;
+                options.inTargetDensity = plan.targetDensity;
+            }
+            options.inPreferredConfig = plan.opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            //a mutable Bitmap can be reused for another image once it is released.
+            options.inMutable = true;
+            options.inBitmap = bitmapPool.get(plan.width, plan.height, options.inPreferredConfig);
+
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+            }
+            catch (IllegalArgumentException e) {
+                //the decoder couldn't reuse the pooled Bitmap after all, we decode into a new one.
+                bitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+            }
+            if (bitmap == null) {
+                if (options.inBitmap != null) {
+                    bitmapPool.put(options.inBitmap);
+                }
+                return null;
+            }
+
+            //the Bitmap is displayed at its size in pixels, whatever density it was decoded with.
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+            bitmapPool.retain(bitmap);
+            return bitmap;
+        }
+        finally {
+            DECODE_TIME.recordSince(start);
+            Metrics.endSection();
+        }
+    }
+
+    //ReadFromDiskStep looks for the image in the IconCache's disk tier and decodes it, if it isn't
+    //there the image is downloaded by a DownloadStep.
+    private class ReadFromDiskStep implements Runnable {
+        private final Request request;
+
+        ReadFromDiskStep(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            if (request.cancelled) {
+                return;
+            }
+
+            byte[] encoded = iconCache.readFromDisk(request.url);
+            if (encoded == null) {
+                submit(request, WeatherExecutors.ICON_NETWORK, new DownloadStep(request));
+                return;
+            }
+
+            Bitmap bitmap = decode(encoded);
+            if (bitmap != null) {
+                iconCache.putInMemory(request.url, bitmap);
+            }
+            deliver(request, bitmap);
+        }
+    }
+
+    //DownloadStep uses the HttpClient to download the weather-condition image, then hands
+    //the downloaded bytes to a DecodeStep so the network thread is free for the next download.
+    private class DownloadStep implements Runnable {
+        private final Request request;
+
+        DownloadStep(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            if (request.cancelled) {
+                return;
+            }
+
+            try {
+                //the HttpClient downloads the whole image, reusing a kept-alive connection to the
+                //image server if there is one.
+                HttpClient.Response response = httpClient.get(new URL(request.url), null);
+                if (response.status == HttpURLConnection.HTTP_OK) {
+                    submit(request, WeatherExecutors.DECODE, new DecodeStep(request, response.body));
+                    return;
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            deliver(request, null); //the download failed
+        }
+    }
+
+    //DecodeStep decodes a downloaded image and caches it in both tiers of the IconCache.
+    private class DecodeStep implements Runnable {
+        private final Request request;
+        private final byte[] encoded;
+
+        DecodeStep(Request request, byte[] encoded) {
+            this.request = request;
+            this.encoded = encoded;
+        }
+
+        @Override
+        public void run() {
+            //the download already happened, so even a cancelled request is decoded and cached.
+            Bitmap bitmap = decode(encoded);
+            if (bitmap != null) {
+                iconCache.put(request.url, encoded, bitmap);
+            }
+            deliver(request, bitmap);
+        }
+    }
+}
@@ -4,45 +4,137 @@ import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+import android.util.Log;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.AdapterView;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
-import android.widget.ListView;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
-
-//MainActivity define the app user's interface, the logic for interacting with the
-//openweathermap.org web service and the logic for processing the JSON response from the web service.
-//The nested GetWeatherTask asynctask performs the web service request in a seperate thread.
-//This app doesnt require a menu so we remove methods onCreateOptionsMenu & onOptionsItemSelected
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+//MainActivity define the app user's interface and the logic for interacting with the
+//openweathermap.org web service. The JSON response is processed by ForecastParser.
+//ForecastRequests performs the web service request and parses the response with ForecastParser
+//in a seperate thread, only the latest request the user made is kept. Several cities separated
+//by ';' are loaded at once by the MultiCityFetcher and displayed as an overview with one row per
+//city. While the user types a city, the cities of the CityIndex starting with the text are
+//suggested.
+//The time each stage takes is recorded in Metrics, see dump for how to read them.
+//The menu switches between the daily, 3 hour and hourly forecasts. The long ones are displayed
+//while they download, a few rows at a time. It also switches the temperatures between degrees C
+//and F, which only redraws the list: forecasts are always requested in degrees C.
 public class MainActivity extends AppCompatActivity {
 
-    //weatherList is an ArrayList that stores Weather objects, each object represents one day in forecast.
-    private List<Weather> weatherList = new ArrayList<>();
-    //weatherArrayAdapter will refer to a WeatherArrayAdapter object that binds the weatherList to the ListView'sitems.
+    //weatherArrayAdapter will refer to a WeatherArrayAdapter object that binds the displayed Forecast to the RecyclerView's items.
     private WeatherArrayAdapter weatherArrayAdapter;
-    //weatherListView will refer to MainActivity's ListView. It will display weather info.
-    private ListView weatherListView;
+    //weatherListView will refer to MainActivity's RecyclerView. It will display weather info.
+    private RecyclerView weatherListView;
+
+    //UNITS is the units parameter of every web service request, it is part of the cache key.
+    private static final String UNITS = ForecastStore.UNITS;
+    //forecastCache keeps previous responses so repeated lookups don't need a full round trip. It is
+    //the ForecastStore's, which the RefreshJobService keeps current in the background.
+    private ForecastCache forecastCache;
+    //forecastRequests is kept for the whole process, so a request still runs while the activity
+    //is recreated after a rotation and the new activity gets its result.
+    private static ForecastRequests forecastRequests;
+
+    //the forecast mode picked in the menu. It is kept for the whole process like forecastRequests.
+    private static ForecastUrls.Mode mode = ForecastUrls.Mode.DAILY;
+    //the preferences file and the key of the temperature unit the user picked.
+    private static final String PREFERENCES = "settings";
+    private static final String PREF_TEMPERATURE_UNIT = "temperature_unit";
+    private WeatherFormatter.TemperatureUnit temperatureUnit;
+
+    //the rows of a 3 hour or hourly forecast are displayed in batches of this many while they
+    //arrive, about a screenful.
+    private static final int BATCH_SIZE = 8;
+
+    //the number of overview requests run at once.
+    private static final int MAX_PARALLEL_REQUESTS = 3;
+    private ForecastUrls forecastUrls;
+    private MultiCityFetcher multiCityFetcher;
+    //the city of each row while the multi-city overview is displayed, otherwise null.
+    private List<String> overviewCities;
+    //the overview being loaded, results for any other overview are ignored.
+    private Forecast loadingOverview;
+    //the requests of the overview being loaded, cancelled when the user asks for something else.
+    private MultiCityFetcher.Batch overviewBatch;
+
+    //forecastSnapshot lets the app display the last forecasts as soon as it starts.
+    private ForecastSnapshot forecastSnapshot;
+
+    //the city index asset, built from openweathermap.org's city list by the buildCityIndex task.
+    //It is stored uncompressed in the APK so it can be memory-mapped.
+    static final String CITY_INDEX_ASSET = "cities.idx";
+    //the index is mapped once per process, the mapping doesn't use the heap.
+    private static CityIndex cityIndex;
+    //citySuggestionAdapter provides locationEditText's suggestions.
+    private CitySuggestionAdapter citySuggestionAdapter;
+    //the suggestion the user picked, until they edit the text. It is requested by its id.
+    private CityIndex.City selectedCity;
+
+    private static final String TAG = "WeatherViewer";
+    //the name of the file in getFilesDir() that "dumpsys activity ... file" writes the metrics to.
+    static final String METRICS_FILE = "metrics.txt";
+    //when the forecast being requested was requested, for TIME_TO_DISPLAY. 0 if it wasn't requested
+    //by this activity.
+    private long requestedAt;
+    //the first rows of the forecast being requested weren't displayed yet, for TIME_TO_FIRST_ROW.
+    private boolean firstRowPending;
+    //from a forecast request until it is displayed, in microseconds.
+    private static final Metrics.Histogram TIME_TO_DISPLAY = Metrics.histogram("forecast.time_to_display", "us");
+    //from a forecast request until its first rows are displayed, for the forecasts displayed while
+    //they arrive.
+    private static final Metrics.Histogram TIME_TO_FIRST_ROW = Metrics.histogram("forecast.time_to_first_row", "us");
+    //the time to map the city index, in microseconds.
+    private static final Metrics.Histogram OPEN_INDEX_TIME = Metrics.histogram("cities.open", "us");
+
+    //the Metrics sections become systrace/Perfetto sections. When nobody is tracing Trace only
+    //checks a flag, so this stays enabled in release builds.
+    private static final Metrics.Tracer ANDROID_TRACER = new Metrics.Tracer() {
+        @Override
+        public void beginSection(String name) {
+            Trace.beginSection(name);
+        }
+
+        @Override
+        public void endSection() {
+            Trace.endSection();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        Metrics.setTracer(ANDROID_TRACER);
         //inflate GUI
         setContentView(R.layout.activity_main);
         //create Toolbar
@@ -51,202 +143,488 @@ public class MainActivity extends AppCompatActivity {
         setSupportActionBar(toolbar);
 
 
-        weatherListView = (ListView) findViewById(R.id.weatherListView);
-        weatherArrayAdapter = new WeatherArrayAdapter(this, weatherList);
+        //the RecyclerView displays its items in a vertical list, seperated by dividers like a ListView.
+        weatherListView = (RecyclerView) findViewById(R.id.weatherListView);
+        weatherListView.setLayoutManager(new LinearLayoutManager(this));
+        weatherListView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        temperatureUnit = readTemperatureUnit();
+        weatherArrayAdapter = new WeatherArrayAdapter(this, temperatureUnit);
         weatherListView.setAdapter(weatherArrayAdapter);
 
+        //results of the background work are delivered to the GUI thread.
+        final Handler handler = new Handler(Looper.getMainLooper());
+        Executor guiThread = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                handler.post(runnable);
+            }
+        };
+
+        //creating the cache doesn't touch the disk. The fetcher makes the requests, forecastRequests
+        //runs the one the user is waiting for, it is only created by the first activity.
+        forecastCache = ForecastStore.getCache(this);
+        ForecastFetcher fetcher = ForecastStore.getFetcher(this);
+        if (forecastRequests == null){
+            forecastRequests = new ForecastRequests(forecastCache, fetcher, WeatherExecutors.FORECAST, guiThread);
+        }
+
+        //forecastUrls assembles the web service requests and multiCityFetcher loads the overview
+        //of several cities.
+        forecastUrls = ForecastStore.getUrls(this);
+        multiCityFetcher = new MultiCityFetcher(forecastUrls, forecastCache, fetcher,
+                WeatherExecutors.FORECAST, guiThread, MAX_PARALLEL_REQUESTS);
+
+        //when the overview is displayed, touching a city displays its forecast.
+        weatherArrayAdapter.setOnItemClickListener(new WeatherArrayAdapter.OnItemClickListener() {
+            @Override
+            public void onItemClick(int position) {
+                if (overviewCities != null && position < overviewCities.size()){
+                    String city = overviewCities.get(position);
+                    ((EditText) findViewById(R.id.locationEditText)).setText(city);
+                    requestForecast(city);
+                }
+            }
+        });
+
+        //the suggestions appear once the index is loaded, opening it mustn't delay the first frame.
+        AutoCompleteTextView locationTextView = (AutoCompleteTextView) findViewById(R.id.locationEditText);
+        citySuggestionAdapter = new CitySuggestionAdapter(this);
+        locationTextView.setAdapter(citySuggestionAdapter);
+        locationTextView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                selectedCity = citySuggestionAdapter.getItem(position);
+            }
+        });
+        loadCityIndex();
+
+        //the saved cities are refreshed in the background from now on. Asking JobScheduler
+        //whether it is scheduled already is a call to another process, so it isn't done here.
+        final Context appContext = getApplicationContext();
+        WeatherExecutors.FORECAST.execute(new Runnable() {
+            @Override
+            public void run() {
+                RefreshJobService.schedule(appContext);
+            }
+        }, PriorityExecutor.PRIORITY_PREFETCH);
+
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 //get a reference to the app's EditText then use it to get the user's input.
                 EditText locationEditText = (EditText) findViewById(R.id.locationEditText);
-                //we then pass it to the createURL method to create the URL representing the web service request
-                //that will returnthe city's weather forecast.
-                URL url = createURL(locationEditText.getText().toString());
-
-
-                //if the URL is created successfully we hide the keyboard and create a new GetWeatherTask
-                //to obtain the weather forecast in a seperate thread.
-                //if url is not successfully created we create snackbar saying url was invalid.
-                if (url != null){
-                    dismissKeyboard(locationEditText);
-                    GetWeatherTask getLocalWeatherTask = new GetWeatherTask();
-                    //we execute that task by passing the URL of the webservice as an arg to asyntask.
-                    getLocalWeatherTask.execute(url);
-                }
-                else {
-                    Snackbar.make(findViewById(R.id.coordinatorLayout), R.string.invalid_url,
-                            Snackbar.LENGTH_LONG).show();
-                }
+                dismissKeyboard(locationEditText);
+                request(locationEditText.getText().toString());
             }
         });
+
+        //if the activity was recreated, e.g. after a rotation, we take over the forecast request of
+        //the previous one: its forecast is displayed now or when it arrives.
+        forecastSnapshot = ForecastStore.getSnapshot(this);
+        if (forecastRequests.attach(forecastListener)){
+            return;
+        }
+
+        //otherwise we display the forecast the user looked at last before the first frame is drawn,
+        //so the list isn't empty while we wait for the web service. Reading the small snapshot file
+        //takes less than a millisecond. Then we refresh it like any other request, which usually
+        //finds the forecast the RefreshJobService saved in the cache still fresh. The app starts in
+        //the mode of that forecast.
+        List<ForecastSnapshot.Item> saved = forecastSnapshot.read();
+        if (!saved.isEmpty()){
+            ForecastSnapshot.Item last = saved.get(0);
+            mode = last.mode;
+            ((EditText) findViewById(R.id.locationEditText)).setText(last.query);
+            displayForecast(last.forecast);
+            request(last.query);
+        }
     }
 
-    //method dismissKeyboard is called to hide the soft keyboard when the user touches the FAB
-    //to submit a city to the app.
-    private void dismissKeyboard(View view){
+    //the menu lets the user pick the forecast mode, the current one is checked.
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        int checked = mode == ForecastUrls.Mode.HOURLY ? R.id.action_mode_hourly
+                : mode == ForecastUrls.Mode.THREE_HOURLY ? R.id.action_mode_three_hourly : R.id.action_mode_daily;
+        menu.findItem(checked).setChecked(true);
+        menu.findItem(R.id.action_fahrenheit).setChecked(temperatureUnit == WeatherFormatter.TemperatureUnit.FAHRENHEIT);
+        return true;
+    }
 
-        //Android provides a service for managing the keyboard programatically, you can obtain a ref
-        //to this by calling getSystemService with the constant Context.INPUT_METHOD_SERVICE.
-        //getSystemService can return objects of many dif types so you must cast it appropriately.
-        InputMethodManager imm = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
-        //to dismiss the keyboard, call inputmethodmanager's method hideSoftInputFromWindow.
-        imm.hideSoftInputFromWindow(view.getWindowToken(), 0);
+    //the unit the user picked, or the usual one in their country if they didn't pick one yet.
+    private WeatherFormatter.TemperatureUnit readTemperatureUnit(){
+        String saved = getSharedPreferences(PREFERENCES, MODE_PRIVATE).getString(PREF_TEMPERATURE_UNIT, null);
+        if (saved != null){
+            try {
+                return WeatherFormatter.TemperatureUnit.valueOf(saved);
+            }
+            catch (IllegalArgumentException e){
+                //saved by another version of the app, use the default.
+            }
+        }
+        return WeatherFormatter.defaultUnit(Locale.getDefault());
+    }
+
+    //switch to the mode the user picked and request the entered city again in that mode.
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        //the forecasts are kept in degrees C, so only the displayed rows are formatted again.
+        if (item.getItemId() == R.id.action_fahrenheit){
+            item.setChecked(!item.isChecked());
+            temperatureUnit = item.isChecked()
+                    ? WeatherFormatter.TemperatureUnit.FAHRENHEIT : WeatherFormatter.TemperatureUnit.CELSIUS;
+            weatherArrayAdapter.setTemperatureUnit(temperatureUnit);
+            SharedPreferences.Editor editor = getSharedPreferences(PREFERENCES, MODE_PRIVATE).edit();
+            editor.putString(PREF_TEMPERATURE_UNIT, temperatureUnit.name()).apply();
+            return true;
+        }
+
+        ForecastUrls.Mode picked;
+        switch (item.getItemId()){
+            case R.id.action_mode_daily:
+                picked = ForecastUrls.Mode.DAILY;
+                break;
+            case R.id.action_mode_three_hourly:
+                picked = ForecastUrls.Mode.THREE_HOURLY;
+                break;
+            case R.id.action_mode_hourly:
+                picked = ForecastUrls.Mode.HOURLY;
+                break;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+        item.setChecked(true);
+        if (picked != mode){
+            mode = picked;
+            String input = ((EditText) findViewById(R.id.locationEditText)).getText().toString();
+            if (!input.trim().isEmpty()){
+                request(input);
+            }
+        }
+        return true;
     }
 
-    //method createURL assembles the String representation of the URL for the web service request.
-    //create openweathermap.org web service url using city.
-    private URL createURL(String city){
+    //the activity is going away, forecastRequests keeps the result for the next one.
+    @Override
+    protected void onDestroy() {
+        forecastRequests.detach();
+        cancelOverview();
+        super.onDestroy();
+    }
 
-        String apiKey = BuildConfig.API_KEY;
-        String baseUrl = getString(R.string.web_service_url);
+    //display the forecast of the city the user entered, or an overview of several cities
+    //separated by ';' with one row per city.
+    private void request(String input){
+        if (input.indexOf(';') >= 0){
+            List<String> cities = new ArrayList<>();
+            for (String city : input.split(";")){
+                if (!city.trim().isEmpty()){
+                    cities.add(city.trim());
+                }
+            }
+            requestOverview(input, cities);
+        }
+        else {
+            requestForecast(input);
+        }
+    }
 
-        //Here we attempt to create and return a URL object initialized with the URL String.
+    //display the forecast of a city, from the cache if possible.
+    private void requestForecast(String city){
+        //we use forecastUrls to create the URL representing the web service request
+        //that will return the city's weather forecast.
+        URL url;
         try {
-            //create URL for specified city and imperial units (fahrenheit)
-            //we add parameters to the web service query.
-            String urlString = baseUrl + URLEncoder.encode(city, "UTF-8") + "&units=imperial&cnt=16&APPID=" + apiKey;
-            return new URL(urlString);
+            //a city picked from the suggestions is requested by its id, so the web service doesn't
+            //have to find the city by its name.
+            url = selectedCity != null && city.equals(selectedCity.toString())
+                    ? forecastUrls.forCityId(selectedCity.id, mode) : forecastUrls.forCity(city, mode);
         }
-        catch (Exception e){
+        catch (MalformedURLException e){
+            //if url is not successfully created we create snackbar saying url was invalid.
             e.printStackTrace();
+            Snackbar.make(findViewById(R.id.coordinatorLayout), R.string.invalid_url,
+                    Snackbar.LENGTH_LONG).show();
+            return;
+        }
+
+        //leaving the overview, its remaining cities aren't loaded anymore.
+        overviewCities = null;
+        cancelOverview();
+        String cacheKey = ForecastCache.key(city, UNITS, mode);
+
+        //if the forecast is already in memory we display it right away, and if it is
+        //still fresh there is no need to ask the web service at all. The request of the city the
+        //user asked for before is cancelled either way.
+        ForecastCache.Entry cached = forecastCache.getFromMemory(cacheKey);
+        if (cached != null){
+            displayForecast(cached.forecast);
+            if (forecastCache.isFresh(cached, System.currentTimeMillis())){
+                forecastRequests.cancel();
+                saveSnapshot(city, mode, cached.forecast);
+                return;
+            }
         }
-        return null; //URL was malformed
-    }
 
+        //forecastRequests obtains the weather forecast in a seperate thread, and cancels the
+        //request of the city the user asked for before if it is still running. It runs on the
+        //forecast pool so it never waits behind image downloads. The 3 hour and hourly forecasts
+        //are displayed BATCH_SIZE rows at a time while they arrive, the daily one arrives at once.
+        requestedAt = System.nanoTime();
+        firstRowPending = true;
+        forecastRequests.request(city, cacheKey, url, mode == ForecastUrls.Mode.DAILY ? 0 : BATCH_SIZE);
+    }
 
-    //Nested AsyncTask subclass GetWeatherTask performs the web service request and processes
-    //the response in a seperate thread, then passes the forecast info as a JSONObject to the
-    //GUI thread for display.
-    private class GetWeatherTask extends AsyncTask<URL, Void, JSONObject>{
+    //display one row per city, each row is added as soon as its city is loaded. The forecast
+    //displayed before (e.g. the snapshot of this overview) stays until the first city is loaded.
+    private void requestOverview(final String query, List<String> cities){
+        //the overview being built, the rows are in the order the cities are loaded.
+        final List<String> rowCities = new ArrayList<>();
+        final Forecast overview = new Forecast(cities.size());
+        //the city or overview the user asked for before isn't displayed anymore.
+        forecastRequests.cancel();
+        cancelOverview();
+        loadingOverview = overview;
 
-        //GetWeatherTask's 3 generic type parameters are
-        //URL - for the doInBackground method - the web service request URL.
-        //Void - for onProgressUpdate which we dont use
-        //JSONObject -for the type of the task's result, which is passed to onPostExecute
-        // in the GUI thread to display the results.
+        overviewBatch = multiCityFetcher.fetch(cities, new MultiCityFetcher.Listener() {
+            private int failures;
 
+            @Override
+            public void onCityLoaded(String city, Forecast forecast) {
+                //the user may have asked for something else in the meantime.
+                if (loadingOverview != overview){
+                    return;
+                }
+                //the row shows the city's name, then its first day (or current weather).
+                String name = forecast.getCityName() != null ? forecast.getCityName() : city;
+                overview.add(forecast.getTimeStamp(0), forecast.getMinTemp(0), forecast.getMaxTemp(0),
+                        forecast.getHumidity(0), forecast.getCondition(0), name);
+                rowCities.add(city);
+                if (overviewCities != rowCities){
+                    overviewCities = rowCities;
+                    displayForecast(overview);
+                }
+                else {
+                    weatherArrayAdapter.notifyItemInserted(overview.size() - 1);
+                }
+            }
 
+            @Override
+            public void onCityFailed(String city, IOException error) {
+                failures++;
+            }
 
-        //the doInBackground method creates the HttpURLConnection's thats used to invoke the web service.
-        @Override
-        protected JSONObject doInBackground(URL... params) {
-            HttpURLConnection connection = null;
+            @Override
+            public void onFinished() {
+                if (loadingOverview != overview){
+                    return;
+                }
+                loadingOverview = null;
+                overviewBatch = null;
+                if (failures > 0){
+                    Snackbar.make(findViewById(R.id.coordinatorLayout),
+                            getString(R.string.cities_failed, failures), Snackbar.LENGTH_LONG).show();
+                }
+                if (overview.size() > 0){
+                    saveSnapshot(query, ForecastUrls.Mode.DAILY, overview);
+                }
+            }
+        });
+    }
 
+    //stop loading the overview, the requests of its remaining cities are dropped or stopped so
+    //they don't hold up the forecast pool.
+    private void cancelOverview(){
+        if (overviewBatch != null){
+            overviewBatch.cancel();
+            overviewBatch = null;
+        }
+        loadingOverview = null;
+    }
 
+    //map the city index in a seperate thread and give it to the citySuggestionAdapter. Without the
+    //index asset there are no suggestions, everything else works the same.
+    private void loadCityIndex(){
+        if (cityIndex != null){
+            citySuggestionAdapter.setCityIndex(cityIndex);
+            return;
+        }
 
-            try {
-                //simply opening the connection makes the request.
-                connection = (HttpURLConnection) params[0].openConnection();
-                //we get the response code from the server.
-                int response = connection.getResponseCode();
-
-
-                //if the response code is HttpURLConnection.HTTP_OK the web service was invoked properly
-                //and there is a response to process.
-                if (response == HttpURLConnection.HTTP_OK){
-
-                    StringBuilder stringBuilder = new StringBuilder();
-                    //In this case we get the HttpURLConnection's InputStream, wrap it in a BufferedReader
-                    try (BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(connection.getInputStream())
-                    )){
-                        //read each line of text from the response and append it to a StringBuilder.
-                        String line;
-                        while ((line = reader.readLine()) != null){
-                            stringBuilder.append(line);
+        final Context appContext = getApplicationContext();
+        WeatherExecutors.FORECAST.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CityIndex index = openCityIndex(appContext);
+                if (index != null){
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            cityIndex = index;
+                            citySuggestionAdapter.setCityIndex(index);
                         }
-                    } catch (IOException e){
-                        //if an error occurs we display a Snackbar indicating a problem occured.
-                        Snackbar.make(findViewById(R.id.coordinatorLayout), R.string.read_error,
-                                Snackbar.LENGTH_LONG).show();
-                        e.printStackTrace();
-                    }
-                    //Then we convert the JSON String in the StringBuilder to a JSON Object
-                    //and return it to the GUI thread.
-                    return new JSONObject(stringBuilder.toString());
-                }
-                else {
-                    //if an error occurs we display a Snackbar indicating a problem occured.
-                    Snackbar.make(findViewById(R.id.coordinatorLayout), R.string.connect_error,
-                            Snackbar.LENGTH_LONG).show();
+                    });
                 }
             }
-            catch (Exception e){
-                //if an error occurs we display a Snackbar indicating a problem occured.
-                Snackbar.make(findViewById(R.id.coordinatorLayout), R.string.connect_error,
-                        Snackbar.LENGTH_LONG).show();
-                e.printStackTrace();
+        }, PriorityExecutor.PRIORITY_PREFETCH);
+    }
+
+    //map the city index asset, or return null if the app has none. Only the header is read, the
+    //pages a search touches are read by the OS when needed.
+    private static CityIndex openCityIndex(Context context){
+        long start = Metrics.beginSection("CityIndex.open");
+        try (AssetFileDescriptor asset = context.getAssets().openFd(CITY_INDEX_ASSET);
+             FileInputStream in = asset.createInputStream();
+             FileChannel channel = in.getChannel()) {
+            //the asset is a part of the APK file, which the channel maps from the asset's offset.
+            //The mapping stays valid once the channel is closed.
+            return new CityIndex(channel.map(FileChannel.MapMode.READ_ONLY,
+                    asset.getStartOffset(), asset.getLength()));
+        }
+        catch (FileNotFoundException e){
+            return null; //built without the city list
+        }
+        catch (IOException e){
+            e.printStackTrace();
+            return null;
+        }
+        finally {
+            OPEN_INDEX_TIME.recordSince(start);
+            Metrics.endSection();
+        }
+    }
+
+    //method dismissKeyboard is called to hide the soft keyboard when the user touches the FAB
+    //to submit a city to the app.
+    private void dismissKeyboard(View view){
+
+        //Android provides a service for managing the keyboard programatically, you can obtain a ref
+        //to this by calling getSystemService with the constant Context.INPUT_METHOD_SERVICE.
+        //getSystemService can return objects of many dif types so you must cast it appropriately.
+        InputMethodManager imm = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
+        //to dismiss the keyboard, call inputmethodmanager's method hideSoftInputFromWindow.
+        imm.hideSoftInputFromWindow(view.getWindowToken(), 0);
+    }
+
+    //forecastListener displays the results of forecastRequests. Views may only be used from the GUI
+    //thread, which is where they are delivered.
+    private final ForecastRequests.Listener forecastListener = new ForecastRequests.Listener() {
+        //display the forecast. A stale cached forecast is displayed while the request is in
+        //progress, a fresh one is also saved in the snapshot.
+        @Override
+        public void onForecast(String city, Forecast forecast, boolean fresh) {
+            //if the cached forecast didn't change, or it was displayed while it arrived, it is
+            //already displayed.
+            if (forecast != weatherArrayAdapter.getForecast()){
+                displayForecast(forecast);
+                recordFirstRow();
             }
-            finally {
-                connection.disconnect(); //close the HttpUrlConnection
+            if (fresh){
+                if (requestedAt != 0){
+                    TIME_TO_DISPLAY.recordSince(requestedAt);
+                    requestedAt = 0;
+                }
+                saveSnapshot(city, mode, forecast);
             }
-            return null;
         }
 
-        //process JSON response and update ListView
+        //display the rows of a 3 hour or hourly forecast that arrived so far. The first batch
+        //replaces the displayed forecast, the following ones are added below it.
         @Override
-        protected void onPostExecute(JSONObject weather) {
+        public void onPartialForecast(String city, Forecast partial) {
+            if (weatherArrayAdapter.setPartialForecast(partial)){
+                weatherListView.scrollToPosition(0);
+                recordFirstRow();
+            }
+        }
 
-            //When onPostExecute is called in the GUI thread, we call convertJSONtoArrayList
-            //to extract the weather data from JSONObject and place it in weatherList
-            convertJSONtoArrayList(weather); //repopulate weatherList
+        //an icon of the 3 hour or hourly forecast being downloaded, its image is loaded while the
+        //rest of the forecast downloads. The standard icons are bundled and need no loading.
+        @Override
+        public void onIcon(String city, String iconName) {
+            weatherArrayAdapter.prefetchIcon(iconName);
+        }
 
-            //then we call ArrayAdapter's notifyDataSetChanged method which causes
-            //weatherListView to update itself with new data.
-            weatherArrayAdapter.notifyDataSetChanged();
+        //if an error occurs we display a Snackbar indicating a problem occured.
+        @Override
+        public void onError(String city, IOException error) {
+            //the response couldn't be read, or there was no response at all.
+            int message = error instanceof ForecastFetcher.ReadException ? R.string.read_error : R.string.connect_error;
+            Snackbar.make(findViewById(R.id.coordinatorLayout), message, Snackbar.LENGTH_LONG).show();
+        }
+    };
 
-            //then we call ListView's smoothToScrollPosition to reposition the ListView's
-            //first item to the top of the ListView. - this ensures that the new weather
-            //forecast's first day is shown at the top.
-            weatherListView.smoothScrollToPosition(0);
+    //the forecast being requested displayed its first rows, whether they are all of it or not.
+    private void recordFirstRow(){
+        if (firstRowPending && requestedAt != 0){
+            TIME_TO_FIRST_ROW.recordSince(requestedAt);
         }
+        firstRowPending = false;
     }
 
+    //save the displayed forecast in the snapshot in the background, it's where the app starts next
+    //time. The mode is saved with it, so the refresh job and the next launch request the same mode.
+    private void saveSnapshot(String query, ForecastUrls.Mode forecastMode, Forecast forecast){
+        final ForecastSnapshot.Item item = new ForecastSnapshot.Item(query, forecastMode, forecast,
+                System.currentTimeMillis());
+        WeatherExecutors.FORECAST.execute(new Runnable() {
+            @Override
+            public void run() {
+                forecastSnapshot.save(item);
+            }
+        }, PriorityExecutor.PRIORITY_PREFETCH);
+    }
 
-    //openweathermap.org returns JSON.
-    //the convertJSONtoArrayList method extracts this weather data from its JSON argument.
-    //create Weather objects from JSONObject containing the forecast.
-    private void convertJSONtoArrayList(JSONObject forecast){
+    //"adb shell dumpsys activity com.deitel.weatherviewer/.MainActivity" prints the metrics after the
+    //activity's usual dump. With the argument "log" they are also written to logcat, with "file"
+    //to METRICS_FILE (read it with "adb shell run-as com.deitel.weatherviewer cat files/metrics.txt").
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        StringWriter metrics = new StringWriter();
+        dumpMetrics(new PrintWriter(metrics));
+        writer.println(prefix + "Metrics:");
+        for (String line : metrics.toString().split("\n")){
+            writer.println(prefix + "  " + line);
+        }
 
-        //First we clear the weatherList of any existing Weather objects.
-        weatherList.clear();
+        for (String arg : args){
+            if ("log".equals(arg)){
+                for (String line : metrics.toString().split("\n")){
+                    Log.i(TAG, line);
+                }
+            }
+            else if ("file".equals(arg)){
+                try (PrintWriter file = new PrintWriter(new File(getFilesDir(), METRICS_FILE))) {
+                    file.print(metrics);
+                }
+                catch (FileNotFoundException e){
+                    e.printStackTrace(writer);
+                }
+            }
+        }
+    }
 
-        //Processing JSON data in a JSONObject or JSONArray can result in JSONExceptions
-        //so we use a try block.
+    //the Metrics, which include HttpClient's counters, followed by the thread pools' and
+    //IconCache's own statistics.
+    private void dumpMetrics(PrintWriter writer){
+        Metrics.dump(writer);
+        writer.println(WeatherExecutors.dump());
+        writer.println(IconCache.getInstance(this));
+        writer.flush();
+    }
 
-        try {
-            //First we obtain the "list" element which is an array in the JSON object returned
-            //by calling getJSONArray. "list" contains "dt" and the "temp" array
-            //"temp" contains the min/max temps we want.
-            JSONArray list = forecast.getJSONArray("list");
-
-            //Then we create a Weather object for every element in JSONArray.
-            //JSONArray method length returns the number of elements in the array.
-            for (int i = 0; i < list.length(); i++){
-
-                //get one day's forecast by calling getJSONObject, which receives an index as its arg.
-                JSONObject day = list.getJSONObject(i);
-                //get the "temp" JSON object, which contains the day's temp data.
-                JSONObject temperatures = day.getJSONObject("temp");
-                //get the "weather" JSONArray and get its first element(0), which also happens to be
-                //an array that contains the day's weather descrip and icon.
-                JSONObject weather = day.getJSONArray("weather").getJSONObject(0);
-
-                //Then we create a Weather object and add it to the weatherList array.
-                weatherList.add(new Weather(
-                        day.getLong("dt"), //date/time timestamp
-                        temperatures.getDouble("min"), //min temp
-                        temperatures.getDouble("max"), //max temp
-                        day.getDouble("humidity"), //percent humidity
-                        weather.getString("description"), //weather conditions
-                        weather.getString("icon") //icon name
-                ));
-            }
-        }
-        catch (JSONException e){
-            e.printStackTrace();
+    //replace the displayed forecast. If it is a refresh of the displayed city's forecast, only the
+    //days that changed are updated and the user stays where they scrolled to.
+    private void displayForecast(Forecast forecast){
+
+        //we give the adapter the Forecast created by the ForecastParser. For another city it calls
+        //its notifyDataSetChanged method, which causes weatherListView to update itself with new data.
+        //then we call RecyclerView's scrollToPosition to reposition the first item to the top -
+        //this ensures that the new weather forecast's first day is shown at the top.
+        if (weatherArrayAdapter.setForecast(forecast)){
+            weatherListView.scrollToPosition(0);
         }
     }
 
@@ -0,0 +1,80 @@
+package com.deitel.weatherviewer;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+//RefreshJobService refreshes the saved cities' forecasts in the background with the
+//SavedCitiesRefresher, so that opening the app is a read of the local ForecastStore rather than a
+//web service round trip. JobScheduler runs it about every refresh_interval_minutes, only on an
+//unmetered network while the device is charging, and batches it with other apps' jobs so the radio
+//isn't woken up just for us. Every due city is refreshed in the same run. If every request fails,
+//JobScheduler retries with an exponential backoff.
+public class RefreshJobService extends JobService {
+
+    private static final String TAG = "RefreshJobService";
+    private static final int JOB_ID = 1;
+    //the wait before the first retry after a failed refresh, doubled for each further one.
+    private static final long BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    //the refresh of the running job, only used on the GUI thread.
+    private SavedCitiesRefresher refresher;
+
+    //schedule the refresh unless it is already scheduled. Scheduling it again would restart its
+    //period, so the app calls this every time it starts.
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+
+        long intervalMillis = context.getResources().getInteger(R.integer.refresh_interval_minutes) * 60 * 1000L;
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, RefreshJobService.class))
+                .setPeriodic(intervalMillis)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setBackoffCriteria(BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                //the job stays scheduled after the device reboots.
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    //onStartJob is called on the GUI thread, so the refresh runs on the forecast pool. Returning
+    //true tells JobScheduler the job goes on until we call jobFinished.
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final SavedCitiesRefresher jobRefresher = new SavedCitiesRefresher(ForecastStore.getSnapshot(this),
+                ForecastStore.getCache(this), ForecastStore.getFetcher(this), ForecastStore.getUrls(this));
+        refresher = jobRefresher;
+
+        //a city whose forecast would be stale before the next run is refreshed now.
+        final long lookaheadMillis = getResources().getInteger(R.integer.refresh_interval_minutes) * 60 * 1000L;
+        WeatherExecutors.FORECAST.execute(new Runnable() {
+            @Override
+            public void run() {
+                SavedCitiesRefresher.Result result = jobRefresher.refresh(lookaheadMillis);
+                Log.i(TAG, "refresh: " + result);
+                jobFinished(params, result.shouldRetry());
+            }
+        }, PriorityExecutor.PRIORITY_PREFETCH);
+        return true;
+    }
+
+    //the constraints aren't met anymore, e.g. the device was unplugged. The cities refreshed so far
+    //are kept, the others are refreshed next time.
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (refresher != null) {
+            refresher.cancel();
+            refresher = null;
+        }
+        return false;
+    }
+}
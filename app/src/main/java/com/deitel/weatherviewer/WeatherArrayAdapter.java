@@ -2,209 +2,353 @@ package com.deitel.weatherviewer;
 
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.List;
 /**
  * Created by Yevgeniy on 6/15/2017.
  */
 
 
-//To map weather data to ListView items, we extend class ArrayAdapter so that we can override
-//ArrayAdapter method getView to configure a custom layout for each ListView item.
-public class WeatherArrayAdapter extends ArrayAdapter<Weather> {
+//To map weather data to the RecyclerView's items, we extend class RecyclerView.Adapter and override
+//onCreateViewHolder and onBindViewHolder to configure a custom layout for each item. The adapter
+//displays a Forecast, which stores the days as numbers: the Strings for a day are only created
+//when its item is bound.
+//When the displayed city's forecast is refreshed, the old and new forecasts are compared in a
+//seperate thread with DiffUtil and only the days that were added, removed or changed are bound
+//again. The RecyclerView keeps its scroll position.
+//A long hourly forecast is displayed while it is still arriving: setPartialForecast inserts the
+//entries added since the last call, the rows already displayed aren't bound again.
+//The temperatures are converted to the unit the user picked when a row is bound, switching the
+//unit only binds the displayed rows again.
+//Formatting a row allocates nothing once the list is scrolling: the String resources are read once
+//into TextTemplates, each item fills its own TextBuffers with the formatter's precomputed Strings,
+//and the TextViews display the buffers' arrays without copying them. What a bound row still
+//allocates comes from the framework: the TextViews lay out their new text, and an item whose
+//condition changed loads the Drawable of its new image. Fewer garbage collections during a fling
+//means fewer dropped frames.
+public class WeatherArrayAdapter extends RecyclerView.Adapter<WeatherArrayAdapter.ViewHolder> {
+
+    //OnItemClickListener is told when the user touches an item, RecyclerView doesn't have an
+    //item click listener like ListView had.
+    public interface OnItemClickListener {
+        void onItemClick(int position);
+    }
 
-    //We use instance variable "bitmaps" to cache previously loaded weather-condition images
-    //so they do not need to be redownloaded as the user scrolls through the weather forecast.
-    //The cached images will remain in memory until Android terminates the app.
-    private Map<String, Bitmap> bitmaps = new HashMap<>();
+    //the Context (i.e the activity in which the RecyclerView is displayed), used to inflate the
+    //items and to load String resources.
+    private final Context context;
+
+    //"iconLoader" loads the weather-condition images into the items' ImageViews from
+    //the IconCache, so they do not need to be redownloaded as the user scrolls through the
+    //weather forecast. It makes sure an image is only downloaded once even if many days share it.
+    private final IconLoader iconLoader;
+    //the number of days after a displayed day whose images are prefetched.
+    private static final int PREFETCH_AHEAD = 3;
+    //the time onBindViewHolder takes to fill an item, and the time to diff two forecasts, in microseconds.
+    private static final Metrics.Histogram BIND_TIME = Metrics.histogram("adapter.bind", "us");
+    private static final Metrics.Histogram DIFF_TIME = Metrics.histogram("adapter.diff", "us");
+
+    //the displayed forecast, null until the first forecast is loaded.
+    private Forecast forecast;
+    //the forecast passed to setForecast last, it is displayed once its diff is computed.
+    private Forecast latest;
+    //incremented by every setForecast, so the diff of a forecast that was replaced in the meantime
+    //is dropped.
+    private int generation;
+    //the unit temperatures are displayed in.
+    private WeatherFormatter.TemperatureUnit unit;
+    //formats the forecast's numbers for the current locale and unit.
+    private WeatherFormatter formatter;
+    private OnItemClickListener onItemClickListener;
+    //the entries of a partial forecast the RecyclerView was told about.
+    private int displayedSize;
+
+    //used to hand the computed diffs back to the GUI thread.
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    //the item's String resources, looked up once instead of once per bind.
+    private final TextTemplate dayTemplate;
+    private final TextTemplate dayHourTemplate;
+    private final TextTemplate lowTemplate;
+    private final TextTemplate highTemplate;
+    private final TextTemplate humidityTemplate;
+
+    //Here we create a constructor that stores the Context and creates the IconLoader.
+    public WeatherArrayAdapter(Context context, WeatherFormatter.TemperatureUnit unit){
+        this.context = context;
+        this.unit = unit;
+        formatter = WeatherFormatter.getInstance(unit);
+        dayTemplate = new TextTemplate(context.getString(R.string.day_description));
+        dayHourTemplate = new TextTemplate(context.getString(R.string.day_hour_description));
+        lowTemplate = new TextTemplate(context.getString(R.string.low_temp));
+        highTemplate = new TextTemplate(context.getString(R.string.high_temp));
+        humidityTemplate = new TextTemplate(context.getString(R.string.humidity));
+        iconLoader = new IconLoader(IconCache.getInstance(context),
+                context.getResources().getDimensionPixelSize(R.dimen.image_side_length));
+    }
 
-    //Here we create a constructor to initialize superclass inherited members,
-    // , the constructor simply calls the superclass's 3 argument constructor
-    //passing Context (i.e the activity in which the ListView is displayed)
-    //and List<Weather> (the list of data to display) as the 1st and 3rd arguments.
-    //The second superclass constructor arg represents a layout resource ID for a layout
-    //that contains a TextView in which a ListView items data is displayed.
-    //We put "-1" to indicate that we use a custom layout in this app so we can display
-    //more than 1 textview.
+    public void setOnItemClickListener(OnItemClickListener onItemClickListener){
+        this.onItemClickListener = onItemClickListener;
+    }
 
-    public WeatherArrayAdapter(Context context, List<Weather> forecast){
-        super(context, -1, forecast);
+    //display the temperatures in another unit. The forecast stays the same, only the displayed rows
+    //are bound again with the other unit's formatter.
+    public void setTemperatureUnit(WeatherFormatter.TemperatureUnit unit){
+        if (unit != this.unit){
+            this.unit = unit;
+            formatter = WeatherFormatter.getInstance(unit);
+            notifyDataSetChanged();
+        }
     }
 
+    //start loading the image of an icon a forecast that is still downloading will show, see
+    //ForecastRequests.Listener.onIcon. Its rows then find it in the IconCache when they are first
+    //bound, instead of starting its download themselves. Bundled icons need no loading.
+    public void prefetchIcon(String iconName){
+        if (ConditionIcons.getDrawable(iconName) == 0){
+            iconLoader.prefetch(formatter.iconURL(iconName));
+        }
+    }
 
+    //display a new forecast. A forecast of another city replaces the displayed one right away and
+    //true is returned, so the caller can scroll back to the first day. A refresh of the displayed
+    //city's forecast is diffed in the background and false is returned.
+    //We also get the formatter again in case the user changed the device's locale or time zone.
+    public boolean setForecast(final Forecast newForecast){
+        if (newForecast == latest){
+            return false;
+        }
+        final int diffGeneration = ++generation;
+        latest = newForecast;
+
+        WeatherFormatter newFormatter = WeatherFormatter.getInstance(unit);
+        final Forecast oldForecast = forecast;
+        //the overview has no city id and is filled while displayed, so it is never diffed.
+        boolean sameCity = oldForecast != null && newForecast.getCityId() != 0
+                && newForecast.getCityId() == oldForecast.getCityId();
+        if (!sameCity || newFormatter != formatter){
+            formatter = newFormatter;
+            forecast = newForecast;
+            notifyDataSetChanged();
+            return !sameCity;
+        }
 
-    //Nested clas ViewHolder defines instance variables that class WeatherArrayAdapter
-    //access directly when manipulating ViewHolder objects. When a ListView item is created,
-    //we'll associate a new ViewHolder object with that item.
-    private static class ViewHolder{
-        ImageView conditionImageView;
-        TextView dayTextView;
-        TextView lowTextView;
-        TextView hiTextView;
-        TextView humidityTextView;
+        //neither forecast is modified anymore, so they can be compared in a seperate thread.
+        WeatherExecutors.FORECAST.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = Metrics.beginSection("WeatherArrayAdapter.diff");
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new ForecastDiffCallback(oldForecast, newForecast), false);
+                DIFF_TIME.recordSince(start);
+                Metrics.endSection();
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == diffGeneration){
+                            forecast = newForecast;
+                            diff.dispatchUpdatesTo(WeatherArrayAdapter.this);
+                        }
+                    }
+                });
+            }
+        }, PriorityExecutor.PRIORITY_VISIBLE);
+        return false;
     }
 
+    //display a forecast that is still growing, see ForecastRequests.Listener.onPartialForecast. The
+    //first call replaces the displayed forecast and returns true, the following ones with the same
+    //forecast insert its new entries. A growing forecast is never diffed.
+    public boolean setPartialForecast(Forecast partial){
+        if (partial != latest){
+            generation++;
+            latest = partial;
+            forecast = partial;
+            formatter = WeatherFormatter.getInstance(unit);
+            displayedSize = partial.size();
+            notifyDataSetChanged();
+            return true;
+        }
+        if (forecast == partial && partial.size() > displayedSize){
+            notifyItemRangeInserted(displayedSize, partial.size() - displayedSize);
+            displayedSize = partial.size();
+        }
+        return false;
+    }
 
-    //The method getView is called to get the View that displays a ListView item's data.
-    //Overriding this method enables you to map data to a custom ListView item. The method
-    //receives the ListView item's position, the View (convertView) representing that ListView item,
-    //and the ListView item's parents as arguments.
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    //the forecast passed to setForecast last, or null.
+    public Forecast getForecast(){
+        return latest;
+    }
 
-        //here we call the inherited ArrayAdapter method getItem() to get from the List<Weather>
-        //the weather object that will be displayed.
-        Weather day = getItem(position);
+    //the number of items, one per day (or per hour, or per 3 hours).
+    @Override
+    public int getItemCount() {
+        return forecast == null ? 0 : forecast.size();
+    }
 
-        //Here we define the Viewholder variable that will be set a new ViewHolder object
-        //or an existing one, depending on whether method getView's convertView arg is null.
-        ViewHolder viewHolder;
 
-        if (convertView == null){
-            //If convertView is null we create a new ViewHolder to store references to a new
-            //ListView's item's views.
-            viewHolder = new ViewHolder();
 
-            //Then we get the layout inflater which we use to inflate ListView item's layout.
-            LayoutInflater inflater = LayoutInflater.from(getContext());
+    //Nested clas ViewHolder defines instance variables that class WeatherArrayAdapter
+    //access directly when manipulating ViewHolder objects. When an item is created,
+    //we'll associate a new ViewHolder object with that item.
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView conditionImageView;
+        final TextView dayTextView;
+        final TextView lowTextView;
+        final TextView hiTextView;
+        final TextView humidityTextView;
+        //the text of each TextView, rewritten by every bind. A TextView keeps displaying the array
+        //it was given, so each item needs its own.
+        final TextBuffer dayText = new TextBuffer(64);
+        final TextBuffer lowText = new TextBuffer(32);
+        final TextBuffer hiText = new TextBuffer(32);
+        final TextBuffer humidityText = new TextBuffer(32);
+        //the bundled image displayed, 0 if none. Setting the same image again would load a new Drawable.
+        int bundledIcon;
+
+        ViewHolder(View itemView){
+            super(itemView);
+            //Get references to views
+            conditionImageView = (ImageView) itemView.findViewById(R.id.conditionImageView);
+            dayTextView = (TextView) itemView.findViewById(R.id.dayTextView);
+            lowTextView = (TextView) itemView.findViewById(R.id.lowTextView);
+            hiTextView = (TextView) itemView.findViewById(R.id.hiTextView);
+            humidityTextView = (TextView) itemView.findViewById(R.id.humidityTextView);
+        }
+    }
 
-            //the first arg is the layout to inflate, the second is the layout's parent ViewGroup,
-            //the third is a boolean indicating whether the views should be attached automatically.
-            //We say "false" because the ListView calls method getView to obtain the item's view,
-            //then attaches it to the listview.
-            convertView = inflater.inflate(R.layout.list_item, parent,false);
 
-            //Get references to views
-            viewHolder.conditionImageView = (ImageView) convertView.findViewById(R.id.conditionImageView);
-            viewHolder.dayTextView = (TextView) convertView.findViewById(R.id.dayTextView);
-            viewHolder.lowTextView = (TextView) convertView.findViewById(R.id.lowTextView);
-            viewHolder.hiTextView = (TextView) convertView.findViewById(R.id.hiTextView);
-            viewHolder.humidityTextView = (TextView) convertView.findViewById(R.id.humidityTextView);
+    //onCreateViewHolder is called when the RecyclerView needs a new item, it only happens until
+    //there are enough items to fill the screen. After that the items that scrolled off the screen
+    //are reused.
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        //the first arg is the layout to inflate, the second is the layout's parent ViewGroup,
+        //the third is a boolean indicating whether the views should be attached automatically.
+        //We say "false" because the RecyclerView attaches the item itself.
+        View itemView = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        final ViewHolder viewHolder = new ViewHolder(itemView);
+
+        itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                //the item's position may have changed since it was bound.
+                int position = viewHolder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && onItemClickListener != null){
+                    onItemClickListener.onItemClick(position);
+                }
+            }
+        });
+        return viewHolder;
+    }
 
-            //Here we set the new ViewHolder object as the ListView item's tag to store the ViewHolder with
-            //the ListView item for future use.
-            convertView.setTag(viewHolder);
+    //onBindViewHolder sets the data of the day at position in the item's views.
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position) {
+        long start = Metrics.beginSection("WeatherArrayAdapter.onBindViewHolder");
+
+        //the weather-condition images of the openweathermap.org icon set are bundled with the app,
+        //so they are displayed right away.
+        String iconName = forecast.getIconName(position);
+        int bundledIcon = ConditionIcons.getDrawable(iconName);
+        if (bundledIcon != 0){
+            if (bundledIcon != viewHolder.bundledIcon){
+                iconLoader.loadBundled(viewHolder.conditionImageView, bundledIcon);
+                viewHolder.bundledIcon = bundledIcon;
+            }
         }
         else {
-            //if the convertView is not null, the ListView is reusing a ListView item that scrolled off the screen
-            //we use getTag() which gets the current ListView item's tag, which is the ViewHolder
-            //that was prev attached to it.
-            viewHolder = (ViewHolder) convertView.getTag();
+            viewHolder.bundledIcon = 0;
+            //for an icon we don't know, the iconLoader sets the conditionImageView's image right
+            //away if it is cached, otherwise it downloads it in a seperate thread. The URL is built
+            //once per icon name. If this item was reused, the image of the day it displayed before
+            //is no longer set when its download completes.
+            iconLoader.load(viewHolder.conditionImageView, formatter.iconURL(iconName));
         }
 
-        //Now that we the ViewHolder we can start to set the data for the ListItem's views.
+        //we also prefetch the images of the next few days that aren't bundled, so they are ready
+        //when the user scrolls to them. They are only downloaded when no visible item is waiting
+        //for an image.
+        for (int i = position + 1; i <= position + PREFETCH_AHEAD && i < getItemCount(); i++){
+            String nextIconName = forecast.getIconName(i);
+            if (ConditionIcons.getDrawable(nextIconName) == 0){
+                iconLoader.prefetch(formatter.iconURL(nextIconName));
+            }
+        }
 
-        //if the weather-condition image was prev downloaded, the bitmaps object will contain a key
-        //for the Weather object's iconURL.
-        if (bitmaps.containsKey(day.iconURL)){
-            //if so, we get the existing Bitmap from bitmaps and set the conditionImageView's image
-            viewHolder.conditionImageView.setImageBitmap(bitmaps.get(day.iconURL));
+        //Then  we set the Strings for the item's TextViews
+
+        //get other data from the Forecast, format it and place into views. The templates fill
+        //the String resources into the item's buffers.
+        //a labelled row (a city in the multi-city overview) shows its label instead of the day.
+        //The rows of an hourly or 3 hour forecast show the day and the time.
+        String label = forecast.getLabel(position);
+        long timeStamp = forecast.getTimeStamp(position);
+        long interval = forecast.getInterval();
+        if (label == null && interval > 0 && interval < 24 * 60 * 60){
+            dayHourTemplate.format(viewHolder.dayText, formatter.dayOfWeek(timeStamp), formatter.hour(timeStamp),
+                    forecast.getDescription(position));
         }
         else {
-            //otherwise we create a new LoadImageTask to download the image in a seperate thread.
-            //The task's execute method receives the iconURL and initiates the task.
-            new LoadImageTask(viewHolder.conditionImageView).execute(day.iconURL);
+            dayTemplate.format(viewHolder.dayText, label != null ? label : formatter.dayOfWeek(timeStamp),
+                    forecast.getDescription(position));
         }
-
-        //Then  we set the Strings for the ListView item's TextViews
-
-        //get other data from Weather object and place into views.
-        Context context = getContext(); // for loading String resources.
-        viewHolder.dayTextView.setText(context.getString(R.string.day_description, day.dayOfWeek, day.description));
-        viewHolder.lowTextView.setText(context.getString(R.string.low_temp, day.minTemp));
-        viewHolder.hiTextView.setText(context.getString(R.string.high_temp, day.maxTemp));
-        viewHolder.humidityTextView.setText(context.getString(R.string.humidity, day.humidity));
-
-        //Finally we return ListView item's configured View.
-        return convertView;
+        lowTemplate.format(viewHolder.lowText, formatter.temperature(forecast.getMinTemp(position)));
+        highTemplate.format(viewHolder.hiText, formatter.temperature(forecast.getMaxTemp(position)));
+        humidityTemplate.format(viewHolder.humidityText, formatter.humidity(forecast.getHumidity(position)));
+        setText(viewHolder.dayTextView, viewHolder.dayText);
+        setText(viewHolder.lowTextView, viewHolder.lowText);
+        setText(viewHolder.hiTextView, viewHolder.hiText);
+        setText(viewHolder.humidityTextView, viewHolder.humidityText);
+
+        BIND_TIME.recordSince(start);
+        Metrics.endSection();
     }
 
+    //display a buffer's text. TextView wraps the array instead of copying it into a String.
+    private static void setText(TextView textView, TextBuffer text){
+        textView.setText(text.chars(), 0, text.length());
+    }
 
-    //Nested class LoadImageTask defines how to download a weather-condition image in a seperate thread.
-    //then return the image to the GUI thread for display in the ListView item's imageview.
-    //AsyncTask is a generic type that requires 3 parameters:
-    //1: doInBackground:
-    //2: onProgressUpdate: (optional), we dont use so we put Void
-    //3: onPostExecute:
-    private class LoadImageTask extends AsyncTask<String, Void, Bitmap>{
-
-        //displays the thumbnail.
-        private ImageView imageView;
-        //store ImageView on which to set the downloaded Bitmap
-        public LoadImageTask(ImageView imageView){
-            this.imageView = imageView;
-        }
-
-        //load image; params[0] is the String URL representing the image
-        //We use a variable-length parameter-list type (String) for
-        //the doInBackground method which you must overload.
-        //When you call the tasks execute method its creates a thread
-        //in which doInBackground performs the task. This app passes the weather conditions
-        //icon's URL string as the argument to the execute method.
-        //doInBackground uses an HttpURLConnection to download the weather-condition image.
-        @Override
-        protected Bitmap doInBackground(String... params) {
-
-            Bitmap bitmap = null;
-            HttpURLConnection connection = null;
-
-            try {
-                //Here we convert the URL string that was passed to the asynctask's execute method into a URL object.
-                URL url = new URL(params[0]); //create URL for image
-
-                //open an HttpURLConnection, get its InputStream and download the image.
-                //we call the URL method openConnection to get an HttpURLConnection - the cast is required
-                //because the method returns a URLConnection.
-                //"openConnection" requests the content specified by the URL.
-                connection = (HttpURLConnection) url.openConnection();
+    //ForecastDiffCallback tells DiffUtil which days of two forecasts are the same day and whether
+    //they changed. A refreshed forecast usually starts a day later and ends a day later, with the
+    //same values for most days in between.
+    private static class ForecastDiffCallback extends DiffUtil.Callback {
+        private final Forecast oldForecast;
+        private final Forecast newForecast;
 
+        ForecastDiffCallback(Forecast oldForecast, Forecast newForecast){
+            this.oldForecast = oldForecast;
+            this.newForecast = newForecast;
+        }
 
-                //Here we get the HttpURLConnection's InputStream,
-                try (InputStream inputStream = connection.getInputStream()){
+        @Override
+        public int getOldListSize() {
+            return oldForecast.size();
+        }
 
-                    //which we pass to BitmapFactory method "decodeStream" to read the image bytes and return a
-                    //bitmap object containing the image.
-                    bitmap = BitmapFactory.decodeStream(inputStream);
-                    //Then we cache the downloaded image in the bitmaps Map for potential reuse.
-                    bitmaps.put(params[0], bitmap);
+        @Override
+        public int getNewListSize() {
+            return newForecast.size();
+        }
 
-                } catch (Exception e){
-                    e.printStackTrace();
-                }
-            } catch (Exception e){
-                e.printStackTrace();
-            }
-            finally {
-                connection.disconnect(); //close the connection.
-            }
-            //returns the downloaded Bitmap, which is then passed to onPostExecute
-            //in the GUI thread, to display the image.
-            return bitmap;
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldForecast.isSameItem(oldItemPosition, newForecast, newItemPosition);
         }
 
-        //set weather condition image in list item.
-        //Bitmap is the type of the task's result,which is passed to the onPostExecute method.
-        //This method executes in the GUI thread and enables the ListView item's ImageView to display
-        //asynctask's results. The ImageView to update is specified as an argument to class LoadImageTask's constructor.
         @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            imageView.setImageBitmap(bitmap);
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldForecast.hasSameContents(oldItemPosition, newForecast, newItemPosition);
         }
     }
 
@@ -0,0 +1,94 @@
+package com.deitel.weatherviewer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Suggesting cities as the user types: a prefix search of an index the size of openweathermap.org's
+// city list (about 200,000 cities), and mapping it. The gc profiler shows what a search allocates,
+// the index itself is mapped and never on the heap.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CityIndexBenchmark {
+
+    private static final int CITIES = 200000;
+    private static final String[] SYLLABLES = {
+            "ba", "ber", "bos", "ca", "chi", "de", "el", "fa", "ge", "ha", "in", "jo", "ka", "la",
+            "lon", "ma", "mo", "na", "new", "o", "pa", "que", "ri", "san", "sta", "to", "u", "va",
+            "wel", "x", "yo", "zu"};
+
+    private File file;
+    private CityIndex index;
+
+    @Setup(Level.Trial)
+    public void buildIndex() throws IOException {
+        //random names of 2 to 4 syllables, sometimes 2 words, like the real list.
+        Random random = new Random(42);
+        CityIndexBuilder builder = new CityIndexBuilder();
+        for (int i = 0; i < CITIES; i++) {
+            StringBuilder name = new StringBuilder();
+            int syllables = 2 + random.nextInt(3);
+            for (int s = 0; s < syllables; s++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            if (random.nextInt(4) == 0) {
+                name.append(' ').append(SYLLABLES[random.nextInt(SYLLABLES.length)]).append("ton");
+            }
+            name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+            builder.add(1000000 + i, name.toString(), null, "US");
+        }
+
+        file = File.createTempFile("cities", ".idx");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            builder.write(out);
+        }
+        index = CityIndex.open(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteIndex() {
+        file.delete();
+    }
+
+    // typing the first letters: the most matches, only the first 8 are read.
+    @Benchmark
+    public List<CityIndex.City> searchShortPrefix() {
+        return index.search("bo", 8);
+    }
+
+    @Benchmark
+    public List<CityIndex.City> searchLongPrefix() {
+        return index.search("Boston ca", 8);
+    }
+
+    @Benchmark
+    public List<CityIndex.City> searchMiss() {
+        return index.search("qqq", 8);
+    }
+
+    // the app maps the index once, so this is measured a single call at a time. Every call adds a
+    // mapping that is only removed by the GC, in a loop they would exhaust the process' mappings.
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 100)
+    public CityIndex open() throws IOException {
+        return CityIndex.open(file);
+    }
+}
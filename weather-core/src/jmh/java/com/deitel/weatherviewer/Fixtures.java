@@ -0,0 +1,31 @@
+package com.deitel.weatherviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// The recorded web service responses in weather-core/fixtures.
+final class Fixtures {
+
+    static final String DAILY_16 = "forecast_daily_16.json";
+    static final String HOURLY_5_DAY = "forecast_3hourly_5day.json";
+    static final String GROUP_BATCH = "group_batch_200.json";
+
+    private Fixtures() {
+    }
+
+    static byte[] read(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.deitel.weatherviewer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Cost of creating the Strings displayed for a whole 16 day forecast, and of the complete path from
+// response to displayed Strings, against the Weather constructor the app used before.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FormatBenchmark {
+
+    private byte[] daily16;
+    private Forecast forecast;
+
+    @Setup
+    public void readFixtures() throws IOException {
+        daily16 = Fixtures.read(Fixtures.DAILY_16);
+        forecast = ForecastParser.parse(new ByteArrayInputStream(daily16));
+    }
+
+    @Benchmark
+    public void formatDaily16(Blackhole blackhole) {
+        format(forecast, WeatherFormatter.getInstance(WeatherFormatter.TemperatureUnit.CELSIUS), blackhole);
+    }
+
+    @Benchmark
+    public void legacyFormatDaily16(Blackhole blackhole) {
+        for (int day = 0; day < forecast.size(); day++) {
+            blackhole.consume(new LegacyWeather(forecast.getTimeStamp(day), forecast.getMinTemp(day),
+                    forecast.getMaxTemp(day), forecast.getHumidity(day), forecast.getDescription(day),
+                    forecast.getIconName(day)));
+        }
+    }
+
+    @Benchmark
+    public void parseAndFormatDaily16(Blackhole blackhole) throws IOException {
+        format(ForecastParser.parse(new ByteArrayInputStream(daily16)),
+                WeatherFormatter.getInstance(WeatherFormatter.TemperatureUnit.CELSIUS), blackhole);
+    }
+
+    // what WeatherArrayAdapter.getView creates for each day.
+    private static void format(Forecast forecast, WeatherFormatter formatter, Blackhole blackhole) {
+        for (int day = 0; day < forecast.size(); day++) {
+            blackhole.consume(formatter.dayOfWeek(forecast.getTimeStamp(day)));
+            blackhole.consume(formatter.temperature(forecast.getMinTemp(day)));
+            blackhole.consume(formatter.temperature(forecast.getMaxTemp(day)));
+            blackhole.consume(formatter.humidity(forecast.getHumidity(day)));
+            blackhole.consume(forecast.getDescription(day));
+            blackhole.consume(formatter.iconURL(forecast.getIconName(day)));
+        }
+    }
+}
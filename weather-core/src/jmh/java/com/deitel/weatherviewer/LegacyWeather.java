@@ -0,0 +1,78 @@
+package com.deitel.weatherviewer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+// The Weather class and MainActivity.convertJSONtoArrayList as they were before ForecastParser and
+// WeatherFormatter, kept as the baseline the benchmarks compare against.
+final class LegacyWeather {
+
+    final String dayOfWeek;
+    final String minTemp;
+    final String maxTemp;
+    final String humidity;
+    final String description;
+    final String iconURL;
+
+    LegacyWeather(long timeStamp, double minTemp, double maxTemp, double humidity, String description,
+                  String iconName) {
+        NumberFormat numberFormat = NumberFormat.getInstance();
+        numberFormat.setMaximumFractionDigits(0);
+
+        this.dayOfWeek = convertTimeStampToDay(timeStamp);
+        this.minTemp = numberFormat.format(minTemp) + "\u00B0F";
+        this.maxTemp = numberFormat.format(maxTemp) + "\u00B0F";
+        this.humidity = NumberFormat.getPercentInstance().format(humidity / 100.0);
+        this.description = description;
+        this.iconURL = "http://openweathermap.org/img/w/" + iconName + ".png";
+    }
+
+    private static String convertTimeStampToDay(long timeStamp) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeStamp * 1000);
+        TimeZone tz = TimeZone.getDefault();
+        calendar.add(Calendar.MILLISECOND, tz.getOffset(calendar.getTimeInMillis()));
+        SimpleDateFormat dateFormatter = new SimpleDateFormat("EEEE");
+        return dateFormatter.format(calendar.getTime());
+    }
+
+    // GetWeatherTask.doInBackground read the response line by line into a String, then
+    // convertJSONtoArrayList created a Weather per day from the JSONObject tree.
+    static List<LegacyWeather> convert(byte[] response) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(response)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.append(line);
+            }
+        }
+
+        List<LegacyWeather> weatherList = new ArrayList<>();
+        JSONArray list = new JSONObject(builder.toString()).getJSONArray("list");
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject day = list.getJSONObject(i);
+            JSONObject temperatures = day.getJSONObject("temp");
+            JSONObject weather = day.getJSONArray("weather").getJSONObject(0);
+            weatherList.add(new LegacyWeather(
+                    day.getLong("dt"),
+                    temperatures.getDouble("min"),
+                    temperatures.getDouble("max"),
+                    day.getDouble("humidity"),
+                    weather.getString("description"),
+                    weather.getString("icon")));
+        }
+        return weatherList;
+    }
+}
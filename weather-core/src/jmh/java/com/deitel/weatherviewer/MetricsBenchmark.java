@@ -0,0 +1,33 @@
+package com.deitel.weatherviewer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of timing one stage with Metrics, which is done for every request, parse and ListView item.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    private final Metrics.Histogram histogram = Metrics.histogram("benchmark.section", "us");
+
+    @Benchmark
+    public void timeSection() {
+        long start = Metrics.beginSection("benchmark");
+        histogram.recordSince(start);
+        Metrics.endSection();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void timeSectionFromFourThreads() {
+        timeSection();
+    }
+}
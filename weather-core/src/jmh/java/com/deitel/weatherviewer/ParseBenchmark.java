@@ -0,0 +1,54 @@
+package com.deitel.weatherviewer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Time and allocation (with the gc profiler) of turning a response into a Forecast, for each
+// recorded response, against the JSONObject conversion the app used before.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+    private byte[] daily16;
+    private byte[] hourly5Day;
+    private byte[] groupBatch;
+
+    @Setup
+    public void readFixtures() throws IOException {
+        daily16 = Fixtures.read(Fixtures.DAILY_16);
+        hourly5Day = Fixtures.read(Fixtures.HOURLY_5_DAY);
+        groupBatch = Fixtures.read(Fixtures.GROUP_BATCH);
+    }
+
+    @Benchmark
+    public Forecast parseDaily16() throws IOException {
+        return ForecastParser.parse(new ByteArrayInputStream(daily16));
+    }
+
+    @Benchmark
+    public Forecast parseHourly5Day() throws IOException {
+        return ForecastParser.parse(new ByteArrayInputStream(hourly5Day));
+    }
+
+    @Benchmark
+    public Map<Long, Forecast> parseGroupBatch() throws IOException {
+        return ForecastParser.parseGroup(new ByteArrayInputStream(groupBatch));
+    }
+
+    @Benchmark
+    public List<LegacyWeather> legacyConvertDaily16() throws IOException {
+        return LegacyWeather.convert(daily16);
+    }
+}
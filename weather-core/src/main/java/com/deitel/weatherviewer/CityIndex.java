@@ -0,0 +1,176 @@
+package com.deitel.weatherviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+//CityIndex finds the cities of openweathermap.org's city list whose name starts with what the user
+//typed, so the app can suggest them and then request a forecast by city id instead of sending the
+//typed text to be geocoded by the server. The index is built by CityIndexBuilder and read straight
+//from a memory-mapped file, so opening it reads nothing but the header and its size doesn't count
+//against the app's heap: the pages a search touches are loaded by the OS on demand.
+//
+//File format, big-endian:
+//  header:  int MAGIC, int VERSION, int number of cities, int offset of the strings
+//  cities:  ENTRY_SIZE bytes each, sorted by key: long id, int key offset, int name offset,
+//           short key length, short name length, 2 ASCII bytes country code
+//  strings: the UTF-8 keys and names the cities point to
+//A city's key is its normalized name (see normalize), its name is how it is displayed. A search
+//is a binary search for the first key starting with the normalized prefix, about 18 comparisons
+//for 200,000 cities, then a scan of the following keys. Comparing keys allocates nothing.
+//Any number of threads may search at once.
+public class CityIndex {
+
+    static final int MAGIC = 0x43495459; //"CITY"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 24;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //City is a search result.
+    public static class City {
+        public final long id; //openweathermap.org city id
+        public final String name; //e.g. "Boston" or "Springfield, IL"
+        public final String country; //ISO 3166 country code, e.g. "US", may be empty
+
+        public City(long id, String name, String country) {
+            this.id = id;
+            this.name = name;
+            this.country = country;
+        }
+
+        //how the city is displayed and typed, e.g. "Boston, US". This also works as a "q=" query.
+        @Override
+        public String toString() {
+            return country.isEmpty() ? name : name + ", " + country;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int stringsStart;
+
+    //read an index from buffer, which is usually a MappedByteBuffer.
+    public CityIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a city index");
+        }
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.stringsStart = buffer.getInt(12);
+        if (count < 0 || stringsStart != HEADER_SIZE + (long) count * ENTRY_SIZE || stringsStart > buffer.limit()) {
+            throw new IOException("Damaged city index");
+        }
+    }
+
+    //map the index file into memory.
+    public static CityIndex open(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            //the mapping stays valid after the file is closed.
+            return new CityIndex(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+        }
+    }
+
+    //the number of cities.
+    public int size() {
+        return count;
+    }
+
+    //at most limit cities whose key starts with the normalized prefix, in key order. An empty
+    //prefix matches nothing.
+    public List<City> search(String prefix, int limit) {
+        byte[] key = normalize(prefix).getBytes(UTF_8);
+        if (key.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        //binary search for the first key that isn't smaller than the prefix.
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareKey(middle, key) < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+
+        List<City> cities = new ArrayList<>(Math.min(limit, 16));
+        for (int entry = low; entry < count && cities.size() < limit && startsWith(entry, key); entry++) {
+            cities.add(city(entry));
+        }
+        return cities;
+    }
+
+    //the key used to compare city names: accents removed, lower case, anything that isn't a letter
+    //or digit replaced by a space, and single spaces. "S\u00E3o Paulo" and "sao  paulo" are both "sao paulo".
+    public static String normalize(String name) {
+        //lower case first, so the marks it may add are removed with the accents.
+        String decomposed = Normalizer.normalize(name.toLowerCase(Locale.US), Normalizer.Form.NFD);
+        StringBuilder key = new StringBuilder(decomposed.length());
+        boolean space = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue; //an accent of the previous letter
+            }
+            if (Character.isLetterOrDigit(c)) {
+                if (space && key.length() > 0) {
+                    key.append(' ');
+                }
+                space = false;
+                key.append(c);
+            }
+            else {
+                space = true;
+            }
+        }
+        return key.toString();
+    }
+
+    //compare the key of entry with key, byte by byte as unsigned values, only up to key's length:
+    //a key starting with key compares as equal.
+    private int compareKey(int entry, byte[] key) {
+        int base = HEADER_SIZE + entry * ENTRY_SIZE;
+        int offset = buffer.getInt(base + 8);
+        int length = buffer.getShort(base + 16) & 0xFFFF;
+        int compared = Math.min(length, key.length);
+        for (int i = 0; i < compared; i++) {
+            int difference = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length < key.length ? -1 : 0;
+    }
+
+    private boolean startsWith(int entry, byte[] key) {
+        return compareKey(entry, key) == 0;
+    }
+
+    private City city(int entry) {
+        int base = HEADER_SIZE + entry * ENTRY_SIZE;
+        long id = buffer.getLong(base);
+        int nameOffset = buffer.getInt(base + 12);
+        int nameLength = buffer.getShort(base + 18) & 0xFFFF;
+        char[] country = {(char) buffer.get(base + 20), (char) buffer.get(base + 21)};
+
+        //the buffer's position is never used, so a duplicate lets threads read at the same time.
+        byte[] name = new byte[nameLength];
+        ByteBuffer view = buffer.duplicate();
+        view.position(nameOffset);
+        view.get(name);
+        return new City(id, new String(name, UTF_8), country[0] == ' ' ? "" : new String(country));
+    }
+}
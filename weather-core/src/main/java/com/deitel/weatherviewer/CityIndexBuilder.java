@@ -0,0 +1,183 @@
+package com.deitel.weatherviewer;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+//CityIndexBuilder creates the CityIndex file from openweathermap.org's city list
+//(http://bulk.openweathermap.org/sample/city.list.json.gz), a JSON array with an object per city:
+//  {"id": 4930956, "name": "Boston", "state": "MA", "country": "US", "coord": {...}}
+//It runs at build time (the weather-core buildCityIndex task), not in the app:
+//  java com.deitel.weatherviewer.CityIndexBuilder city.list.json.gz cities.idx
+public class CityIndexBuilder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //one city of the list, with its key and name already encoded.
+    private static class Row {
+        final long id;
+        final byte[] key;
+        final byte[] name;
+        final String country;
+
+        Row(long id, byte[] key, byte[] name, String country) {
+            this.id = id;
+            this.key = key;
+            this.name = name;
+            this.country = country;
+        }
+    }
+
+    private final List<Row> rows = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: CityIndexBuilder <city.list.json[.gz]> <index file>");
+            System.exit(1);
+        }
+
+        CityIndexBuilder builder = new CityIndexBuilder();
+        File input = new File(args[0]);
+        try (InputStream in = input.getName().endsWith(".gz")
+                ? new GZIPInputStream(new FileInputStream(input)) : new FileInputStream(input)) {
+            builder.addAll(new InputStreamReader(in, UTF_8));
+        }
+
+        File output = new File(args[1]);
+        File directory = output.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            builder.write(out);
+        }
+        System.out.println(builder.rows.size() + " cities, " + output.length() + " bytes");
+    }
+
+    //add a city. state may be null or empty, country is a 2 letter code or empty.
+    public void add(long id, String name, String state, String country) {
+        String key = CityIndex.normalize(name);
+        if (key.isEmpty()) {
+            return;
+        }
+        String displayed = state == null || state.isEmpty() ? name : name + ", " + state;
+        rows.add(new Row(id, key.getBytes(UTF_8), displayed.getBytes(UTF_8),
+                country == null || country.length() != 2 ? "" : country));
+    }
+
+    //add every city of a city list.
+    public void addAll(Reader cityList) throws IOException {
+        JsonReader reader = new JsonReader(cityList);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            long id = 0;
+            String name = null;
+            String state = null;
+            String country = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.skipValue();
+                    continue;
+                }
+                switch (field) {
+                    case "id":
+                        id = reader.nextLong();
+                        break;
+                    case "name":
+                        name = reader.nextString();
+                        break;
+                    case "state":
+                        state = reader.nextString();
+                        break;
+                    case "country":
+                        country = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (id != 0 && name != null) {
+                add(id, name, state, country);
+            }
+        }
+        reader.endArray();
+    }
+
+    //write the index, see CityIndex for the format.
+    public void write(OutputStream output) throws IOException {
+        //sorted by key, then by name and country so the same names are listed in a stable order.
+        Collections.sort(rows, new Comparator<Row>() {
+            @Override
+            public int compare(Row a, Row b) {
+                int result = compareBytes(a.key, b.key);
+                if (result == 0) {
+                    result = compareBytes(a.name, b.name);
+                }
+                if (result == 0) {
+                    result = a.country.compareTo(b.country);
+                }
+                return result;
+            }
+        });
+
+        int stringsStart = CityIndex.HEADER_SIZE + rows.size() * CityIndex.ENTRY_SIZE;
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(CityIndex.MAGIC);
+        out.writeInt(CityIndex.VERSION);
+        out.writeInt(rows.size());
+        out.writeInt(stringsStart);
+
+        for (Row row : rows) {
+            int keyOffset = stringsStart + strings.size();
+            strings.write(row.key);
+            int nameOffset = stringsStart + strings.size();
+            strings.write(row.name);
+
+            out.writeLong(row.id);
+            out.writeInt(keyOffset);
+            out.writeInt(nameOffset);
+            out.writeShort(row.key.length);
+            out.writeShort(row.name.length);
+            out.writeByte(row.country.isEmpty() ? ' ' : row.country.charAt(0));
+            out.writeByte(row.country.isEmpty() ? ' ' : row.country.charAt(1));
+            out.writeShort(0); //padding
+        }
+        strings.writeTo(out);
+        out.flush();
+    }
+
+    //compare as unsigned bytes, the order CityIndex searches in.
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+}
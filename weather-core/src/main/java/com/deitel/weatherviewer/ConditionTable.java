@@ -0,0 +1,60 @@
+package com.deitel.weatherviewer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//ConditionTable gives every distinct weather condition (its description and icon name) a small
+//number, so a Forecast stores one short per day instead of two Strings. A forecast has only a
+//handful of distinct conditions and openweathermap.org uses a few dozen in total, so the table
+//is shared by every Forecast of the app and stays small.
+//Conditions are only ever added, so a code stays valid for as long as the app runs.
+public final class ConditionTable {
+
+    //code for each "icon\ndescription" key, guarded by the class lock.
+    private static final Map<String, Integer> codes = new HashMap<>();
+
+    //descriptions[code] and iconNames[code]. The arrays are replaced, never modified, when a
+    //condition is added, so they can be read without locking.
+    private static volatile String[] descriptions = new String[0];
+    private static volatile String[] iconNames = new String[0];
+
+    private ConditionTable() {
+    }
+
+    //the code of a condition, adding it to the table if it is new.
+    public static int codeFor(String description, String iconName) {
+        String key = iconName + "\n" + description;
+        synchronized (ConditionTable.class) {
+            Integer code = codes.get(key);
+            if (code != null) {
+                return code;
+            }
+
+            int newCode = descriptions.length;
+            if (newCode > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many weather conditions");
+            }
+            String[] newDescriptions = new String[newCode + 1];
+            String[] newIconNames = new String[newCode + 1];
+            System.arraycopy(descriptions, 0, newDescriptions, 0, newCode);
+            System.arraycopy(iconNames, 0, newIconNames, 0, newCode);
+            newDescriptions[newCode] = description;
+            newIconNames[newCode] = iconName;
+            //iconNames is published first, so a reader that sees the new descriptions sees both.
+            iconNames = newIconNames;
+            descriptions = newDescriptions;
+            codes.put(key, newCode);
+            return newCode;
+        }
+    }
+
+    //the description of a condition, e.g. "light rain".
+    public static String getDescription(int code) {
+        return descriptions[code];
+    }
+
+    //the openweathermap.org icon name of a condition, e.g. "10d".
+    public static String getIconName(int code) {
+        return iconNames[code];
+    }
+}
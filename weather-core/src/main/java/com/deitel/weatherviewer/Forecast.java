@@ -0,0 +1,171 @@
+package com.deitel.weatherviewer;
+
+import java.util.Arrays;
+
+//Forecast stores the days of a forecast column by column in arrays of primitives: one array of
+//timestamps, one of min temperatures, and so on. Conditions are stored as ConditionTable codes.
+//A day takes 22 bytes (a long, three floats and a short) instead of a Weather object with 6
+//formatted Strings, and the Strings the user sees are only created when WeatherArrayAdapter binds
+//a day.
+//A Forecast is filled by a single thread (the ForecastParser) and not modified once it is handed
+//to other threads. The multi-city overview is the exception, it is filled on the GUI thread while
+//it is displayed.
+public class Forecast {
+
+    //the openweathermap.org id and name of the forecast's city, 0 and null if unknown.
+    private long cityId;
+    private String cityName;
+
+    private int size;
+    private long[] timeStamps; //seconds since the epoch
+    private float[] minTemps; //degrees C, WeatherFormatter converts them to the unit the user picked
+    private float[] maxTemps; //degrees C
+    private float[] humidities; //percent
+    private short[] conditions; //ConditionTable codes
+    private String[] labels; //displayed instead of the day name, null if no day has a label
+
+    //create an empty forecast with room for capacity days, it grows if more are added.
+    public Forecast(int capacity) {
+        timeStamps = new long[capacity];
+        minTemps = new float[capacity];
+        maxTemps = new float[capacity];
+        humidities = new float[capacity];
+        conditions = new short[capacity];
+    }
+
+    //add a day at the end of the forecast.
+    public void add(long timeStamp, float minTemp, float maxTemp, float humidity, int condition) {
+        if (size == timeStamps.length) {
+            grow(Math.max(16, size * 2));
+        }
+        timeStamps[size] = timeStamp;
+        minTemps[size] = minTemp;
+        maxTemps[size] = maxTemp;
+        humidities[size] = humidity;
+        conditions[size] = (short) condition;
+        size++;
+    }
+
+    //add a day displayed with a label instead of its day name, e.g. the first day of each city's
+    //forecast in the multi-city overview.
+    public void add(long timeStamp, float minTemp, float maxTemp, float humidity, int condition, String label) {
+        add(timeStamp, minTemp, maxTemp, humidity, condition);
+        if (labels == null) {
+            labels = new String[timeStamps.length];
+        }
+        labels[size - 1] = label;
+    }
+
+    //add the days from (inclusive) to to (exclusive) of other at the end of this forecast, e.g. a
+    //batch of a forecast that is still being parsed.
+    public void addAll(Forecast other, int from, int to) {
+        for (int day = from; day < to; day++) {
+            if (other.labels != null && other.labels[day] != null) {
+                add(other.timeStamps[day], other.minTemps[day], other.maxTemps[day], other.humidities[day],
+                        other.conditions[day], other.labels[day]);
+            }
+            else {
+                add(other.timeStamps[day], other.minTemps[day], other.maxTemps[day], other.humidities[day],
+                        other.conditions[day]);
+            }
+        }
+    }
+
+    //set the city the forecast is for.
+    public void setCity(long cityId, String cityName) {
+        this.cityId = cityId;
+        this.cityName = cityName;
+    }
+
+    public long getCityId() {
+        return cityId;
+    }
+
+    public String getCityName() {
+        return cityName;
+    }
+
+    //release the unused capacity, once the forecast is complete.
+    public void trimToSize() {
+        if (size < timeStamps.length) {
+            grow(size);
+        }
+    }
+
+    //the number of days.
+    public int size() {
+        return size;
+    }
+
+    //the seconds from the first entry to the second: 86400 for a daily forecast, 3600 for an hourly
+    //one. 0 if there are less than 2 entries.
+    public long getInterval() {
+        return size < 2 ? 0 : timeStamps[1] - timeStamps[0];
+    }
+
+    public long getTimeStamp(int day) {
+        return timeStamps[day];
+    }
+
+    public float getMinTemp(int day) {
+        return minTemps[day];
+    }
+
+    public float getMaxTemp(int day) {
+        return maxTemps[day];
+    }
+
+    public float getHumidity(int day) {
+        return humidities[day];
+    }
+
+    //the ConditionTable code of the day's weather condition.
+    public int getCondition(int day) {
+        return conditions[day];
+    }
+
+    public String getDescription(int day) {
+        return ConditionTable.getDescription(conditions[day]);
+    }
+
+    public String getIconName(int day) {
+        return ConditionTable.getIconName(conditions[day]);
+    }
+
+    //the day's label, or null if it is displayed with its day name.
+    public String getLabel(int day) {
+        return labels == null ? null : labels[day];
+    }
+
+    //true if day of this forecast and otherDay of other are the same list item, i.e. the same day
+    //or, in the multi-city overview, the same city. Used to diff two versions of a forecast.
+    public boolean isSameItem(int day, Forecast other, int otherDay) {
+        String label = getLabel(day);
+        String otherLabel = other.getLabel(otherDay);
+        if (label != null || otherLabel != null) {
+            return label != null && label.equals(otherLabel);
+        }
+        return timeStamps[day] == other.timeStamps[otherDay];
+    }
+
+    //true if day of this forecast and otherDay of other are displayed the same way.
+    public boolean hasSameContents(int day, Forecast other, int otherDay) {
+        return isSameItem(day, other, otherDay)
+                && timeStamps[day] == other.timeStamps[otherDay]
+                && minTemps[day] == other.minTemps[otherDay]
+                && maxTemps[day] == other.maxTemps[otherDay]
+                && humidities[day] == other.humidities[otherDay]
+                && conditions[day] == other.conditions[otherDay];
+    }
+
+    private void grow(int capacity) {
+        timeStamps = Arrays.copyOf(timeStamps, capacity);
+        minTemps = Arrays.copyOf(minTemps, capacity);
+        maxTemps = Arrays.copyOf(maxTemps, capacity);
+        humidities = Arrays.copyOf(humidities, capacity);
+        conditions = Arrays.copyOf(conditions, capacity);
+        if (labels != null) {
+            labels = Arrays.copyOf(labels, capacity);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.deitel.weatherviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+//ForecastCache keeps the forecasts the user has already looked up so that asking for the same city
+//again doesn't need a full web service round trip. Entries are kept in memory (already parsed) and
+//on disk (the raw response plus its validators) so they survive the app being terminated.
+//An entry younger than the time to live is displayed without touching the network, an older one
+//is displayed right away while ForecastRequests revalidates it with a conditional request.
+public class ForecastCache {
+
+    //version of the on disk entry format, entries with another version are ignored.
+    private static final int FILE_VERSION = 1;
+    //maximum number of parsed forecasts kept in memory. A parsed Forecast is small, so most of
+    //an entry is its raw response.
+    private static final int MAX_MEMORY_ENTRIES = 32;
+    //the disk tier is trimmed to this size, a few dozen hourly forecasts or hundreds of daily ones.
+    static final long MAX_DISK_BYTES = 2 * 1024 * 1024;
+
+    //where get found its entries, and how long reading and parsing an entry from disk took.
+    private static final Metrics.Counter MEMORY_HITS = Metrics.counter("cache.forecast.memory_hits");
+    private static final Metrics.Counter DISK_HITS = Metrics.counter("cache.forecast.disk_hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("cache.forecast.misses");
+    private static final Metrics.Histogram DISK_READ_TIME = Metrics.histogram("cache.forecast.disk_read", "us");
+
+    //Entry is one cached web service response.
+    public static class Entry {
+        public final Forecast forecast; //the parsed response
+        public final byte[] body; //the raw response, written to disk. null if kept in memory only
+        public final String eTag; //"ETag" response header, or null
+        public final String lastModified; //"Last-Modified" response header, or null
+        public final long fetchedAt; //when the response was last confirmed by the server
+
+        public Entry(Forecast forecast, byte[] body, String eTag, String lastModified, long fetchedAt) {
+            this.forecast = forecast;
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+
+        //the same response, confirmed as unchanged by the server at the given time.
+        public Entry revalidatedAt(long time) {
+            return new Entry(forecast, body, eTag, lastModified, time);
+        }
+    }
+
+    private final File directory;
+    private final long timeToLive;
+    //held while the files are written or trimmed, so two writers of a key never share its
+    //temporary file. It isn't the lock of the memory tier, so getFromMemory never waits for
+    //the disk.
+    private final Object diskLock = new Object();
+
+    //most recently used forecasts, in access order so the eldest is the least recently used.
+    private final Map<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ForecastCache.Entry> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+
+    //directory is where the entries are stored on disk, timeToLive (in milliseconds) is how long
+    //an entry is displayed without asking the server whether it changed.
+    public ForecastCache(File directory, long timeToLive) {
+        this.directory = directory;
+        this.timeToLive = timeToLive;
+    }
+
+    //create the key for a city and units, so "Boston,  MA" and "boston, ma" share an entry.
+    public static String key(String city, String units) {
+        String normalized = city.trim().toLowerCase(Locale.US)
+                .replaceAll("\\s+", " ")
+                .replaceAll(" ?, ?", ",");
+        return normalized + "|" + units;
+    }
+
+    //create the key for a city's forecast in the given mode. Daily forecasts keep the key above.
+    public static String key(String city, String units, ForecastUrls.Mode mode) {
+        String key = key(city, units);
+        return mode == ForecastUrls.Mode.DAILY ? key : key + "|" + mode.name().toLowerCase(Locale.US);
+    }
+
+    //create the key for a city's current weather, which the multi-city overview's group requests
+    //return. Its entries are only kept in memory, see putInMemory.
+    public static String currentKey(String city, String units) {
+        return key(city, units) + "|current";
+    }
+
+    //true if the entry can be displayed without revalidating it.
+    public boolean isFresh(Entry entry, long now) {
+        return now - entry.fetchedAt < timeToLive;
+    }
+
+    //the entry if it is already in memory, this never touches the disk so it may be called
+    //from the GUI thread.
+    public synchronized Entry getFromMemory(String key) {
+        return memory.get(key);
+    }
+
+    //the entry from memory or, failing that, from disk. Returns null if the key was never
+    //stored or its file can't be read. Must be called from a background thread.
+    public Entry get(String key) {
+        Entry entry = getFromMemory(key);
+        if (entry != null) {
+            MEMORY_HITS.increment();
+            return entry;
+        }
+
+        File file = fileFor(key);
+        if (!file.exists()) {
+            MISSES.increment();
+            return null;
+        }
+
+        long start = Metrics.beginSection("ForecastCache.read");
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FILE_VERSION) {
+                MISSES.increment();
+                return null;
+            }
+            long fetchedAt = in.readLong();
+            String eTag = readNullableString(in);
+            String lastModified = readNullableString(in);
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+
+            entry = new Entry(ForecastParser.parse(new ByteArrayInputStream(body)),
+                    body, eTag, lastModified, fetchedAt);
+        }
+        catch (IOException e) {
+            //a damaged entry is treated as missing and replaced by the next response.
+            e.printStackTrace();
+            MISSES.increment();
+            return null;
+        }
+        finally {
+            DISK_READ_TIME.recordSince(start);
+            Metrics.endSection();
+        }
+        DISK_HITS.increment();
+        //mark the file as recently used so it is the last to be trimmed.
+        file.setLastModified(System.currentTimeMillis());
+
+        synchronized (this) {
+            memory.put(key, entry);
+        }
+        return entry;
+    }
+
+    //store the entry in memory and on disk. Must be called from a background thread.
+    public void put(String key, Entry entry) {
+        synchronized (this) {
+            memory.put(key, entry);
+        }
+
+        synchronized (diskLock) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+
+            //we write to a temporary file and rename it so a reader never sees a half written entry.
+            File file = fileFor(key);
+            File temp = new File(directory, file.getName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+                out.writeInt(FILE_VERSION);
+                out.writeLong(entry.fetchedAt);
+                writeNullableString(out, entry.eTag);
+                writeNullableString(out, entry.lastModified);
+                out.writeInt(entry.body.length);
+                out.write(entry.body);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                temp.delete();
+                return;
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+
+            trimDisk();
+        }
+    }
+
+    //store the entry in memory only. A group response holds the current weather of many cities,
+    //so it has no body of its own to write to disk, and its entries have no validators.
+    public synchronized void putInMemory(String key, Entry entry) {
+        memory.put(key, entry);
+    }
+
+    //delete the least recently used files until the disk tier fits in MAX_DISK_BYTES.
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_DISK_BYTES; i++) {
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    //each key is stored in its own file, the URL encoded key is always a valid file name.
+    private File fileFor(String key) {
+        try {
+            return new File(directory, URLEncoder.encode(key, "UTF-8"));
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); //every JVM supports UTF-8
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
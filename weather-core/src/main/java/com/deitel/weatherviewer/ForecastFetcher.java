@@ -0,0 +1,173 @@
+package com.deitel.weatherviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+//ForecastFetcher makes the forecast web service requests with the HttpClient, parses the responses
+//and keeps the forecasts in the ForecastCache. It is used from background threads only, and any
+//number of threads may use it at once.
+public class ForecastFetcher {
+
+    //time to parse a response, in microseconds.
+    private static final Metrics.Histogram PARSE_TIME = Metrics.histogram("forecast.parse", "us");
+    private static final Metrics.Histogram GROUP_PARSE_TIME = Metrics.histogram("group.parse", "us");
+
+    //ReadException means the server answered but the response couldn't be read or parsed.
+    public static class ReadException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ReadException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    //StatusException means the server answered with an error status, e.g. 404 for an unknown city.
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int status;
+
+        public StatusException(int status) {
+            super("HTTP " + status);
+            this.status = status;
+        }
+    }
+
+    private final ForecastCache forecastCache;
+    private final HttpClient httpClient;
+
+    public ForecastFetcher(ForecastCache forecastCache, HttpClient httpClient) {
+        this.forecastCache = forecastCache;
+        this.httpClient = httpClient;
+    }
+
+    //request a city's forecast and store it in the cache. If cached isn't null its validators are
+    //sent, and if the server says it didn't change the revalidated entry is returned.
+    public ForecastCache.Entry fetch(String cacheKey, URL url, ForecastCache.Entry cached) throws IOException {
+        return fetch(cacheKey, url, cached, null, 0, null, null);
+    }
+
+    //fetch a forecast the caller may cancel with call (may be null). A forecast whose call was
+    //cancelled while it downloaded isn't parsed, HttpClient.CancelledException is thrown instead.
+    //With a listener, its entries are passed to listener batchSize at a time while the response
+    //is still downloading, so the first rows of a long hourly forecast are displayed long before
+    //the last ones arrive, and each distinct icon name is passed to iconListener as soon as the
+    //parser reads it. Without a listener there are no batches and no icons, and batchSize and
+    //iconListener are ignored: the response is only streamed when batches are wanted, since a
+    //streamed request isn't retried once its body has reached the parser. The listeners are
+    //called on the calling thread, and not at all if the server says the cached forecast didn't
+    //change or the request failed before its body started.
+    public ForecastCache.Entry fetch(String cacheKey, URL url, ForecastCache.Entry cached,
+                                     final HttpClient.Call call, final int batchSize,
+                                     final ForecastParser.BatchListener listener,
+                                     final ForecastParser.IconListener iconListener) throws IOException {
+        //if we have a cached response we send its validators, so the server can answer
+        //with 304 Not Modified and no body if the forecast hasn't changed.
+        Map<String, String> headers = new HashMap<>();
+        if (cached != null) {
+            if (cached.eTag != null) {
+                headers.put("If-None-Match", cached.eTag);
+            }
+            if (cached.lastModified != null) {
+                headers.put("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        //with a listener the forecast is parsed from the response while it downloads.
+        final Forecast[] streamed = new Forecast[1];
+        HttpClient.BodyReader bodyReader = null;
+        if (listener != null) {
+            bodyReader = new HttpClient.BodyReader() {
+                @Override
+                public void read(InputStream body) throws IOException {
+                    long start = Metrics.beginSection("ForecastParser.parse");
+                    try {
+                        streamed[0] = ForecastParser.parse(body, batchSize, listener, iconListener);
+                    }
+                    catch (IOException e) {
+                        //a cancelled call closed the connection under the parser.
+                        if (call != null && call.isCancelled()) {
+                            throw new HttpClient.CancelledException();
+                        }
+                        throw new ReadException(e);
+                    }
+                    finally {
+                        PARSE_TIME.recordSince(start);
+                        Metrics.endSection();
+                    }
+                }
+            };
+        }
+
+        HttpClient.Response response = httpClient.get(url, headers, call, bodyReader);
+        if (call != null && call.isCancelled()) {
+            throw new HttpClient.CancelledException();
+        }
+
+        //the cached forecast is still current, we just remember that we checked it.
+        if (response.status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            ForecastCache.Entry entry = cached.revalidatedAt(System.currentTimeMillis());
+            forecastCache.put(cacheKey, entry);
+            return entry;
+        }
+
+        if (response.status != HttpURLConnection.HTTP_OK) {
+            throw new StatusException(response.status);
+        }
+
+        //the raw bytes are kept for the cache.
+        Forecast forecast = streamed[0];
+        if (forecast == null) {
+            forecast = parse(response.body);
+        }
+        ForecastCache.Entry entry = new ForecastCache.Entry(forecast, response.body,
+                response.getHeader("ETag"), response.getHeader("Last-Modified"),
+                System.currentTimeMillis());
+        forecastCache.put(cacheKey, entry);
+        return entry;
+    }
+
+    //parse a complete response.
+    private static Forecast parse(byte[] body) throws IOException {
+        Forecast forecast;
+        long start = Metrics.beginSection("ForecastParser.parse");
+        try {
+            forecast = ForecastParser.parse(new ByteArrayInputStream(body));
+        }
+        catch (IOException e) {
+            throw new ReadException(e);
+        }
+        finally {
+            PARSE_TIME.recordSince(start);
+            Metrics.endSection();
+        }
+        return forecast;
+    }
+
+    //request the current weather of a group of cities, see ForecastUrls.forGroup, with a call the
+    //caller may cancel (may be null). The result has a one day Forecast for each city the server
+    //knew, by city id.
+    public Map<Long, Forecast> fetchGroup(URL url, HttpClient.Call call) throws IOException {
+        HttpClient.Response response = httpClient.get(url, null, call);
+        if (response.status != HttpURLConnection.HTTP_OK) {
+            throw new StatusException(response.status);
+        }
+
+        long start = Metrics.beginSection("ForecastParser.parseGroup");
+        try {
+            return ForecastParser.parseGroup(new ByteArrayInputStream(response.body));
+        }
+        catch (IOException e) {
+            throw new ReadException(e);
+        }
+        finally {
+            GROUP_PARSE_TIME.recordSince(start);
+            Metrics.endSection();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.deitel.weatherviewer;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//ForecastParser reads the openweathermap.org daily or 3 hour forecast JSON straight off the response
+//stream and fills a Forecast as it goes. Unlike JSONObject it never holds the whole response
+//in memory: the body is never turned into a String and no JSON tree is built, and every field
+//the app does not display (pressure, wind, the other temperatures etc) is skipped without being
+//converted. This lets ForecastRequests do all of the work in its background thread.
+//Since it reads the response as it arrives, it can also hand the entries parsed so far to a
+//BatchListener, so the first rows of a long hourly forecast are displayed while the rest downloads,
+//and tell an IconListener about each icon the moment it is read, so its download starts before the
+//rest of the forecast is parsed and displayed.
+public class ForecastParser {
+
+    //BatchListener receives the entries of a forecast while it is parsed.
+    public interface BatchListener {
+        //batch holds the next entries. It is a new Forecast the parser doesn't touch anymore, so it
+        //may be handed to another thread. Its city is only set if the response had it before "list".
+        void onBatch(Forecast batch);
+    }
+
+    //IconListener learns the icons of a forecast while it is parsed.
+    public interface IconListener {
+        //called once per distinct icon name, when the first entry with it is read and before the
+        //batch holding that entry is passed to the BatchListener.
+        void onIcon(String iconName);
+    }
+
+    //the parser only has static methods so we hide the constructor.
+    private ForecastParser() {
+    }
+
+    //parse the forecast from the raw response stream. The web service always answers in UTF-8.
+    public static Forecast parse(InputStream inputStream) throws IOException {
+        return parse(inputStream, 0, null, null);
+    }
+
+    //parse the forecast, passing its entries to listener batchSize at a time (the last batch may
+    //be smaller) and each distinct icon name to iconListener. Either listener may be null, but a
+    //listener needs a batchSize of at least 1. The stream is closed when parsing finishes.
+    //Returns the whole forecast.
+    public static Forecast parse(InputStream inputStream, int batchSize, BatchListener listener,
+                                 IconListener iconListener) throws IOException {
+        if (listener != null && batchSize < 1) {
+            throw new IllegalArgumentException("batchSize " + batchSize + " with a BatchListener");
+        }
+        //the daily forecast has 16 days, the Forecast grows if there are more.
+        Forecast forecast = new Forecast(16);
+        //the icon names passed to iconListener. A forecast only has a handful, so a list will do.
+        List<String> icons = iconListener != null ? new ArrayList<String>() : null;
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"))) {
+            //the response is a single object, we only care about its "city" and "list".
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "city": //the city's id lets us request it in a group later
+                        readCity(reader, forecast);
+                        break;
+                    case "list": //"list" contains one object per forecast day.
+                        reader.beginArray();
+                        int delivered = 0;
+                        while (reader.hasNext()) {
+                            readDay(reader, forecast);
+                            if (iconListener != null) {
+                                String iconName = forecast.getIconName(forecast.size() - 1);
+                                if (iconName != null && !icons.contains(iconName)) {
+                                    icons.add(iconName);
+                                    iconListener.onIcon(iconName);
+                                }
+                            }
+                            if (listener != null && forecast.size() - delivered >= batchSize) {
+                                deliver(forecast, delivered, listener);
+                                delivered = forecast.size();
+                            }
+                        }
+                        reader.endArray();
+                        if (listener != null && forecast.size() > delivered) {
+                            deliver(forecast, delivered, listener);
+                        }
+                        break;
+                    default:
+                        reader.skipValue(); //"cod", "message", "cnt"
+                }
+            }
+            reader.endObject();
+            forecast.trimToSize();
+        }
+        catch (IllegalStateException | NumberFormatException e) {
+            //JsonReader reports unexpected tokens and malformed numbers with unchecked exceptions,
+            //we report them the same way as a truncated or unreadable response.
+            throw new IOException("Malformed forecast response", e);
+        }
+        return forecast;
+    }
+
+    //pass the entries of forecast from the given one on to listener, in a Forecast of their own.
+    private static void deliver(Forecast forecast, int from, BatchListener listener) {
+        Forecast batch = new Forecast(forecast.size() - from);
+        batch.setCity(forecast.getCityId(), forecast.getCityName());
+        batch.addAll(forecast, from, forecast.size());
+        listener.onBatch(batch);
+    }
+
+    //parse the response of a "group" request, which has the current weather of several cities.
+    //Returns a one day Forecast for each city by city id, in the order of the response.
+    public static Map<Long, Forecast> parseGroup(InputStream inputStream) throws IOException {
+        Map<Long, Forecast> cities = new LinkedHashMap<>();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("list")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Forecast city = readCurrentWeather(reader);
+                        cities.put(city.getCityId(), city);
+                    }
+                    reader.endArray();
+                }
+                else {
+                    reader.skipValue(); //"cnt"
+                }
+            }
+            reader.endObject();
+        }
+        catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed group response", e);
+        }
+        return cities;
+    }
+
+    //read the "city" object of a forecast.
+    private static void readCity(JsonReader reader, Forecast forecast) throws IOException {
+        long id = 0;
+        String name = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    id = reader.nextLong();
+                    break;
+                case "name":
+                    name = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue(); //"coord", "country", "population"
+            }
+        }
+        reader.endObject();
+        forecast.setCity(id, name);
+    }
+
+    //read one element of "list" and add it to the forecast. Daily forecasts have a "temp" object
+    //and the humidity next to it, 3 hour forecasts have them all in a "main" object.
+    private static void readDay(JsonReader reader, Forecast forecast) throws IOException {
+        long timeStamp = 0;
+        double minTemp = 0;
+        double maxTemp = 0;
+        double humidity = 0;
+        int condition = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "dt": //date/time timestamp
+                    timeStamp = reader.nextLong();
+                    break;
+                case "temp": //the "temp" object contains the min/max temps we want.
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "min":
+                                minTemp = reader.nextDouble();
+                                break;
+                            case "max":
+                                maxTemp = reader.nextDouble();
+                                break;
+                            default:
+                                reader.skipValue(); //"day", "night", "eve", "morn"
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "main": //the 3 hour forecast has its temperatures and humidity in "main".
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "temp_min":
+                                minTemp = reader.nextDouble();
+                                break;
+                            case "temp_max":
+                                maxTemp = reader.nextDouble();
+                                break;
+                            case "humidity":
+                                humidity = reader.nextDouble();
+                                break;
+                            default:
+                                reader.skipValue(); //"temp", "pressure", "sea_level", ...
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "humidity": //percent humidity
+                    humidity = reader.nextDouble();
+                    break;
+                case "weather": //weather conditions and icon name
+                    condition = readCondition(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        forecast.add(timeStamp, (float) minTemp, (float) maxTemp, (float) humidity, condition);
+    }
+
+    //read one element of a group's "list", the current weather of a city.
+    private static Forecast readCurrentWeather(JsonReader reader) throws IOException {
+        long id = 0;
+        String name = null;
+        long timeStamp = 0;
+        double minTemp = 0;
+        double maxTemp = 0;
+        double humidity = 0;
+        int condition = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    id = reader.nextLong();
+                    break;
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "dt":
+                    timeStamp = reader.nextLong();
+                    break;
+                case "main": //the current weather has its temperatures and humidity in "main".
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "temp_min":
+                                minTemp = reader.nextDouble();
+                                break;
+                            case "temp_max":
+                                maxTemp = reader.nextDouble();
+                                break;
+                            case "humidity":
+                                humidity = reader.nextDouble();
+                                break;
+                            default:
+                                reader.skipValue(); //"temp", "pressure"
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "weather":
+                    condition = readCondition(reader);
+                    break;
+                default:
+                    reader.skipValue(); //"coord", "sys", "wind", "clouds", ...
+            }
+        }
+        reader.endObject();
+
+        Forecast forecast = new Forecast(1);
+        forecast.setCity(id, name);
+        forecast.add(timeStamp, (float) minTemp, (float) maxTemp, (float) humidity, condition);
+        return forecast;
+    }
+
+    //read a "weather" array and return the ConditionTable code of its first element, which has
+    //the description and icon name we display. The other elements are skipped.
+    private static int readCondition(JsonReader reader) throws IOException {
+        String description = "";
+        String iconName = "";
+
+        reader.beginArray();
+        if (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "description": //weather conditions
+                        description = reader.nextString();
+                        break;
+                    case "icon": //icon name
+                        iconName = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue(); //"id", "main"
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+
+        return ConditionTable.codeFor(description, iconName);
+    }
+}
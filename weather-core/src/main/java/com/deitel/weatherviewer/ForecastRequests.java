@@ -0,0 +1,263 @@
+package com.deitel.weatherviewer;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.Executor;
+
+//ForecastRequests runs the forecast request of the city the user asked for, and only the latest
+//one: a new request cancels the one still running, closing its connection so it doesn't keep
+//downloading a forecast nobody will look at, and any result of an older request that still
+//arrives is dropped. Each request has a generation number to tell the latest from the older ones.
+//It isn't tied to an Activity: the app keeps one for the whole process, the activity attaches its
+//Listener in onCreate and detaches it in onDestroy. An activity recreated after a rotation
+//attaches to the running request and gets its result, instead of requesting the city again.
+//A long forecast (e.g. 168 hourly entries) can be requested progressively: its entries are
+//delivered in batches while the response downloads, so the first rows are displayed right away.
+//The icons of a progressive request are delivered as the parser reads them, ahead of its rows, so
+//their downloads run while the rest of the forecast downloads. Only a progressive request is
+//parsed while it downloads: a daily forecast is small and keeps HttpClient's retries of a response
+//that breaks off, and its rows load their icons when they are bound.
+//Its methods are called from the GUI thread only, the Listener is called there too.
+public class ForecastRequests {
+
+    //Listener receives the results of the latest request.
+    public interface Listener {
+        //the city's forecast. It isn't fresh when it is the cached forecast displayed while the
+        //request asks the web service whether it changed, a fresh forecast ends the request.
+        void onForecast(String city, Forecast forecast, boolean fresh);
+
+        //the entries of a progressive request's forecast that arrived so far. partial is the same
+        //Forecast every time, with the new entries added at its end, so only they need to be
+        //displayed. Its city may not be known yet. onForecast follows with the whole forecast:
+        //if it has as many entries as the partial one, the partial Forecast is completed with the
+        //city and delivered to onForecast, so nothing has to be displayed again.
+        void onPartialForecast(String city, Forecast partial);
+
+        //an icon the rows of a progressive request's forecast will show, delivered once per
+        //distinct icon before the rows that show it, so it can be prefetched. Not called for a
+        //cached forecast, nor for a listener that attaches later.
+        void onIcon(String city, String iconName);
+
+        //the request failed, e.g. the city is unknown or there is no connection.
+        void onError(String city, IOException error);
+    }
+
+    private static final Metrics.Counter CANCELLED = Metrics.counter("forecast.requests.cancelled");
+    private static final Metrics.Counter DROPPED = Metrics.counter("forecast.results.dropped");
+
+    private final ForecastCache forecastCache;
+    private final ForecastFetcher fetcher;
+    private final PriorityExecutor networkExecutor;
+    private final Executor callbackExecutor;
+
+    //the following are only used on the GUI thread.
+    //incremented by every request and cancel, results of other generations are dropped.
+    private int generation;
+    //the latest request, it keeps its last result for a Listener that attaches later.
+    private Request current;
+    private Listener listener;
+
+    //the requests run on networkExecutor, results are delivered on callbackExecutor (the GUI thread).
+    public ForecastRequests(ForecastCache forecastCache, ForecastFetcher fetcher,
+                            PriorityExecutor networkExecutor, Executor callbackExecutor) {
+        this.forecastCache = forecastCache;
+        this.fetcher = fetcher;
+        this.networkExecutor = networkExecutor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    //request a city's forecast from url, cancelling the previous request. The cached forecast is
+    //used if it is fresh, and revalidated if it isn't.
+    public void request(String city, String cacheKey, URL url) {
+        request(city, cacheKey, url, 0);
+    }
+
+    //request a city's forecast and deliver its entries batchSize at a time while they arrive,
+    //unless a cached forecast was delivered first (replacing it by the first few entries would
+    //only make the list shorter for a moment). batchSize 0 delivers the whole forecast at once.
+    public void request(String city, String cacheKey, URL url, int batchSize) {
+        cancel();
+        Request request = new Request(generation, city, cacheKey, url, batchSize);
+        current = request;
+        //the user is waiting for it, so it goes before prefetches and overview requests.
+        request.task = networkExecutor.execute(request, PriorityExecutor.PRIORITY_VISIBLE);
+    }
+
+    //cancel the running request, e.g. because the user asked for something else. Nothing of it
+    //is delivered anymore.
+    public void cancel() {
+        generation++;
+        if (current != null && !current.finished) {
+            CANCELLED.increment();
+            //a request still waiting for a thread is simply removed, a running one is stopped.
+            if (!networkExecutor.remove(current.task)) {
+                current.call.cancel();
+            }
+        }
+        current = null;
+    }
+
+    //is a request running?
+    public boolean isRunning() {
+        return current != null && !current.finished;
+    }
+
+    //deliver results to listener from now on. The latest request's result, if any, is delivered
+    //right away. Returns true if there is a latest request the listener takes over, running or not.
+    public boolean attach(Listener listener) {
+        this.listener = listener;
+        if (current == null) {
+            return false;
+        }
+        if (current.forecast != null) {
+            listener.onForecast(current.city, current.forecast, current.fresh);
+        }
+        else if (current.partial != null) {
+            listener.onPartialForecast(current.city, current.partial);
+        }
+        //an error is only reported once.
+        if (current.undeliveredError != null) {
+            listener.onError(current.city, current.undeliveredError);
+            current.undeliveredError = null;
+        }
+        return true;
+    }
+
+    //stop delivering results, the request keeps running. Results arriving meanwhile are kept
+    //for the next listener.
+    public void detach() {
+        listener = null;
+    }
+
+    //Request is one request. Its fields other than call are only used on the GUI thread.
+    private class Request implements Runnable, ForecastParser.BatchListener, ForecastParser.IconListener {
+        final int generation;
+        final String city;
+        final String cacheKey;
+        final URL url;
+        final int batchSize;
+        final HttpClient.Call call = new HttpClient.Call();
+        PriorityExecutor.Task task;
+
+        //the last forecast delivered, an error no listener got yet, and whether the request is over.
+        Forecast forecast;
+        boolean fresh;
+        IOException undeliveredError;
+        boolean finished;
+        //the entries delivered so far by a progressive request, until its forecast is delivered.
+        Forecast partial;
+
+        Request(int generation, String city, String cacheKey, URL url, int batchSize) {
+            this.generation = generation;
+            this.city = city;
+            this.cacheKey = cacheKey;
+            this.url = url;
+            this.batchSize = batchSize;
+        }
+
+        //runs on the networkExecutor.
+        @Override
+        public void run() {
+            Metrics.beginSection("ForecastRequests.request");
+            try {
+                //first we look for the forecast in the cache, this may read it from disk.
+                ForecastCache.Entry cached = forecastCache.get(cacheKey);
+                if (cached != null) {
+                    //a fresh entry is delivered as is, a stale one is displayed while we revalidate it.
+                    if (forecastCache.isFresh(cached, System.currentTimeMillis())) {
+                        deliver(cached.forecast, null, true);
+                        return;
+                    }
+                    deliver(cached.forecast, null, false);
+                }
+
+                //the fetcher sends the cached entry's validators, if the forecast didn't change
+                //the cached forecast is returned again. A progressive request tells us its
+                //batches and icons as the parser reads them.
+                boolean progressive = batchSize > 0 && cached == null;
+                deliver(fetcher.fetch(cacheKey, url, cached, call, batchSize, progressive ? this : null,
+                        progressive ? this : null).forecast, null, true);
+            }
+            catch (HttpClient.CancelledException e) {
+                //a newer request replaced this one, there is nothing to deliver.
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                deliver(null, e, true);
+            }
+            finally {
+                Metrics.endSection();
+            }
+        }
+
+        //called by the parser on the networkExecutor. The batch is added to partial on the GUI thread.
+        @Override
+        public void onBatch(final Forecast batch) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (current != Request.this || ForecastRequests.this.generation != generation || finished) {
+                        return;
+                    }
+                    if (partial == null) {
+                        partial = new Forecast(Math.max(batch.size(), 16));
+                    }
+                    partial.addAll(batch, 0, batch.size());
+                    if (listener != null) {
+                        listener.onPartialForecast(city, partial);
+                    }
+                }
+            });
+        }
+
+        //called by the parser on the networkExecutor, before the batch or forecast with the icon.
+        @Override
+        public void onIcon(final String iconName) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (current != Request.this || ForecastRequests.this.generation != generation || finished) {
+                        return;
+                    }
+                    if (listener != null) {
+                        listener.onIcon(city, iconName);
+                    }
+                }
+            });
+        }
+
+        private void deliver(final Forecast result, final IOException failure, final boolean last) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    //results of a request that was replaced or cancelled are dropped.
+                    if (current != Request.this || ForecastRequests.this.generation != generation) {
+                        DROPPED.increment();
+                        return;
+                    }
+                    Forecast delivered = result;
+                    if (result != null) {
+                        if (partial != null && partial.size() == result.size()) {
+                            partial.setCity(result.getCityId(), result.getCityName());
+                            delivered = partial;
+                        }
+                        forecast = delivered;
+                        fresh = last;
+                        partial = null;
+                    }
+                    finished = last;
+                    if (listener == null) {
+                        undeliveredError = failure; //kept until a listener attaches
+                        return;
+                    }
+                    if (failure != null) {
+                        listener.onError(city, failure);
+                    }
+                    else {
+                        listener.onForecast(city, delivered, last);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.deitel.weatherviewer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//ForecastSnapshot saves the forecasts the user looked at last in one small binary file, so the next
+//launch of the app can display them before its first frame instead of showing an empty list until
+//a web service round trip completes. The forecasts are then refreshed in the background.
+//The file is read with a single read into a ByteBuffer and decoded from it, which takes well under
+//a millisecond for the 8 forecasts it keeps. It stores the Forecast columns as they are, plus a table
+//of the conditions they use since ConditionTable codes are only valid while the app is running.
+//File layout (big endian):
+//  int magic, int version, short conditionCount, conditionCount * (string description, string icon),
+//  short itemCount, itemCount * item
+//  item: string query, string mode, long savedAt, long cityId, string cityName, int days, byte hasLabels,
+//        [days * string label], days * long timeStamp, days * float minTemp, days * float maxTemp,
+//        days * float humidity, days * short condition
+//  string: short length in bytes (-1 for null), then that many UTF-8 bytes
+public class ForecastSnapshot {
+
+    private static final int MAGIC = 0x57565331; //"WVS1"
+    //version of the file format, files with another version are ignored. Version 1 stored the
+    //temperatures in degrees F, version 2 in degrees C, version 3 added each item's mode.
+    private static final int VERSION = 3;
+    //the number of forecasts kept.
+    public static final int MAX_ITEMS = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Item is a forecast and what the user typed to get it.
+    public static class Item {
+        public final String query; //a city, or several separated by ';' for the overview
+        //daily, 3 hourly or hourly. The overview's rows come from daily forecasts.
+        public final ForecastUrls.Mode mode;
+        public final Forecast forecast;
+        public final long savedAt;
+
+        //a daily forecast, or an overview.
+        public Item(String query, Forecast forecast, long savedAt) {
+            this(query, ForecastUrls.Mode.DAILY, forecast, savedAt);
+        }
+
+        public Item(String query, ForecastUrls.Mode mode, Forecast forecast, long savedAt) {
+            this.query = query;
+            this.mode = mode;
+            this.forecast = forecast;
+            this.savedAt = savedAt;
+        }
+
+        //is this the forecast of the same query in the same mode?
+        boolean isSameAs(Item other) {
+            return mode == other.mode && query.equalsIgnoreCase(other.query);
+        }
+    }
+
+    private final File file;
+
+    public ForecastSnapshot(File file) {
+        this.file = file;
+    }
+
+    //read the saved forecasts, most recent first. Returns an empty list if there are none or the
+    //file can't be read.
+    public List<Item> read() {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            //the whole file is read at once.
+            ByteBuffer buffer = ByteBuffer.allocate((int) file.length());
+            while (buffer.hasRemaining() && in.getChannel().read(buffer) != -1) {
+                //keep reading
+            }
+            buffer.flip();
+            return decode(buffer);
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            //a damaged snapshot is the same as none, the next save replaces it.
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
+
+    //save a forecast as the most recent one, replacing an older forecast with the same query and
+    //mode. Must be called from a background thread, saves are serialized.
+    public synchronized void save(Item item) {
+        List<Item> items = new ArrayList<>(MAX_ITEMS);
+        items.add(item);
+        for (Item previous : read()) {
+            if (items.size() < MAX_ITEMS && !previous.isSameAs(item)) {
+                items.add(previous);
+            }
+        }
+        write(items);
+    }
+
+    //replace the forecasts of the saved items found in forecasts, e.g. after they were refreshed in
+    //the background. forecasts is by ForecastCache key (of the item's query, units and mode), so a
+    //daily forecast never replaces an hourly one. The order of the forecasts doesn't change.
+    public synchronized void replaceForecasts(Map<String, Forecast> forecasts, String units, long savedAt) {
+        List<Item> items = new ArrayList<>(MAX_ITEMS);
+        boolean replaced = false;
+        for (Item item : read()) {
+            Forecast forecast = forecasts.get(ForecastCache.key(item.query, units, item.mode));
+            if (forecast != null) {
+                items.add(new Item(item.query, item.mode, forecast, savedAt));
+                replaced = true;
+            }
+            else {
+                items.add(item);
+            }
+        }
+        if (replaced) {
+            write(items);
+        }
+    }
+
+    //write the forecasts, we write to a temporary file and rename it so a reader never sees a half
+    //written snapshot.
+    void write(List<Item> items) {
+        ByteBuffer buffer = encode(items);
+
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(buffer.array(), 0, buffer.limit());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    static ByteBuffer encode(List<Item> items) {
+        //the conditions used by the forecasts, each with its index in the file.
+        Map<Integer, Integer> conditions = new HashMap<>();
+        List<Integer> conditionCodes = new ArrayList<>();
+        for (Item item : items) {
+            for (int day = 0; day < item.forecast.size(); day++) {
+                int code = item.forecast.getCondition(day);
+                if (!conditions.containsKey(code)) {
+                    conditions.put(code, conditionCodes.size());
+                    conditionCodes.add(code);
+                }
+            }
+        }
+
+        //the buffer grows if a guess at the size is too small.
+        int capacity = 1024;
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            try {
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putShort((short) conditionCodes.size());
+                for (int code : conditionCodes) {
+                    putString(buffer, ConditionTable.getDescription(code));
+                    putString(buffer, ConditionTable.getIconName(code));
+                }
+
+                buffer.putShort((short) items.size());
+                for (Item item : items) {
+                    Forecast forecast = item.forecast;
+                    int days = forecast.size();
+                    putString(buffer, item.query);
+                    putString(buffer, item.mode.name());
+                    buffer.putLong(item.savedAt);
+                    buffer.putLong(forecast.getCityId());
+                    putString(buffer, forecast.getCityName());
+                    buffer.putInt(days);
+                    boolean hasLabels = days > 0 && forecast.getLabel(0) != null;
+                    buffer.put((byte) (hasLabels ? 1 : 0));
+                    if (hasLabels) {
+                        for (int day = 0; day < days; day++) {
+                            putString(buffer, forecast.getLabel(day));
+                        }
+                    }
+                    for (int day = 0; day < days; day++) {
+                        buffer.putLong(forecast.getTimeStamp(day));
+                    }
+                    for (int day = 0; day < days; day++) {
+                        buffer.putFloat(forecast.getMinTemp(day));
+                    }
+                    for (int day = 0; day < days; day++) {
+                        buffer.putFloat(forecast.getMaxTemp(day));
+                    }
+                    for (int day = 0; day < days; day++) {
+                        buffer.putFloat(forecast.getHumidity(day));
+                    }
+                    for (int day = 0; day < days; day++) {
+                        buffer.putShort(conditions.get(forecast.getCondition(day)).shortValue());
+                    }
+                }
+                buffer.flip();
+                return buffer;
+            }
+            catch (BufferOverflowException e) {
+                capacity *= 4;
+            }
+        }
+    }
+
+    static List<Item> decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a forecast snapshot");
+        }
+
+        //the conditions are added to the ConditionTable, which gives them their codes.
+        int[] codes = new int[buffer.getShort()];
+        for (int i = 0; i < codes.length; i++) {
+            String description = getString(buffer);
+            String iconName = getString(buffer);
+            codes[i] = ConditionTable.codeFor(description, iconName);
+        }
+
+        int count = buffer.getShort();
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String query = getString(buffer);
+            String modeName = getString(buffer);
+            if (modeName == null) {
+                throw new IOException("Item without a mode");
+            }
+            ForecastUrls.Mode mode = ForecastUrls.Mode.valueOf(modeName);
+            long savedAt = buffer.getLong();
+            long cityId = buffer.getLong();
+            String cityName = getString(buffer);
+            int days = buffer.getInt();
+            boolean hasLabels = buffer.get() != 0;
+
+            String[] labels = null;
+            if (hasLabels) {
+                labels = new String[days];
+                for (int day = 0; day < days; day++) {
+                    labels[day] = getString(buffer);
+                }
+            }
+            long[] timeStamps = new long[days];
+            float[] minTemps = new float[days];
+            float[] maxTemps = new float[days];
+            float[] humidities = new float[days];
+            for (int day = 0; day < days; day++) {
+                timeStamps[day] = buffer.getLong();
+            }
+            for (int day = 0; day < days; day++) {
+                minTemps[day] = buffer.getFloat();
+            }
+            for (int day = 0; day < days; day++) {
+                maxTemps[day] = buffer.getFloat();
+            }
+            for (int day = 0; day < days; day++) {
+                humidities[day] = buffer.getFloat();
+            }
+
+            Forecast forecast = new Forecast(days);
+            forecast.setCity(cityId, cityName);
+            for (int day = 0; day < days; day++) {
+                int condition = codes[buffer.getShort()];
+                if (labels != null) {
+                    forecast.add(timeStamps[day], minTemps[day], maxTemps[day], humidities[day], condition,
+                            labels[day]);
+                }
+                else {
+                    forecast.add(timeStamps[day], minTemps[day], maxTemps[day], humidities[day], condition);
+                }
+            }
+            items.add(new Item(query, mode, forecast, savedAt));
+        }
+        return items;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
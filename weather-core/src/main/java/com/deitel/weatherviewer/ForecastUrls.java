@@ -0,0 +1,124 @@
+package com.deitel.weatherviewer;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+
+//ForecastUrls assembles the URLs of the openweathermap.org web service requests. Every request
+//carries the app's API key and the units the temperatures are returned in.
+public class ForecastUrls {
+
+    //the "group" request returns the current weather of at most 20 cities at once.
+    public static final int MAX_GROUP_SIZE = 20;
+
+    //Mode is the kind of forecast: one entry per day, per 3 hours or per hour.
+    public enum Mode {
+        DAILY(16),
+        THREE_HOURLY(40), //5 days
+        HOURLY(168); //7 days
+
+        //the number of entries requested.
+        public final int count;
+
+        Mode(int count) {
+            this.count = count;
+        }
+    }
+
+    private final String forecastBaseUrl;
+    private final String threeHourlyBaseUrl;
+    private final String hourlyBaseUrl;
+    private final String groupBaseUrl;
+    private final String apiKey;
+    private final String units;
+
+    //for a server that has every endpoint next to the daily one, like the stand-in servers the
+    //tests run: the 3 hour and hourly base URLs are derived from forecastBaseUrl
+    //(".../forecast?q=" and ".../forecast/hourly?q="). forecastBaseUrl ends with "q=" and
+    //groupBaseUrl with "id=", the parameter each request adds.
+    public ForecastUrls(String forecastBaseUrl, String groupBaseUrl, String apiKey, String units) {
+        this(forecastBaseUrl, forecastBaseUrl.replace("forecast/daily?", "forecast?"),
+                forecastBaseUrl.replace("forecast/daily?", "forecast/hourly?"), groupBaseUrl, apiKey, units);
+    }
+
+    //the constructor the app uses: openweathermap.org serves the hourly forecast from another host
+    //than the others, so each base URL is given. Every base URL ends with "q=", except
+    //groupBaseUrl which ends with "id=".
+    public ForecastUrls(String forecastBaseUrl, String threeHourlyBaseUrl, String hourlyBaseUrl,
+                        String groupBaseUrl, String apiKey, String units) {
+        this.forecastBaseUrl = forecastBaseUrl;
+        this.threeHourlyBaseUrl = threeHourlyBaseUrl;
+        this.hourlyBaseUrl = hourlyBaseUrl;
+        this.groupBaseUrl = groupBaseUrl;
+        this.apiKey = apiKey;
+        this.units = units;
+    }
+
+    public String getUnits() {
+        return units;
+    }
+
+    //the URL of the 16 day forecast for a city, e.g. "Boston, MA, US".
+    public URL forCity(String city) throws MalformedURLException {
+        return forCity(city, Mode.DAILY);
+    }
+
+    //the URL of the forecast for a city in the given mode.
+    public URL forCity(String city, Mode mode) throws MalformedURLException {
+        return new URL(baseUrl(mode) + encode(city) + "&units=" + units + "&cnt=" + mode.count
+                + "&APPID=" + apiKey);
+    }
+
+    //the URL of the 16 day forecast for the city with the given openweathermap.org id, e.g. a city
+    //the user picked from the CityIndex suggestions. The server doesn't need to geocode a name.
+    public URL forCityId(long cityId) throws MalformedURLException {
+        return forCityId(cityId, Mode.DAILY);
+    }
+
+    //the URL of the forecast for the city with the given id in the given mode.
+    public URL forCityId(long cityId, Mode mode) throws MalformedURLException {
+        String base = baseUrl(mode);
+        if (base.endsWith("q=")) {
+            base = base.substring(0, base.length() - 2);
+        }
+        return new URL(base + "id=" + cityId + "&units=" + units + "&cnt=" + mode.count + "&APPID=" + apiKey);
+    }
+
+    private String baseUrl(Mode mode) {
+        switch (mode) {
+            case THREE_HOURLY:
+                return threeHourlyBaseUrl;
+            case HOURLY:
+                return hourlyBaseUrl;
+            default:
+                return forecastBaseUrl;
+        }
+    }
+
+    //the URL of the current weather of the cities with the given openweathermap.org ids.
+    public URL forGroup(List<Long> cityIds) throws MalformedURLException {
+        if (cityIds.isEmpty() || cityIds.size() > MAX_GROUP_SIZE) {
+            throw new IllegalArgumentException("A group has 1 to " + MAX_GROUP_SIZE + " cities");
+        }
+
+        StringBuilder ids = new StringBuilder();
+        for (Long id : cityIds) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(id);
+        }
+        return new URL(groupBaseUrl + ids + "&units=" + units + "&APPID=" + apiKey);
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); //every JVM supports UTF-8
+        }
+    }
+}
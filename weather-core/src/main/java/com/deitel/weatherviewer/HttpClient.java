@@ -0,0 +1,473 @@
+package com.deitel.weatherviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+//HttpClient makes every web service request and image download of the app. It is used from
+//background threads only, and any number of threads may use it at once.
+//- connections are kept alive and reused: HttpURLConnection keeps an idle connection open for the
+//  next request to the same host, but only if the previous response was read to the end and closed
+//  without calling disconnect(). disconnect() is only called when a response was abandoned.
+//- responses are requested gzip compressed, which makes a forecast about 5 times smaller.
+//- connecting and reading time out, so a dead cellular connection doesn't hang a request forever.
+//- requests failing with a timeout, a dropped connection or a 5xx/429 status are retried a few
+//  times, waiting a little longer (plus a random amount) before each retry.
+//- the whole response is read as bytes, callers decode it however they need to. A caller that wants
+//  to start on the body before it has arrived passes a BodyReader, which reads the decompressed
+//  body as it comes off the connection. Such a request isn't retried once the reader has received
+//  part of the body, since it may have acted on it, but a body that fails before its first byte
+//  reaches the reader is retried like any other request.
+//- a request made with a Call can be cancelled from another thread, e.g. when the user asked for
+//  another city in the meantime. Its connection is closed right away instead of downloading a
+//  response nobody will look at.
+//- the time to connect, to the first byte of the response and to read its body are recorded in
+//  Metrics, along with the bytes received, so we can see which one makes a request slow.
+public class HttpClient {
+
+    //stages of every request made by any HttpClient, in microseconds. Connecting takes no time
+    //when a kept-alive connection is reused.
+    private static final Metrics.Histogram REQUEST_TIME = Metrics.histogram("http.request", "us");
+    private static final Metrics.Histogram CONNECT_TIME = Metrics.histogram("http.connect", "us");
+    private static final Metrics.Histogram FIRST_BYTE_TIME = Metrics.histogram("http.first_byte", "us");
+    private static final Metrics.Histogram DOWNLOAD_TIME = Metrics.histogram("http.download", "us");
+    private static final Metrics.Counter RETRIES = Metrics.counter("http.retries");
+    private static final Metrics.Counter FAILURES = Metrics.counter("http.failures");
+    private static final Metrics.Counter CANCELLED = Metrics.counter("http.cancelled");
+    private static final Metrics.Counter WIRE_BYTES = Metrics.counter("http.bytes.wire");
+    private static final Metrics.Counter BODY_BYTES = Metrics.counter("http.bytes.body");
+
+    //Response is a complete response with the time and bytes it took.
+    public static class Response {
+        public final int status; //HTTP status code
+        public final byte[] body; //the decompressed body, empty for 304 and errors without a body
+        public final int attempts; //1 if the first attempt succeeded
+        public final long elapsedMillis; //from the first attempt until the body was read
+        public final long wireBytes; //body bytes received, before decompression
+        private final Map<String, String> headers;
+
+        Response(int status, byte[] body, Map<String, String> headers, int attempts,
+                 long elapsedMillis, long wireBytes) {
+            this.status = status;
+            this.body = body;
+            this.headers = headers;
+            this.attempts = attempts;
+            this.elapsedMillis = elapsedMillis;
+            this.wireBytes = wireBytes;
+        }
+
+        //the value of a response header, or null.
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    //BodyReader reads the body of a 200 response while it downloads.
+    public interface BodyReader {
+        //read the decompressed body. The stream must not be closed, whatever isn't read is read
+        //to the end afterwards so the Response still has the whole body.
+        void read(InputStream body) throws IOException;
+    }
+
+    //BodyReadException carries a failure of a request whose body had already reached the
+    //BodyReader, which mustn't be retried.
+    private static class BodyReadException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BodyReadException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    //CancelledException means the request's Call was cancelled. It is never retried.
+    public static class CancelledException extends InterruptedIOException {
+        private static final long serialVersionUID = 1L;
+
+        public CancelledException() {
+            super("Cancelled");
+        }
+    }
+
+    //Call lets another thread cancel a request while it runs. Cancelling closes the connection,
+    //which makes a blocked read fail right away, and ends a wait before a retry. A Call is used for
+    //one request.
+    public static class Call {
+        private boolean cancelled;
+        //the connection of the running attempt, null between attempts.
+        private HttpURLConnection connection;
+
+        public synchronized void cancel() {
+            cancelled = true;
+            if (connection != null) {
+                connection.disconnect();
+            }
+            notifyAll();
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        synchronized void start(HttpURLConnection connection) throws CancelledException {
+            if (cancelled) {
+                throw new CancelledException();
+            }
+            this.connection = connection;
+        }
+
+        //the attempt is over, cancelling mustn't close its connection once it was given back to be reused.
+        synchronized void finish() {
+            connection = null;
+        }
+
+        //wait before a retry, unless the call is cancelled.
+        synchronized void sleep(long millis) throws InterruptedException, CancelledException {
+            long end = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (!cancelled && remaining > 0) {
+                wait(remaining);
+                remaining = end - System.currentTimeMillis();
+            }
+            if (cancelled) {
+                throw new CancelledException();
+            }
+        }
+    }
+
+    //the client used by the app.
+    private static final HttpClient DEFAULT = new HttpClient(10000, 15000, 3, 500);
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final Random random = new Random();
+
+    public static HttpClient getDefault() {
+        return DEFAULT;
+    }
+
+    //maxAttempts includes the first attempt, backoffMillis is the wait before the first retry and
+    //doubles for each further one.
+    public HttpClient(int connectTimeoutMillis, int readTimeoutMillis, int maxAttempts, long backoffMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    //make a GET request with the given request headers (may be null). Returns the response
+    //whatever its status, unless it is a transient failure and there are attempts left.
+    public Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+        return get(url, requestHeaders, null);
+    }
+
+    //make a GET request that is cancelled by call.cancel() (call may be null). A cancelled request
+    //throws CancelledException.
+    public Response get(URL url, Map<String, String> requestHeaders, Call call) throws IOException {
+        return get(url, requestHeaders, call, null);
+    }
+
+    //make a GET request whose body is passed to bodyReader (may be null) while it downloads, if
+    //the status is 200. An exception thrown by bodyReader, or by reading the body, is thrown as is.
+    public Response get(URL url, Map<String, String> requestHeaders, Call call, BodyReader bodyReader)
+            throws IOException {
+        long start = Metrics.beginSection("HttpClient.get");
+        try {
+            return getWithRetries(url, requestHeaders, call, bodyReader, start);
+        }
+        finally {
+            REQUEST_TIME.recordSince(start);
+            Metrics.endSection();
+        }
+    }
+
+    private Response getWithRetries(URL url, Map<String, String> requestHeaders, Call call,
+                                    BodyReader bodyReader, long start) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Response response;
+            try {
+                response = attempt(url, requestHeaders, call, bodyReader, attempt, start);
+            }
+            catch (BodyReadException e) {
+                checkCancelled(call);
+                FAILURES.increment();
+                throw (IOException) e.getCause();
+            }
+            catch (InterruptedIOException e) {
+                //a timeout is transient, but an interrupted thread has been asked to stop.
+                checkCancelled(call);
+                if (Thread.currentThread().isInterrupted() || attempt >= maxAttempts) {
+                    FAILURES.increment();
+                    throw e;
+                }
+                backOff(attempt, call);
+                continue;
+            }
+            catch (IOException e) {
+                //closing the connection of a cancelled call usually fails the read with a
+                //SocketException, which isn't a failure to retry.
+                checkCancelled(call);
+                if (attempt >= maxAttempts) {
+                    FAILURES.increment();
+                    throw e;
+                }
+                backOff(attempt, call);
+                continue;
+            }
+
+            if (isTransient(response.status) && attempt < maxAttempts) {
+                backOff(attempt, call);
+                continue;
+            }
+
+            WIRE_BYTES.add(response.wireBytes);
+            BODY_BYTES.add(response.body.length);
+            return response;
+        }
+    }
+
+    //one attempt of a request.
+    private Response attempt(URL url, Map<String, String> requestHeaders, Call call, BodyReader bodyReader,
+                             int attempt, long start) throws IOException {
+        //simply opening the connection makes the request.
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        boolean completed = false;
+        try {
+            if (call != null) {
+                call.start(connection);
+            }
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            //asking for gzip ourselves means we also have to decompress it ourselves.
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (requestHeaders != null) {
+                for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+
+            //connect() looks up the host and opens the connection (unless one is reused),
+            //getResponseCode() sends the request and waits for the response's headers.
+            long stageStart = System.nanoTime();
+            connection.connect();
+            CONNECT_TIME.recordSince(stageStart);
+            stageStart = System.nanoTime();
+            int status = connection.getResponseCode();
+            FIRST_BYTE_TIME.recordSince(stageStart);
+            stageStart = System.nanoTime();
+
+            //error responses have their body in the error stream, which may be null.
+            InputStream raw = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            byte[] body = new byte[0];
+            long wireBytes = 0;
+            if (raw != null && bodyReader != null && status == HttpURLConnection.HTTP_OK) {
+                //the body is decompressed and read while it arrives, and copied for the Response.
+                CountingInputStream wire = new CountingInputStream(raw);
+                try (InputStream in = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                        ? new GZIPInputStream(wire) : wire) {
+                    CopyingInputStream copy = new CopyingInputStream(in);
+                    try {
+                        bodyReader.read(copy);
+                        readFully(copy);
+                        checkComplete(wire.count, connection.getContentLength());
+                    }
+                    catch (IOException e) {
+                        //the reader saw nothing yet, so the request can be made again.
+                        if (copy.size() == 0) {
+                            throw e;
+                        }
+                        throw new BodyReadException(e);
+                    }
+                    body = copy.toByteArray();
+                }
+                DOWNLOAD_TIME.recordSince(stageStart);
+                wireBytes = wire.count;
+            }
+            else if (raw != null) {
+                //the body is read off the connection before it is decompressed, so the connection
+                //is returned to the pool as early as possible.
+                try (InputStream in = raw) {
+                    body = readFully(in);
+                }
+                checkComplete(body.length, connection.getContentLength());
+                DOWNLOAD_TIME.recordSince(stageStart);
+                wireBytes = body.length;
+                if (body.length > 0 && "gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                        body = readFully(in);
+                    }
+                }
+            }
+
+            Map<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                if (header.getKey() != null && !header.getValue().isEmpty()) {
+                    headers.put(header.getKey().toLowerCase(Locale.US), header.getValue().get(0));
+                }
+            }
+
+            completed = true;
+            return new Response(status, body, Collections.unmodifiableMap(headers), attempt,
+                    (System.nanoTime() - start) / 1000000, wireBytes);
+        }
+        finally {
+            if (call != null) {
+                call.finish();
+            }
+            //a connection whose response wasn't read completely can't be reused.
+            if (!completed) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    //a connection that drops before the whole body arrived doesn't always fail the read, the body
+    //may just end early. We compare the bytes received with the Content-Length header (-1 if there
+    //is none, e.g. for a chunked body), so a cut off response is retried instead of parsed.
+    private static void checkComplete(long received, int contentLength) throws EOFException {
+        if (contentLength >= 0 && received < contentLength) {
+            throw new EOFException("Response ended after " + received + " of " + contentLength + " bytes");
+        }
+    }
+
+    private static void checkCancelled(Call call) throws CancelledException {
+        if (call != null && call.isCancelled()) {
+            CANCELLED.increment();
+            throw new CancelledException();
+        }
+    }
+
+    //5xx is a problem on the server's side, 429 means we asked too often. Both may go away.
+    private static boolean isTransient(int status) {
+        return status >= 500 || status == 429;
+    }
+
+    //wait before the next attempt: backoffMillis doubled for each earlier retry, then somewhere
+    //between half and all of that so that clients that failed together don't retry together.
+    private void backOff(int attempt, Call call) throws InterruptedIOException {
+        RETRIES.increment();
+        long delay = backoffMillis << (attempt - 1);
+        delay = delay / 2 + (long) (random.nextDouble() * (delay / 2 + 1));
+        try {
+            if (call != null) {
+                call.sleep(delay);
+            }
+            else {
+                Thread.sleep(delay);
+            }
+        }
+        catch (CancelledException e) {
+            CANCELLED.increment();
+            throw e;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            FAILURES.increment();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    //CountingInputStream counts the bytes read from a stream.
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    //CopyingInputStream keeps a copy of the bytes read from a stream.
+    private static class CopyingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream(4096);
+
+        CopyingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                copy.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        //skipped bytes would be missing from the copy, so they are read instead.
+        @Override
+        public long skip(long n) throws IOException {
+            return Math.max(0, read(new byte[(int) Math.min(n, 4096)]));
+        }
+
+        //the reader mustn't close the connection's stream, the try block around it does.
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        //the number of bytes read so far.
+        int size() {
+            return copy.size();
+        }
+
+        byte[] toByteArray() {
+            return copy.toByteArray();
+        }
+    }
+
+    //read a stream until its end.
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
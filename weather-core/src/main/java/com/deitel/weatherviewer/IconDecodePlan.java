@@ -0,0 +1,103 @@
+package com.deitel.weatherviewer;
+
+//IconDecodePlan works out how to decode a weather-condition image so that its larger side is at
+//most targetSize pixels, the size of the ImageView it is displayed in:
+//- first the decoder skips pixels (BitmapFactory's inSampleSize, a power of 2), which is the
+//  cheapest way to shrink an image because the skipped pixels are never decoded.
+//- then it scales what is left by targetDensity / density (inTargetDensity / inDensity) to the
+//  exact size.
+//Images that are already small enough aren't enlarged, the ImageView does that when it draws them.
+//An opaque PNG may be decoded with 2 bytes per pixel instead of 4, since it doesn't need an alpha
+//channel. The plan only depends on the image's header, so it is worked out before any pixel is
+//decoded, and the width and height of the decoded image are known in advance so a Bitmap of that
+//size can be reused for it.
+public class IconDecodePlan {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    public final int sampleSize; //1 to decode every pixel
+    public final int density; //0 if the image isn't scaled after sampling
+    public final int targetDensity;
+    public final int width; //of the decoded image
+    public final int height;
+    public final boolean opaque; //true if the image has no transparent pixels
+
+    //encoded is the image's file, width and height its size as read with inJustDecodeBounds.
+    public IconDecodePlan(byte[] encoded, int width, int height, int targetSize) {
+        int largest = Math.max(width, height);
+
+        //the largest power of 2 that leaves the larger side at least targetSize.
+        int sample = 1;
+        while (largest / (sample * 2) >= targetSize) {
+            sample *= 2;
+        }
+        sampleSize = sample;
+
+        //the decoder rounds the sampled size down.
+        int sampledWidth = Math.max(1, width / sample);
+        int sampledHeight = Math.max(1, height / sample);
+        int sampledLargest = Math.max(sampledWidth, sampledHeight);
+
+        if (sampledLargest > targetSize) {
+            density = sampledLargest;
+            targetDensity = targetSize;
+            //the decoder rounds the scaled size to the nearest pixel.
+            float scale = targetDensity / (float) density;
+            this.width = Math.max(1, (int) (sampledWidth * scale + 0.5f));
+            this.height = Math.max(1, (int) (sampledHeight * scale + 0.5f));
+        }
+        else {
+            density = 0;
+            targetDensity = 0;
+            this.width = sampledWidth;
+            this.height = sampledHeight;
+        }
+
+        opaque = isOpaquePng(encoded);
+    }
+
+    //true if encoded is a PNG without an alpha channel or transparent color. The PNG starts with
+    //the IHDR chunk giving its color type, a tRNS chunk (which must come before the image data)
+    //makes a color transparent.
+    static boolean isOpaquePng(byte[] encoded) {
+        if (encoded.length < 33) {
+            return false;
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (encoded[i] != PNG_SIGNATURE[i]) {
+                return false;
+            }
+        }
+
+        //color types 4 and 6 have an alpha channel. 0 (gray), 2 (RGB) and 3 (palette) don't.
+        int colorType = encoded[25];
+        if (colorType != 0 && colorType != 2 && colorType != 3) {
+            return false;
+        }
+
+        //each chunk is a 4 byte length, a 4 byte type, the data and a 4 byte CRC.
+        int offset = PNG_SIGNATURE.length;
+        while (offset + 8 <= encoded.length) {
+            int length = ((encoded[offset] & 0xFF) << 24) | ((encoded[offset + 1] & 0xFF) << 16)
+                    | ((encoded[offset + 2] & 0xFF) << 8) | (encoded[offset + 3] & 0xFF);
+            if (isChunk(encoded, offset, "tRNS") || length < 0 || length > encoded.length) {
+                return false;
+            }
+            if (isChunk(encoded, offset, "IDAT")) {
+                return true;
+            }
+            offset += 12 + length;
+        }
+        return false;
+    }
+
+    //true if the chunk at offset has the given type.
+    private static boolean isChunk(byte[] encoded, int offset, String type) {
+        for (int i = 0; i < 4; i++) {
+            if (encoded[offset + 4 + i] != type.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,219 @@
+package com.deitel.weatherviewer;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Metrics records how long each stage of loading and displaying a forecast takes, and how many
+//bytes, cache hits and misses it involves, so a slow app can be explained by a dump of the numbers
+//instead of guesses. It is cheap enough to stay enabled in release builds:
+//- the Histograms and Counters are looked up once and kept in static fields by the code using them.
+//- recording a value is a few atomic additions, nothing is allocated and no lock is taken.
+//- beginSection/endSection are given to a Tracer, the app installs one that writes the sections
+//  to systrace/Perfetto. Without one they do nothing.
+//Any number of threads may record at once.
+public final class Metrics {
+
+    //Tracer marks the sections of work in the platform's trace. Sections must be ended on the
+    //thread that began them, in reverse order.
+    public interface Tracer {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+    private static final Tracer NO_TRACER = new Tracer() {
+        @Override
+        public void beginSection(String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+    };
+
+    private static volatile Tracer tracer = NO_TRACER;
+
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    //the histogram with the given name, created the first time it is asked for. The unit is only
+    //used when the histogram is dumped.
+    public static Histogram histogram(String name, String unit) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(unit);
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    //the counter with the given name, created the first time it is asked for.
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    //write sections to the given Tracer from now on, null stops tracing.
+    public static void setTracer(Tracer newTracer) {
+        tracer = newTracer != null ? newTracer : NO_TRACER;
+    }
+
+    //begin a trace section and return the current time, for Histogram.recordSince.
+    public static long beginSection(String name) {
+        tracer.beginSection(name);
+        return System.nanoTime();
+    }
+
+    //end the section begun last on this thread.
+    public static void endSection() {
+        tracer.endSection();
+    }
+
+    //one line per counter and histogram, sorted by name.
+    public static void dump(PrintWriter writer) {
+        for (Map.Entry<String, Counter> counter : new TreeMap<>(counters).entrySet()) {
+            writer.println(counter.getKey() + ": " + counter.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> histogram : new TreeMap<>(histograms).entrySet()) {
+            writer.println(histogram.getKey() + ": " + histogram.getValue());
+        }
+        writer.flush();
+    }
+
+    //reset every counter and histogram, e.g. before measuring one interaction.
+    public static void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    //Counter is a number that only goes up, e.g. the bytes received or the cache hits.
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long amount) {
+            value.addAndGet(amount);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        private void reset() {
+            value.set(0);
+        }
+    }
+
+    //Histogram counts recorded values in buckets whose bounds double: bucket 0 holds 0, bucket n
+    //holds values from 2^(n-1) to 2^n - 1. Percentiles are reported as the upper bound of their
+    //bucket, so they are at most twice the real value, which is enough to tell 20 ms from 200 ms.
+    public static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final String unit;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram(String unit) {
+            this.unit = unit;
+        }
+
+        //record a value, negative values are recorded as 0.
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                //another thread updated the maximum, try again
+            }
+        }
+
+        //record the microseconds since startNanos, a value returned by System.nanoTime or
+        //Metrics.beginSection.
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        //the value below which the given fraction (0 to 1) of the recorded values are, rounded up
+        //to the upper bound of its bucket. 0 if nothing was recorded.
+        public long getPercentile(double fraction) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank) {
+                    //the bucket's upper bound, but never more than the largest recorded value.
+                    return Math.min((1L << bucket) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private void reset() {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                buckets.set(bucket, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        @Override
+        public String toString() {
+            long total = count.get();
+            return total + " x, avg " + (total == 0 ? 0 : sum.get() / total) + " " + unit
+                    + ", p50 " + getPercentile(0.5) + ", p95 " + getPercentile(0.95)
+                    + ", p99 " + getPercentile(0.99) + ", max " + max.get() + " " + unit;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.deitel.weatherviewer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//MultiCityFetcher loads the weather of a list of cities, e.g. the ones the user checks every day.
+//Each city is delivered to the Listener as soon as it is loaded, so the first cities are displayed
+//while the slowest one is still downloading.
+//- a city whose cached forecast is still fresh is delivered without a request.
+//- cities we already know the openweathermap.org id of (from a previous forecast) are requested
+//  together, up to ForecastUrls.MAX_GROUP_SIZE per "group" request. A group request returns the
+//  current weather of each city rather than a forecast, which is what the overview displays.
+//  The current weather is kept in the ForecastCache's memory, and is delivered without a request
+//  as long as it is fresh, like a cached forecast.
+//- every other city gets its own forecast request. At most maxParallelRequests requests run at
+//  once, and since they all go to the same host HttpURLConnection reuses their connections.
+//fetch returns a Batch, cancelling it drops the requests that haven't started and stops the
+//running ones, so an overview the user left doesn't keep the network threads busy.
+public class MultiCityFetcher {
+
+    //Listener receives the results, its methods are called by the callback executor.
+    public interface Listener {
+        //a city's weather, the first day of forecast is the one to display.
+        void onCityLoaded(String city, Forecast forecast);
+
+        //the city couldn't be loaded, e.g. it is unknown or there is no connection.
+        void onCityFailed(String city, IOException error);
+
+        //every city was either loaded or failed.
+        void onFinished();
+    }
+
+    private static final Metrics.Counter CANCELLED = Metrics.counter("overview.cancelled");
+
+    private final ForecastUrls forecastUrls;
+    private final ForecastCache forecastCache;
+    private final ForecastFetcher fetcher;
+    private final Executor networkExecutor;
+    private final Executor callbackExecutor;
+    private final int maxParallelRequests;
+
+    //the requests run on networkExecutor, the Listener is called on callbackExecutor (the GUI
+    //thread in the app).
+    public MultiCityFetcher(ForecastUrls forecastUrls, ForecastCache forecastCache, ForecastFetcher fetcher,
+                            Executor networkExecutor, Executor callbackExecutor, int maxParallelRequests) {
+        this.forecastUrls = forecastUrls;
+        this.forecastCache = forecastCache;
+        this.fetcher = fetcher;
+        this.networkExecutor = networkExecutor;
+        this.callbackExecutor = callbackExecutor;
+        this.maxParallelRequests = maxParallelRequests;
+    }
+
+    //load the cities. Cities that only differ in case or spacing are loaded once. The returned
+    //Batch can be cancelled.
+    public Batch fetch(List<String> cities, Listener listener) {
+        final Batch batch = new Batch(cities, listener);
+        //looking in the cache may read from disk, so even that is done in the background.
+        networkExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                batch.start();
+            }
+        });
+        return batch;
+    }
+
+    //Batch is one call to fetch.
+    public class Batch {
+        private final Listener listener;
+        //the cities by cache key, in the order the user entered them.
+        private final Map<String, String> cities = new LinkedHashMap<>();
+        //the number of cities not delivered yet.
+        private final AtomicInteger remaining;
+
+        //requests waiting for one of the workers, and the number of running workers.
+        private final Queue<Runnable> requests = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger workers = new AtomicInteger();
+
+        //set by cancel. The calls of the running requests, so cancel can stop them.
+        private volatile boolean cancelled;
+        private final Set<HttpClient.Call> calls = new HashSet<>();
+
+        Batch(List<String> cityList, Listener listener) {
+            this.listener = listener;
+            for (String city : cityList) {
+                String key = ForecastCache.key(city, forecastUrls.getUnits());
+                if (!cities.containsKey(key)) {
+                    cities.put(key, city.trim());
+                }
+            }
+            remaining = new AtomicInteger(cities.size());
+        }
+
+        //stop loading the cities, e.g. because the user left the overview. Requests that haven't
+        //started are dropped and running ones are stopped. Must be called on the callback
+        //executor, the Listener isn't called after that.
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            CANCELLED.increment();
+            requests.clear();
+            synchronized (calls) {
+                for (HttpClient.Call call : calls) {
+                    call.cancel();
+                }
+            }
+        }
+
+        void start() {
+            if (cancelled) {
+                return;
+            }
+            if (cities.isEmpty()) {
+                finish();
+                return;
+            }
+
+            //the cities to request by id, and the stale entries of the cities we'll request
+            Map<Long, String> byId = new LinkedHashMap<>();
+            Map<String, ForecastCache.Entry> stale = new LinkedHashMap<>();
+
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, String> city : cities.entrySet()) {
+                ForecastCache.Entry cached = forecastCache.get(city.getKey());
+                ForecastCache.Entry current = forecastCache.getFromMemory(
+                        ForecastCache.currentKey(city.getValue(), forecastUrls.getUnits()));
+                if (cached != null && forecastCache.isFresh(cached, now)) {
+                    loaded(city.getValue(), cached.forecast);
+                }
+                else if (current != null && forecastCache.isFresh(current, now)) {
+                    //the current weather from an earlier group request.
+                    loaded(city.getValue(), current.forecast);
+                }
+                else if (cached == null) {
+                    submitForecastRequest(city.getValue(), null);
+                }
+                else {
+                    long cityId = cached.forecast.getCityId();
+                    stale.put(city.getValue(), cached);
+                    if (cityId != 0 && !byId.containsKey(cityId)) {
+                        byId.put(cityId, city.getValue());
+                    }
+                    else {
+                        submitForecastRequest(city.getValue(), cached);
+                    }
+                }
+            }
+
+            //the known cities are split into groups of at most MAX_GROUP_SIZE.
+            List<Long> ids = new ArrayList<>(byId.keySet());
+            for (int i = 0; i < ids.size(); i += ForecastUrls.MAX_GROUP_SIZE) {
+                List<Long> group = new ArrayList<>(
+                        ids.subList(i, Math.min(ids.size(), i + ForecastUrls.MAX_GROUP_SIZE)));
+                submitGroupRequest(group, byId, stale);
+            }
+        }
+
+        //request the current weather of a group of cities and keep it in the cache. Cities missing
+        //from the response, or all of them if the request fails, get their own forecast request
+        //instead.
+        private void submitGroupRequest(final List<Long> group, final Map<Long, String> byId,
+                                        final Map<String, ForecastCache.Entry> stale) {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    Map<Long, Forecast> result;
+                    HttpClient.Call call = startCall();
+                    try {
+                        result = fetcher.fetchGroup(forecastUrls.forGroup(group), call);
+                    }
+                    catch (IOException e) {
+                        if (!cancelled) {
+                            e.printStackTrace();
+                        }
+                        result = new LinkedHashMap<>();
+                    }
+                    finally {
+                        endCall(call);
+                    }
+
+                    long fetchedAt = System.currentTimeMillis();
+                    for (Long cityId : group) {
+                        String city = byId.get(cityId);
+                        Forecast forecast = result.get(cityId);
+                        if (forecast != null && forecast.size() > 0) {
+                            forecastCache.putInMemory(ForecastCache.currentKey(city, forecastUrls.getUnits()),
+                                    new ForecastCache.Entry(forecast, null, null, null, fetchedAt));
+                            loaded(city, forecast);
+                        }
+                        else {
+                            submitForecastRequest(city, stale.get(city));
+                        }
+                    }
+                }
+            });
+        }
+
+        //request a city's forecast, revalidating the stale entry if there is one.
+        private void submitForecastRequest(final String city, final ForecastCache.Entry cached) {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    HttpClient.Call call = startCall();
+                    try {
+                        String key = ForecastCache.key(city, forecastUrls.getUnits());
+                        ForecastCache.Entry entry = fetcher.fetch(key, forecastUrls.forCity(city), cached, call,
+                                0, null, null);
+                        loaded(city, entry.forecast);
+                    }
+                    catch (IOException e) {
+                        if (!cancelled) {
+                            e.printStackTrace();
+                        }
+                        failed(city, e);
+                    }
+                    finally {
+                        endCall(call);
+                    }
+                }
+            });
+        }
+
+        //a call for a request that is about to run, cancelled right away if the batch is.
+        private HttpClient.Call startCall() {
+            HttpClient.Call call = new HttpClient.Call();
+            synchronized (calls) {
+                calls.add(call);
+            }
+            if (cancelled) {
+                call.cancel();
+            }
+            return call;
+        }
+
+        private void endCall(HttpClient.Call call) {
+            synchronized (calls) {
+                calls.remove(call);
+            }
+        }
+
+        //queue a request and start a worker for it unless maxParallelRequests are already running.
+        //Nothing is queued once the batch is cancelled.
+        private void submit(Runnable request) {
+            if (cancelled) {
+                return;
+            }
+            requests.add(request);
+            startWorker();
+        }
+
+        private void startWorker() {
+            while (true) {
+                int running = workers.get();
+                if (running >= maxParallelRequests) {
+                    return; //a running worker will take the request
+                }
+                if (workers.compareAndSet(running, running + 1)) {
+                    break;
+                }
+            }
+            networkExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+        }
+
+        //run queued requests until there are none left.
+        private void work() {
+            Runnable request;
+            while ((request = requests.poll()) != null) {
+                request.run();
+            }
+            workers.decrementAndGet();
+            //a request may have been queued after poll() but before the decrement, when it
+            //saw no free worker.
+            if (!requests.isEmpty()) {
+                startWorker();
+            }
+        }
+
+        private void loaded(final String city, final Forecast forecast) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        return;
+                    }
+                    listener.onCityLoaded(city, forecast);
+                    delivered();
+                }
+            });
+        }
+
+        private void failed(final String city, final IOException error) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        return;
+                    }
+                    listener.onCityFailed(city, error);
+                    delivered();
+                }
+            });
+        }
+
+        //called on the callback executor after each city.
+        private void delivered() {
+            if (remaining.decrementAndGet() == 0) {
+                listener.onFinished();
+            }
+        }
+
+        private void finish() {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        listener.onFinished();
+                    }
+                }
+            });
+        }
+    }
+}
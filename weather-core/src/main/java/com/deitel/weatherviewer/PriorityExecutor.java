@@ -0,0 +1,168 @@
+package com.deitel.weatherviewer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//PriorityExecutor runs tasks on a bounded pool of threads. Queued tasks run highest priority first
+//and in the order they were submitted within the same priority. It records how long tasks wait in
+//the queue so we can see whether a pool is too small, also as the Metrics histogram
+//"pool.<name>.wait".
+public class PriorityExecutor implements Executor {
+
+    //priority of work the user is waiting for, e.g. the image of a visible ListView item.
+    public static final int PRIORITY_VISIBLE = 10;
+    //priority of tasks submitted through execute(Runnable).
+    public static final int PRIORITY_NORMAL = 5;
+    //priority of work that may be needed soon, e.g. the image of an item that isn't visible yet.
+    public static final int PRIORITY_PREFETCH = 0;
+
+    private final String name;
+    private final ThreadPoolExecutor pool;
+
+    //FIFO order among tasks with the same priority.
+    private final AtomicLong sequence = new AtomicLong();
+
+    //queue wait statistics
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final Metrics.Histogram waitTime;
+
+    //Task is a queued Runnable. It is returned by execute so the caller can change its priority
+    //or remove it from the queue.
+    public final class Task implements Runnable, Comparable<Task> {
+        private final Runnable runnable;
+        private volatile int priority;
+        private volatile long order;
+        private final long enqueuedAt = System.nanoTime();
+
+        private Task(Runnable runnable, int priority) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.order = sequence.getAndIncrement();
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void run() {
+            recordWait(System.nanoTime() - enqueuedAt);
+            runnable.run();
+        }
+
+        //higher priority first, then lower order first.
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order > other.order ? 1 : 0);
+        }
+    }
+
+    //name is used for the threads' names, threads is the maximum number of tasks run at once.
+    public PriorityExecutor(String name, int threads) {
+        this.name = name;
+        this.waitTime = Metrics.histogram("pool." + name + ".wait", "us");
+        this.pool = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new NamedThreadFactory(name));
+        //idle threads are stopped so an unused pool costs nothing.
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        execute(runnable, PRIORITY_NORMAL);
+    }
+
+    //queue runnable with the given priority.
+    public Task execute(Runnable runnable, int priority) {
+        Task task = new Task(runnable, priority);
+        pool.execute(task);
+        return task;
+    }
+
+    //raise the priority of a task that is still queued. Returns false if the task already started
+    //or already has at least that priority.
+    public boolean raisePriority(Task task, int priority) {
+        if (task.priority >= priority) {
+            return false;
+        }
+        //the queue only orders a task when it is added, so we take it out and put it back.
+        if (!pool.remove(task)) {
+            return false;
+        }
+        task.priority = priority;
+        pool.execute(task);
+        return true;
+    }
+
+    //remove a task that hasn't started yet. Returns false if it already started.
+    public boolean remove(Task task) {
+        return pool.remove(task);
+    }
+
+    //the number of tasks waiting for a thread.
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    //the number of tasks that started running.
+    public int getStartedCount() {
+        return started.get();
+    }
+
+    //the average time a task waited in the queue before it started, in milliseconds.
+    public double getAverageWaitMillis() {
+        int count = started.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    //the longest time a task waited in the queue before it started, in milliseconds.
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%d active, %d queued, %d started, wait avg %.1f ms max %.1f ms]",
+                name, pool.getActiveCount(), getQueueDepth(), getStartedCount(),
+                getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    private void recordWait(long waitNanos) {
+        started.incrementAndGet();
+        waitTime.record(waitNanos / 1000);
+        totalWaitNanos.addAndGet(waitNanos);
+        long max;
+        while (waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            //another thread updated the maximum, try again
+        }
+    }
+
+    //NamedThreadFactory creates background threads named after the pool so they are easy to
+    //recognize in traces.
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1); //stay behind the GUI thread
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.deitel.weatherviewer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//SavedCitiesRefresher refreshes the forecasts of the cities the user looked at last (the ones in the
+//ForecastSnapshot) in the background, so opening the app displays current forecasts from the
+//ForecastCache instead of waiting for the web service. The app runs it from a JobScheduler job.
+//Every city that is due is refreshed in the same run, one request after the other over the same
+//kept-alive connection, so the radio is woken up once for all of them instead of once per city.
+//A city is due when its cached forecast will no longer be fresh within the lookahead, so a city
+//that is almost due isn't left for a wake-up of its own shortly after.
+//Cities with a cached forecast are revalidated: if the forecast didn't change the server answers
+//304 Not Modified without a body.
+//Each city is refreshed in the mode it was saved in, so a saved hourly forecast stays hourly.
+public class SavedCitiesRefresher {
+
+    private static final Metrics.Counter REFRESHED = Metrics.counter("refresh.cities");
+    private static final Metrics.Counter FAILED = Metrics.counter("refresh.failures");
+    private static final Metrics.Histogram REFRESH_TIME = Metrics.histogram("refresh.time", "us");
+
+    //Result counts the saved cities by what a refresh did with them.
+    public static class Result {
+        public final int refreshed; //requested from the web service
+        public final int failed; //the request failed
+        public final int notDue; //the cached forecast is still fresh for a while
+
+        Result(int refreshed, int failed, int notDue) {
+            this.refreshed = refreshed;
+            this.failed = failed;
+            this.notDue = notDue;
+        }
+
+        //every due city failed, e.g. there is no connection after all. Worth trying again soon.
+        public boolean shouldRetry() {
+            return failed > 0 && refreshed == 0;
+        }
+
+        @Override
+        public String toString() {
+            return refreshed + " refreshed, " + failed + " failed, " + notDue + " not due";
+        }
+    }
+
+    //SavedCity is a city and the mode its forecast is refreshed in.
+    private static class SavedCity {
+        final String city;
+        final ForecastUrls.Mode mode;
+
+        SavedCity(String city, ForecastUrls.Mode mode) {
+            this.city = city;
+            this.mode = mode;
+        }
+    }
+
+    private final ForecastSnapshot snapshot;
+    private final ForecastCache forecastCache;
+    private final ForecastFetcher fetcher;
+    private final ForecastUrls forecastUrls;
+
+    //the request running, cancelled by cancel().
+    private volatile HttpClient.Call call;
+    private volatile boolean cancelled;
+
+    public SavedCitiesRefresher(ForecastSnapshot snapshot, ForecastCache forecastCache,
+                                ForecastFetcher fetcher, ForecastUrls forecastUrls) {
+        this.snapshot = snapshot;
+        this.forecastCache = forecastCache;
+        this.fetcher = fetcher;
+        this.forecastUrls = forecastUrls;
+    }
+
+    //refresh the saved cities whose forecasts won't be fresh anymore in lookaheadMillis. The
+    //snapshot's single-city forecasts are replaced by the refreshed ones. Must be called from a
+    //background thread, it returns when every due city was refreshed or failed.
+    public Result refresh(long lookaheadMillis) {
+        long start = Metrics.beginSection("SavedCitiesRefresher.refresh");
+        try {
+            return refreshDue(System.currentTimeMillis() + lookaheadMillis);
+        }
+        finally {
+            REFRESH_TIME.recordSince(start);
+            Metrics.endSection();
+        }
+    }
+
+    //stop the refresh from another thread, e.g. when the job's constraints are no longer met.
+    //The cities refreshed so far are kept.
+    public void cancel() {
+        cancelled = true;
+        HttpClient.Call running = call;
+        if (running != null) {
+            running.cancel();
+        }
+    }
+
+    private Result refreshDue(long dueBefore) {
+        //the cities by cache key, an overview's cities are refreshed one by one.
+        Map<String, SavedCity> cities = new LinkedHashMap<>();
+        for (ForecastSnapshot.Item item : snapshot.read()) {
+            for (String city : item.query.split(";")) {
+                String key = ForecastCache.key(city, forecastUrls.getUnits(), item.mode);
+                if (!city.trim().isEmpty() && !cities.containsKey(key)) {
+                    cities.put(key, new SavedCity(city.trim(), item.mode));
+                }
+            }
+        }
+
+        int refreshed = 0;
+        int failed = 0;
+        int notDue = 0;
+        //the refreshed forecasts, by cache key.
+        Map<String, Forecast> forecasts = new HashMap<>();
+        for (Map.Entry<String, SavedCity> city : cities.entrySet()) {
+            if (cancelled) {
+                break;
+            }
+            ForecastCache.Entry cached = forecastCache.get(city.getKey());
+            if (cached != null && forecastCache.isFresh(cached, dueBefore)) {
+                notDue++;
+                continue;
+            }
+
+            call = new HttpClient.Call();
+            if (cancelled) {
+                break; //cancel() may have missed the new call
+            }
+            try {
+                SavedCity saved = city.getValue();
+                ForecastCache.Entry entry = fetcher.fetch(city.getKey(),
+                        forecastUrls.forCity(saved.city, saved.mode), cached, call, 0, null, null);
+                forecasts.put(city.getKey(), entry.forecast);
+                refreshed++;
+                REFRESHED.increment();
+            }
+            catch (HttpClient.CancelledException e) {
+                break;
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                failed++;
+                FAILED.increment();
+            }
+            finally {
+                call = null;
+            }
+        }
+
+        //the next launch displays the refreshed forecasts in its first frame. The snapshot's
+        //single-city items are replaced by the forecast of the same key.
+        if (!forecasts.isEmpty()) {
+            snapshot.replaceForecasts(forecasts, forecastUrls.getUnits(), System.currentTimeMillis());
+        }
+        return new Result(refreshed, failed, notDue);
+    }
+}
@@ -0,0 +1,53 @@
+package com.deitel.weatherviewer;
+
+import java.util.Arrays;
+
+//TextBuffer builds a line of text in a char array that is reused for every line, so unlike a
+//StringBuilder.toString() or String.format nothing is allocated once the array is large enough.
+//TextView.setText(char[], int, int) displays the array without copying it into a String.
+//A TextBuffer is used by one thread, and the array mustn't be changed while a TextView displays it
+//unless setText is called again right after.
+public final class TextBuffer {
+
+    private char[] chars;
+    private int length;
+
+    public TextBuffer(int capacity) {
+        chars = new char[capacity];
+    }
+
+    //empty the buffer, keeping its array.
+    public TextBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    //add text at the end, the array only grows if the text doesn't fit. null is added as "null",
+    //like String.format does.
+    public TextBuffer append(String text) {
+        if (text == null) {
+            text = "null";
+        }
+        int textLength = text.length();
+        if (length + textLength > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + textLength));
+        }
+        text.getChars(0, textLength, chars, length);
+        length += textLength;
+        return this;
+    }
+
+    //the array holding the text, from 0 to length(). It is replaced when the buffer grows.
+    public char[] chars() {
+        return chars;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
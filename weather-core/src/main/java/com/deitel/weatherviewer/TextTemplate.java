@@ -0,0 +1,86 @@
+package com.deitel.weatherviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//TextTemplate fills a String resource like "High: %s" or "%1$s: %2$s" with String arguments into a
+//TextBuffer. The format is split into its text and its arguments once, when the template is
+//created, so filling it doesn't allocate: no varargs array, no Formatter and no String, which
+//Context.getString(id, args) all create for every call.
+//Only "%s", "%1$s" (up to "%9$s") and "%%" are supported, the only ones the app's Strings use.
+//A TextTemplate never changes after it is created, so it can be used from any thread.
+public final class TextTemplate {
+
+    //the format is texts[0], then the argument args[0], then texts[1], and so on. texts has one more
+    //element than args.
+    private final String[] texts;
+    private final int[] args;
+
+    public TextTemplate(String format) {
+        List<String> textList = new ArrayList<>();
+        List<Integer> argList = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int nextArg = 0; //the argument of the next "%s"
+
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i);
+            if (c != '%') {
+                text.append(c);
+                i++;
+                continue;
+            }
+            if (i + 1 < format.length() && format.charAt(i + 1) == '%') {
+                text.append('%');
+                i += 2;
+                continue;
+            }
+
+            int arg;
+            if (i + 1 < format.length() && format.charAt(i + 1) == 's') {
+                arg = nextArg++;
+                i += 2;
+            }
+            else if (i + 3 < format.length() && format.charAt(i + 1) >= '1' && format.charAt(i + 1) <= '9'
+                    && format.charAt(i + 2) == '$' && format.charAt(i + 3) == 's') {
+                arg = format.charAt(i + 1) - '1';
+                i += 4;
+            }
+            else {
+                throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+            if (arg > 2) {
+                throw new IllegalArgumentException("More than 3 arguments: " + format);
+            }
+            textList.add(text.toString());
+            text.setLength(0);
+            argList.add(arg);
+        }
+        textList.add(text.toString());
+
+        texts = textList.toArray(new String[textList.size()]);
+        args = new int[argList.size()];
+        for (int arg = 0; arg < args.length; arg++) {
+            args[arg] = argList.get(arg);
+        }
+    }
+
+    //replace out's text by the template filled with one argument.
+    public void format(TextBuffer out, String arg1) {
+        format(out, arg1, null, null);
+    }
+
+    public void format(TextBuffer out, String arg1, String arg2) {
+        format(out, arg1, arg2, null);
+    }
+
+    //there is a method per number of arguments, a varargs method would allocate an array per call.
+    public void format(TextBuffer out, String arg1, String arg2, String arg3) {
+        out.clear();
+        for (int i = 0; i < args.length; i++) {
+            out.append(texts[i]);
+            out.append(args[i] == 0 ? arg1 : args[i] == 1 ? arg2 : arg3);
+        }
+        out.append(texts[args.length]);
+    }
+}
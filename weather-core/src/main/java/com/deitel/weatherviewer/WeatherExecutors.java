@@ -0,0 +1,24 @@
+package com.deitel.weatherviewer;
+
+//WeatherExecutors holds the thread pools the app's background work runs on. Each kind of work has
+//its own pool so that, for example, a slow image download never delays the forecast request.
+//AsyncTask's default executor runs every task of the app one after the other.
+public final class WeatherExecutors {
+
+    //web service requests for forecasts. The multi-city overview runs up to 3 requests at once and
+    //leaves a thread for the forecast the user asked for.
+    public static final PriorityExecutor FORECAST = new PriorityExecutor("forecast", 4);
+    //weather-condition image downloads.
+    public static final PriorityExecutor ICON_NETWORK = new PriorityExecutor("icon-network", 4);
+    //reading images from disk and decoding them into Bitmaps, which is CPU bound.
+    public static final PriorityExecutor DECODE = new PriorityExecutor("decode",
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1)));
+
+    private WeatherExecutors() {
+    }
+
+    //one line per pool with its queue depth and wait times.
+    public static String dump() {
+        return FORECAST + "\n" + ICON_NETWORK + "\n" + DECODE;
+    }
+}
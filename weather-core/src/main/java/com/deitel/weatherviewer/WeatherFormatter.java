@@ -0,0 +1,200 @@
+package com.deitel.weatherviewer;
+
+import java.text.DateFormat;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+//WeatherFormatter creates the Strings displayed for a forecast. Creating NumberFormats, Calendars
+//and SimpleDateFormats is expensive, so instead of doing it for every day of the forecast it is done
+//once per locale: the day names, the 24 full hours, the temperatures in a common range and every
+//whole humidity percentage are formatted up front, and looking them up allocates nothing.
+//Forecasts store temperatures in degrees Celsius, they are converted to the unit the user picked
+//here, when a row is displayed. There is a formatter, with its own formatted temperatures, per unit,
+//so switching between degrees C and F only redraws the displayed rows.
+//A WeatherFormatter never changes after it is created, so it can be used from any thread.
+public final class WeatherFormatter {
+
+    //TemperatureUnit is the unit temperatures are displayed in.
+    public enum TemperatureUnit {
+        CELSIUS("\u00B0C"),
+        FAHRENHEIT("\u00B0F");
+
+        //appended to every temperature.
+        final String symbol;
+
+        TemperatureUnit(String symbol) {
+            this.symbol = symbol;
+        }
+
+        //convert a temperature in degrees Celsius to this unit.
+        public double fromCelsius(double celsius) {
+            return this == FAHRENHEIT ? celsius * 9 / 5 + 32 : celsius;
+        }
+    }
+
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    //the range of whole temperatures (in the formatter's unit) that are formatted up front.
+    private static final int MIN_CACHED_TEMP = -80;
+    private static final int MAX_CACHED_TEMP = 140;
+
+    //the formatter of each unit for the current locale and time zone.
+    private static final ConcurrentHashMap<TemperatureUnit, WeatherFormatter> instances = new ConcurrentHashMap<>();
+
+    private final Locale locale;
+    private final TimeZone timeZone;
+    private final TemperatureUnit unit;
+
+    //dayNames[floorMod(epochDay, 7)] is the name of the day, 1970-01-01 (epoch day 0) was a Thursday.
+    private final String[] dayNames = new String[7];
+    //hours[h] is the time h:00, e.g. "3:00 PM".
+    private final String[] hours = new String[24];
+    //temperatures[t - MIN_CACHED_TEMP] is the String for the whole temperature t.
+    private final String[] temperatures = new String[MAX_CACHED_TEMP - MIN_CACHED_TEMP + 1];
+    //humidities[h] is the String for h percent humidity.
+    private final String[] humidities = new String[101];
+
+    //used for values outside the precomputed ranges, NumberFormats aren't thread safe so we
+    //synchronize on them.
+    private final NumberFormat numberFormat;
+    private final NumberFormat percentFormat;
+    //for times that aren't a full hour, e.g. in a time zone with a half hour offset.
+    private final DateFormat timeFormat;
+
+    //the icon URL for each icon name, so they are only concatenated once.
+    private final ConcurrentHashMap<String, String> iconURLs = new ConcurrentHashMap<>();
+
+    //get the formatter of a unit for the device's current locale and time zone. Call this once per
+    //forecast rather than once per day, it is cheap but not free.
+    public static WeatherFormatter getInstance(TemperatureUnit unit) {
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        WeatherFormatter formatter = instances.get(unit);
+        if (formatter == null || !formatter.locale.equals(locale)
+                || !formatter.timeZone.hasSameRules(timeZone)) {
+            formatter = new WeatherFormatter(locale, timeZone, unit);
+            instances.put(unit, formatter);
+        }
+        return formatter;
+    }
+
+    //the unit most people in the locale's country use, degrees F in the US and C everywhere else.
+    public static TemperatureUnit defaultUnit(Locale locale) {
+        return "US".equals(locale.getCountry()) ? TemperatureUnit.FAHRENHEIT : TemperatureUnit.CELSIUS;
+    }
+
+    public WeatherFormatter(Locale locale, TimeZone timeZone, TemperatureUnit unit) {
+        this.locale = locale;
+        this.timeZone = timeZone;
+        this.unit = unit;
+
+        //"EEEE" formats a date as just the day name, like "Monday", "Tuesday", etc.
+        SimpleDateFormat dateFormatter = new SimpleDateFormat("EEEE", locale);
+        dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (int day = 0; day < 7; day++) {
+            dayNames[day] = dateFormatter.format(new Date(day * MILLIS_PER_DAY));
+        }
+
+        //the locale's short time format, like "3:00 PM" or "15:00".
+        timeFormat = DateFormat.getTimeInstance(DateFormat.SHORT, locale);
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (int hour = 0; hour < 24; hour++) {
+            hours[hour] = timeFormat.format(new Date(hour * MILLIS_PER_HOUR));
+        }
+        timeFormat.setTimeZone(timeZone);
+
+        //temperatures are rounded to whole numbers and followed by "degrees F" or "degrees C".
+        numberFormat = NumberFormat.getNumberInstance(locale);
+        numberFormat.setMaximumFractionDigits(0);
+        for (int t = MIN_CACHED_TEMP; t <= MAX_CACHED_TEMP; t++) {
+            temperatures[t - MIN_CACHED_TEMP] = numberFormat.format(t) + unit.symbol;
+        }
+
+        //the web service returns the humidity as a whole number so we divide by 100.00 for formatting.
+        percentFormat = NumberFormat.getPercentInstance(locale);
+        for (int h = 0; h <= 100; h++) {
+            humidities[h] = percentFormat.format(h / 100.00);
+        }
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    public TemperatureUnit getUnit() {
+        return unit;
+    }
+
+    //the name of the day containing timeStamp (in seconds) in the device's time zone.
+    public String dayOfWeek(long timeStamp) {
+        long millis = timeStamp * 1000;
+        return dayNames[floorMod(floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY), 7)];
+    }
+
+    //the time of day of timeStamp (in seconds) in the device's time zone, e.g. "3:00 PM". The
+    //entries of hourly and 3 hour forecasts are always at a full hour.
+    public String hour(long timeStamp) {
+        long millis = timeStamp * 1000;
+        long local = millis + timeZone.getOffset(millis);
+        long millisOfDay = local - floorDiv(local, MILLIS_PER_DAY) * MILLIS_PER_DAY;
+        if (millisOfDay % MILLIS_PER_HOUR == 0) {
+            return hours[(int) (millisOfDay / MILLIS_PER_HOUR)];
+        }
+        synchronized (timeFormat) {
+            return timeFormat.format(new Date(millis));
+        }
+    }
+
+    //a temperature in degrees Celsius, in the formatter's unit and rounded to a whole number, e.g.
+    //"72 degrees F" for 22.2.
+    public String temperature(double celsius) {
+        double temperature = unit.fromCelsius(celsius);
+        //NumberFormat rounds half to even, and so does Math.rint.
+        double rounded = Math.rint(temperature);
+        //NumberFormat formats small negative temperatures as "-0", we leave those to it.
+        if (rounded >= MIN_CACHED_TEMP && rounded <= MAX_CACHED_TEMP && !(rounded == 0 && temperature < 0)) {
+            return temperatures[(int) rounded - MIN_CACHED_TEMP];
+        }
+        synchronized (numberFormat) {
+            return numberFormat.format(temperature) + unit.symbol;
+        }
+    }
+
+    //the humidity, a whole percentage between 0 and 100, e.g. "80%".
+    public String humidity(double humidity) {
+        if (humidity >= 0 && humidity <= 100 && humidity == Math.rint(humidity)) {
+            return humidities[(int) humidity];
+        }
+        synchronized (percentFormat) {
+            return percentFormat.format(humidity / 100.00);
+        }
+    }
+
+    //the URL of the openweathermap.org image for an icon name.
+    public String iconURL(String iconName) {
+        String url = iconURLs.get(iconName);
+        if (url == null) {
+            url = "http://openweathermap.org/img/w/" + iconName + ".png";
+            iconURLs.putIfAbsent(iconName, url);
+        }
+        return url;
+    }
+
+    //Math.floorDiv and Math.floorMod need Java 8, timestamps before 1970 round towards negative infinity.
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    private static int floorMod(long x, int y) {
+        return (int) (x - floorDiv(x, y) * y);
+    }
+}
@@ -0,0 +1,122 @@
+package com.deitel.weatherviewer;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for building the city index from a sample of openweathermap.org's city list and searching it.
+ */
+public class CityIndexTest {
+
+    private static CityIndex index;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void buildIndex() throws Exception {
+        index = new CityIndex(ByteBuffer.wrap(build()));
+    }
+
+    @Test
+    public void prefix_findsAllCitiesStartingWithIt() {
+        List<CityIndex.City> cities = index.search("bos", 10);
+
+        assertEquals(3, cities.size());
+        for (CityIndex.City city : cities) {
+            assertTrue(city.name, city.name.startsWith("Boston"));
+        }
+        assertEquals("Boston, GA, US", cities.get(1).toString());
+    }
+
+    @Test
+    public void search_ignoresCaseAccentsAndPunctuation() {
+        List<CityIndex.City> cities = index.search("SAO  pa", 10);
+        assertEquals(1, cities.size());
+        assertEquals(3448439, cities.get(0).id);
+        assertEquals("S\u00E3o Paulo", cities.get(0).name);
+        assertEquals("BR", cities.get(0).country);
+
+        assertEquals(2867714, index.search("munc", 10).get(0).id);
+        assertEquals(2, index.search("san jose", 10).size());
+    }
+
+    @Test
+    public void search_returnsAtMostLimitCities() {
+        assertEquals(2, index.search("b", 2).size());
+        assertEquals(4, index.search("b", 10).size()); //3 Bostons and Berlin
+    }
+
+    @Test
+    public void citiesWithTheSameName_areOrderedByTheirDisplayedName() {
+        List<CityIndex.City> cities = index.search("london", 10);
+
+        assertEquals(2, cities.size());
+        assertEquals("CA", cities.get(0).country);
+        assertEquals("GB", cities.get(1).country);
+    }
+
+    @Test
+    public void noMatch_emptyPrefix_returnNothing() {
+        assertTrue(index.search("xyz", 10).isEmpty());
+        assertTrue(index.search("zzzzzz", 10).isEmpty()); //after the last key
+        assertTrue(index.search("", 10).isEmpty());
+        assertTrue(index.search(" ,", 10).isEmpty());
+    }
+
+    @Test
+    public void wholeName_longerThanAKey_doesNotMatch() {
+        assertEquals(1, index.search("tokyo", 10).size());
+        assertTrue(index.search("tokyo bay", 10).isEmpty());
+    }
+
+    @Test
+    public void open_mapsTheFile() throws Exception {
+        File file = folder.newFile("cities.idx");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(build());
+        }
+
+        CityIndex mapped = CityIndex.open(file);
+        assertEquals(index.size(), mapped.size());
+        assertEquals(5128581, mapped.search("new y", 1).get(0).id);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFile_isRejected() throws Exception {
+        new CityIndex(ByteBuffer.wrap("not a city index at all".getBytes("US-ASCII")));
+    }
+
+    @Test
+    public void normalize() {
+        assertEquals("sao paulo", CityIndex.normalize("  S\u00E3o-Paulo "));
+        assertEquals("st john s", CityIndex.normalize("St. John's"));
+        assertEquals("", CityIndex.normalize("--"));
+    }
+
+    //the index of city_list_sample.json, 23 cities.
+    private static byte[] build() throws IOException {
+        CityIndexBuilder builder = new CityIndexBuilder();
+        try (Reader reader = new InputStreamReader(
+                CityIndexTest.class.getClassLoader().getResourceAsStream("city_list_sample.json"), "UTF-8")) {
+            builder.addAll(reader);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.write(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,179 @@
+package com.deitel.weatherviewer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the forecast response cache.
+ */
+public class ForecastCacheTest {
+
+    private static final long TTL = 30 * 60 * 1000;
+    private static final String BODY = "{\"list\":[{\"dt\":1497542400,\"temp\":{\"min\":50,\"max\":61},"
+            + "\"humidity\":80,\"weather\":[{\"description\":\"light rain\",\"icon\":\"10d\"}]}]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void key_normalizesCityCaseAndWhitespace() {
+        assertEquals(ForecastCache.key("Boston, MA, US", "imperial"),
+                ForecastCache.key("  boston,ma ,   us ", "imperial"));
+        assertNotEquals(ForecastCache.key("Boston", "imperial"), ForecastCache.key("Boston", "metric"));
+    }
+
+    @Test
+    public void isFresh_expiresAfterTimeToLive() throws Exception {
+        ForecastCache cache = new ForecastCache(folder.getRoot(), TTL);
+        ForecastCache.Entry entry = entry(1000);
+
+        assertTrue(cache.isFresh(entry, 1000 + TTL - 1));
+        assertFalse(cache.isFresh(entry, 1000 + TTL));
+        assertTrue(cache.isFresh(entry.revalidatedAt(1000 + TTL), 1000 + TTL + 1));
+    }
+
+    @Test
+    public void get_readsEntryWrittenByAnotherInstance() throws Exception {
+        String key = ForecastCache.key("Boston", "imperial");
+        new ForecastCache(folder.getRoot(), TTL).put(key, entry(1234));
+
+        ForecastCache.Entry read = new ForecastCache(folder.getRoot(), TTL).get(key);
+
+        assertNotNull(read);
+        assertEquals(1234, read.fetchedAt);
+        assertEquals("\"abc\"", read.eTag);
+        assertNull(read.lastModified);
+        assertEquals(1, read.forecast.size());
+        assertEquals("light rain", read.forecast.getDescription(0));
+    }
+
+    @Test
+    public void getFromMemory_doesNotReadDisk() throws Exception {
+        String key = ForecastCache.key("Boston", "imperial");
+        new ForecastCache(folder.getRoot(), TTL).put(key, entry(1234));
+
+        ForecastCache cache = new ForecastCache(folder.getRoot(), TTL);
+        assertNull(cache.getFromMemory(key));
+        cache.get(key);
+        assertNotNull(cache.getFromMemory(key));
+    }
+
+    @Test
+    public void get_damagedFileIsAMiss() throws Exception {
+        String key = ForecastCache.key("Boston", "imperial");
+        ForecastCache cache = new ForecastCache(folder.getRoot(), TTL);
+        cache.put(key, entry(1234));
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        try (FileOutputStream out = new FileOutputStream(files[0])) {
+            out.write(new byte[]{0, 0, 0, 1, 2});
+        }
+
+        assertNull(new ForecastCache(folder.getRoot(), TTL).get(key));
+    }
+
+    @Test
+    public void put_writersOfTheSameKey_neverPublishAMixOfTheirEntries() throws Exception {
+        final String key = ForecastCache.key("Boston", "imperial");
+        final File directory = folder.getRoot();
+        final ForecastCache cache = new ForecastCache(directory, TTL);
+        //a short and a long response with different days, a mix of the two matches neither.
+        final ForecastCache.Entry small = entry(1000, 0);
+        final ForecastCache.Entry large = entry(2000, BODY.replace("light rain", "heavy snow"), 8 * 1024);
+        cache.put(key, small);
+
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Integer>> done = new ArrayList<>();
+            for (final ForecastCache.Entry entry : new ForecastCache.Entry[] {small, large}) {
+                done.add(threads.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        for (int i = 0; i < 500; i++) {
+                            cache.put(key, entry);
+                        }
+                        return 0;
+                    }
+                }));
+            }
+            //another instance reads the file from disk while they write it.
+            done.add(threads.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int mixed = 0;
+                    for (int i = 0; i < 500; i++) {
+                        ForecastCache.Entry read = new ForecastCache(directory, TTL).get(key);
+                        byte[] expected = read == null ? null : (read.fetchedAt == 1000 ? small : large).body;
+                        if (read == null || !Arrays.equals(expected, read.body)) {
+                            mixed++;
+                        }
+                    }
+                    return mixed;
+                }
+            }));
+            int mixed = 0;
+            for (Future<Integer> thread : done) {
+                mixed += thread.get();
+            }
+            assertEquals("entries read while they were written", 0, mixed);
+        }
+        finally {
+            threads.shutdown();
+        }
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void put_trimsTheLeastRecentlyUsedFiles() throws Exception {
+        ForecastCache cache = new ForecastCache(folder.getRoot(), TTL);
+        ForecastCache.Entry entry = entry(1234, 100 * 1024);
+        int count = (int) (ForecastCache.MAX_DISK_BYTES / entry.body.length) + 5;
+        for (int i = 0; i < count; i++) {
+            cache.put(ForecastCache.key("City" + i, "imperial"), entry);
+            //the files' times tell the oldest from the newest.
+            Thread.sleep(5);
+        }
+
+        long total = 0;
+        for (File file : folder.getRoot().listFiles()) {
+            total += file.length();
+        }
+        assertTrue("total " + total, total <= ForecastCache.MAX_DISK_BYTES);
+        ForecastCache reader = new ForecastCache(folder.getRoot(), TTL);
+        assertNull(reader.get(ForecastCache.key("City0", "imperial")));
+        assertNotNull(reader.get(ForecastCache.key("City" + (count - 1), "imperial")));
+    }
+
+    private static ForecastCache.Entry entry(long fetchedAt) throws Exception {
+        return entry(fetchedAt, 0);
+    }
+
+    private static ForecastCache.Entry entry(long fetchedAt, int padding) throws Exception {
+        return entry(fetchedAt, BODY, padding);
+    }
+
+    //an entry for a response, padded with padding spaces.
+    private static ForecastCache.Entry entry(long fetchedAt, String response, int padding) throws Exception {
+        StringBuilder json = new StringBuilder(response);
+        for (int i = 0; i < padding; i++) {
+            json.append(' ');
+        }
+        byte[] body = json.toString().getBytes("UTF-8");
+        Forecast forecast = ForecastParser.parse(new ByteArrayInputStream(body));
+        return new ForecastCache.Entry(forecast, body, "\"abc\"", null, fetchedAt);
+    }
+}
@@ -0,0 +1,302 @@
+package com.deitel.weatherviewer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares ForecastParser with the JSONObject path GetWeatherTask used before, on the recorded
+ * 16-day forecast and on a large forecast built from it.
+ */
+public class ForecastParserTest {
+
+    private static final int LARGE_REPEAT = 64; // 16 * 64 = 1024 forecast entries
+    private static final int ROUNDS = 200;
+
+    private static byte[] daily16;
+    private static byte[] large;
+
+    @BeforeClass
+    public static void loadFixtures() throws Exception {
+        daily16 = readFixture("forecast_daily_16.json");
+
+        JSONObject forecast = new JSONObject(new String(daily16, "UTF-8"));
+        JSONArray list = forecast.getJSONArray("list");
+        JSONArray repeated = new JSONArray();
+        for (int r = 0; r < LARGE_REPEAT; r++) {
+            for (int i = 0; i < list.length(); i++) {
+                repeated.put(list.get(i));
+            }
+        }
+        forecast.put("list", repeated);
+        forecast.put("cnt", repeated.length());
+        large = forecast.toString().getBytes("UTF-8");
+    }
+
+    @Test
+    public void parse_daily16_matchesJSONObjectPath() throws Exception {
+        assertSameForecast(jsonObjectPath(daily16), ForecastParser.parse(stream(daily16)));
+    }
+
+    @Test
+    public void parse_large_matchesJSONObjectPath() throws Exception {
+        Forecast parsed = ForecastParser.parse(stream(large));
+        assertEquals(16 * LARGE_REPEAT, parsed.size());
+        assertSameForecast(jsonObjectPath(large), parsed);
+    }
+
+    @Test
+    public void parse_skipsUnknownFieldsAndExtraConditions() throws Exception {
+        String json = "{\"city\":{\"name\":\"Boston\"},\"list\":[{\"dt\":1497542400,"
+                + "\"temp\":{\"min\":50.4,\"max\":61.6,\"morn\":51},\"humidity\":80,"
+                + "\"weather\":[{\"id\":500,\"description\":\"light rain\",\"icon\":\"10d\"},"
+                + "{\"id\":701,\"description\":\"mist\",\"icon\":\"50d\"}],\"speed\":3.2}]}";
+
+        Forecast parsed = ForecastParser.parse(stream(json.getBytes("UTF-8")));
+
+        assertEquals(1, parsed.size());
+        assertEquals(50.4f, parsed.getMinTemp(0), 0);
+        assertEquals("light rain", parsed.getDescription(0));
+        assertEquals("10d", parsed.getIconName(0));
+    }
+
+    @Test
+    public void parse_readsTheCity() throws Exception {
+        Forecast parsed = ForecastParser.parse(stream(daily16));
+        assertEquals(4930956, parsed.getCityId());
+        assertEquals("Boston", parsed.getCityName());
+    }
+
+    @Test
+    public void parseGroup_returnsTheCurrentWeatherOfEachCity() throws Exception {
+        String json = "{\"cnt\":2,\"list\":["
+                + "{\"coord\":{\"lon\":-71.06,\"lat\":42.36},\"sys\":{\"country\":\"US\"},"
+                + "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"clear sky\",\"icon\":\"01d\"}],"
+                + "\"main\":{\"temp\":70.5,\"pressure\":1012,\"humidity\":45,\"temp_min\":68,\"temp_max\":73.4},"
+                + "\"dt\":1497560000,\"id\":4930956,\"name\":\"Boston\"},"
+                + "{\"weather\":[{\"description\":\"mist\",\"icon\":\"50n\"}],"
+                + "\"main\":{\"temp_min\":50,\"temp_max\":52,\"humidity\":93},"
+                + "\"dt\":1497560100,\"id\":5391959,\"name\":\"San Francisco\"}]}";
+
+        java.util.Map<Long, Forecast> cities = ForecastParser.parseGroup(stream(json.getBytes("UTF-8")));
+
+        assertEquals(java.util.Arrays.asList(4930956L, 5391959L), new ArrayList<>(cities.keySet()));
+        Forecast boston = cities.get(4930956L);
+        assertEquals("Boston", boston.getCityName());
+        assertEquals(1, boston.size());
+        assertEquals(68f, boston.getMinTemp(0), 0);
+        assertEquals(73.4f, boston.getMaxTemp(0), 0);
+        assertEquals(45f, boston.getHumidity(0), 0);
+        assertEquals("clear sky", boston.getDescription(0));
+        assertEquals("50n", cities.get(5391959L).getIconName(0));
+    }
+
+    @Test
+    public void parse_hourly5Day_readsTheMainObject() throws Exception {
+        Forecast parsed = ForecastParser.parse(stream(readFixture("forecast_3hourly_5day.json")));
+
+        assertEquals(40, parsed.size());
+        assertEquals("Boston", parsed.getCityName());
+        assertEquals(1497549600L, parsed.getTimeStamp(0));
+        assertEquals(55.28f, parsed.getMinTemp(0), 0);
+        assertEquals(56.61f, parsed.getMaxTemp(0), 0);
+        assertEquals(88f, parsed.getHumidity(0), 0);
+        assertEquals("few clouds", parsed.getDescription(0));
+        assertEquals(1497970800L, parsed.getTimeStamp(39));
+        assertEquals(30f, parsed.getHumidity(39), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_batchListenerWithoutABatchSize_isRejected() throws Exception {
+        ForecastParser.parse(stream(daily16), 0, new ForecastParser.BatchListener() {
+            @Override
+            public void onBatch(Forecast batch) {
+            }
+        }, null);
+    }
+
+    @Test
+    public void parse_passesEachIconOnceBeforeItsBatch() throws Exception {
+        final List<String> events = new ArrayList<>();
+        Forecast parsed = ForecastParser.parse(stream(daily16), 4, new ForecastParser.BatchListener() {
+            @Override
+            public void onBatch(Forecast batch) {
+                events.add("batch of " + batch.size());
+            }
+        }, new ForecastParser.IconListener() {
+            @Override
+            public void onIcon(String iconName) {
+                events.add(iconName);
+            }
+        });
+
+        //every icon comes before the batch with the first day showing it.
+        List<String> expected = new ArrayList<>();
+        for (int day = 0; day < parsed.size(); day++) {
+            if (!expected.contains(parsed.getIconName(day))) {
+                expected.add(parsed.getIconName(day));
+            }
+            if (day % 4 == 3) {
+                expected.add("batch of 4");
+            }
+        }
+        assertEquals(expected, events);
+    }
+
+    @Test
+    public void parseGroup_batch200_readsEveryCity() throws Exception {
+        java.util.Map<Long, Forecast> cities =
+                ForecastParser.parseGroup(stream(readFixture("group_batch_200.json")));
+
+        assertEquals(200, cities.size());
+        Forecast last = cities.get(4007363L);
+        assertEquals("Mesa 10", last.getCityName());
+        assertEquals(80.64f, last.getMinTemp(0), 0);
+        assertEquals(82.63f, last.getMaxTemp(0), 0);
+        assertEquals("01n", last.getIconName(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_truncatedResponse_throwsIOException() throws Exception {
+        byte[] truncated = new byte[daily16.length / 2];
+        System.arraycopy(daily16, 0, truncated, 0, truncated.length);
+        ForecastParser.parse(stream(truncated));
+    }
+
+    @Test
+    public void compare_streamingAgainstJSONObjectPath() throws Exception {
+        for (byte[] payload : new byte[][]{daily16, large}) {
+            // warm up both paths before measuring
+            for (int i = 0; i < ROUNDS; i++) {
+                jsonObjectPath(payload);
+                ForecastParser.parse(stream(payload));
+            }
+
+            long treeBytes = allocatedBytes();
+            long treeStart = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                jsonObjectPath(payload);
+            }
+            long treeNanos = System.nanoTime() - treeStart;
+            treeBytes = allocatedBytes() - treeBytes;
+
+            long streamBytes = allocatedBytes();
+            long streamStart = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                ForecastParser.parse(stream(payload));
+            }
+            long streamNanos = System.nanoTime() - streamStart;
+            streamBytes = allocatedBytes() - streamBytes;
+
+            System.out.printf("%d bytes: JSONObject %d us / %d KB, ForecastParser %d us / %d KB per parse%n",
+                    payload.length,
+                    treeNanos / ROUNDS / 1000, treeBytes / ROUNDS / 1024,
+                    streamNanos / ROUNDS / 1000, streamBytes / ROUNDS / 1024);
+
+            if (treeBytes > 0) { // allocation counters are available on HotSpot only
+                assertTrue("streaming parse should allocate less than the JSONObject tree",
+                        streamBytes < treeBytes);
+            }
+        }
+    }
+
+    // The previous GetWeatherTask.doInBackground + MainActivity.convertJSONtoArrayList path,
+    // creating a row with the same values the old Weather object was created from.
+    private static List<Row> jsonObjectPath(byte[] payload) throws Exception {
+        StringBuilder stringBuilder = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream(payload)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                stringBuilder.append(line);
+            }
+        }
+        JSONObject forecast = new JSONObject(stringBuilder.toString());
+
+        List<Row> weatherList = new ArrayList<>();
+        JSONArray list = forecast.getJSONArray("list");
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject day = list.getJSONObject(i);
+            JSONObject temperatures = day.getJSONObject("temp");
+            JSONObject weather = day.getJSONArray("weather").getJSONObject(0);
+            weatherList.add(new Row(
+                    day.getLong("dt"),
+                    temperatures.getDouble("min"),
+                    temperatures.getDouble("max"),
+                    day.getDouble("humidity"),
+                    weather.getString("description"),
+                    weather.getString("icon")));
+        }
+        return weatherList;
+    }
+
+    private static void assertSameForecast(List<Row> expected, Forecast actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Row e = expected.get(i);
+            assertEquals(e.timeStamp, actual.getTimeStamp(i));
+            assertEquals((float) e.minTemp, actual.getMinTemp(i), 0);
+            assertEquals((float) e.maxTemp, actual.getMaxTemp(i), 0);
+            assertEquals((float) e.humidity, actual.getHumidity(i), 0);
+            assertEquals(e.description, actual.getDescription(i));
+            assertEquals(e.iconName, actual.getIconName(i));
+        }
+    }
+
+    // One day of the forecast as the old Weather constructor received it.
+    private static class Row {
+        final long timeStamp;
+        final double minTemp;
+        final double maxTemp;
+        final double humidity;
+        final String description;
+        final String iconName;
+
+        Row(long timeStamp, double minTemp, double maxTemp, double humidity, String description,
+            String iconName) {
+            this.timeStamp = timeStamp;
+            this.minTemp = minTemp;
+            this.maxTemp = maxTemp;
+            this.humidity = humidity;
+            this.description = description;
+            this.iconName = iconName;
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static InputStream stream(byte[] payload) {
+        return new ByteArrayInputStream(payload);
+    }
+
+    private static byte[] readFixture(String name) throws IOException {
+        try (InputStream in = ForecastParserTest.class.getClassLoader().getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
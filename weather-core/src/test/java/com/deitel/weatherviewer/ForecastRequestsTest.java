@@ -0,0 +1,350 @@
+package com.deitel.weatherviewer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs forecast requests against the local stand-in server, replacing them before they complete.
+ * The test's thread plays the GUI thread: it makes the requests and runs the delivered results.
+ */
+public class ForecastRequestsTest {
+
+    private static final long TTL = 30 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInServer server;
+    private ForecastUrls urls;
+    private ForecastCache cache;
+    private PriorityExecutor network;
+    private final BlockingQueue<Runnable> guiQueue = new LinkedBlockingQueue<>();
+    private ForecastRequests requests;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer();
+        urls = server.urls();
+        cache = new ForecastCache(folder.getRoot(), TTL);
+        //a single thread, so a request that isn't cancelled holds up the next one.
+        network = new PriorityExecutor("test-forecast", 1);
+        requests = new ForecastRequests(cache, new ForecastFetcher(cache, new HttpClient(2000, 5000, 2, 50)),
+                network, new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        guiQueue.add(runnable);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void newRequest_cancelsTheRunningOne() throws Exception {
+        server.addCity("Slowtown", 1, 3000);
+        server.addCity("Boston", 2, 100);
+        Recorder recorder = new Recorder();
+        requests.attach(recorder);
+
+        long start = System.nanoTime();
+        request("Slowtown");
+        Thread.sleep(200); //the request is waiting for the server's response
+        request("Boston");
+        runGuiUntilFinished();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals("[Boston]", recorder.cities.toString());
+        assertTrue(recorder.errors.isEmpty());
+        //Boston only got a thread because Slowtown's connection was closed.
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 2000);
+        assertNull(cache.getFromMemory(ForecastCache.key("Slowtown", urls.getUnits())));
+    }
+
+    @Test
+    public void queuedRequest_isRemovedWithoutARequest() throws Exception {
+        server.addCity("Boston", 2, 300);
+        server.addCity("Cambridge", 3, 100);
+        Recorder recorder = new Recorder();
+        requests.attach(recorder);
+
+        //the only thread is busy, so the first request waits in the queue when it is replaced.
+        network.execute(new Runnable() {
+            @Override
+            public void run() {
+                sleep(300);
+            }
+        }, PriorityExecutor.PRIORITY_VISIBLE);
+        request("Boston");
+        request("Cambridge");
+        runGuiUntilFinished();
+
+        assertEquals("[Cambridge]", recorder.cities.toString());
+        assertEquals(1, server.getForecastRequests());
+    }
+
+    @Test
+    public void resultOfAReplacedRequest_isDropped() throws Exception {
+        server.addCity("Boston", 2, 0);
+        server.addCity("Cambridge", 3, 0);
+        Recorder recorder = new Recorder();
+        requests.attach(recorder);
+
+        request("Boston");
+        //Boston's result is waiting for the GUI thread when the user asks for Cambridge.
+        List<Runnable> bostonResults = waitForQueuedResults(ForecastCache.key("Boston", urls.getUnits()));
+        request("Cambridge");
+        for (Runnable result : bostonResults) {
+            result.run();
+        }
+        runGuiUntilFinished();
+
+        assertEquals("[Cambridge]", recorder.cities.toString());
+    }
+
+    @Test
+    public void recreatedListener_getsTheRunningRequestsResult() throws Exception {
+        server.addCity("Boston", 2, 300);
+        Recorder first = new Recorder();
+        requests.attach(first);
+
+        request("Boston");
+        //the activity is destroyed while the request runs, its result arrives before the new one attaches.
+        requests.detach();
+        runGuiUntilFinished();
+
+        Recorder second = new Recorder();
+        assertTrue(requests.attach(second));
+        assertTrue(first.cities.isEmpty());
+        assertEquals("[Boston]", second.cities.toString());
+        assertEquals("Boston", second.forecast.getCityName());
+        assertEquals(1, server.getForecastRequests());
+    }
+
+    @Test
+    public void unknownCity_isReportedOnce() throws Exception {
+        Recorder first = new Recorder();
+        requests.attach(first);
+        requests.detach();
+
+        request("Atlantis");
+        guiQueue.poll(5, TimeUnit.SECONDS).run();
+
+        Recorder second = new Recorder();
+        requests.attach(second);
+        assertEquals(1, second.errors.size());
+        assertTrue(second.errors.get(0) instanceof ForecastFetcher.StatusException);
+
+        Recorder third = new Recorder();
+        requests.attach(third);
+        assertTrue(third.errors.isEmpty());
+    }
+
+    @Test
+    public void progressiveRequest_displaysTheFirstRowsWhileTheRestArrives() throws Exception {
+        server.addCity("Boston", 2, 0);
+        //168 hourly entries, 8 at a time, 20 ms apart.
+        server.setStreaming(8, 20);
+        Recorder recorder = new Recorder();
+        requests.attach(recorder);
+
+        ForecastUrls.Mode mode = ForecastUrls.Mode.HOURLY;
+        long start = System.nanoTime();
+        requests.request("Boston", ForecastCache.key("Boston", urls.getUnits(), mode),
+                urls.forCity("Boston", mode), 8);
+        runGuiUntilFinished();
+        long firstRowMillis = (recorder.firstPartialAt - start) / 1000000;
+        long progressiveMillis = (recorder.forecastAt - start) / 1000000;
+
+        //the same request in one piece, from another city so it isn't cached.
+        server.addCity("Cambridge", 3, 0);
+        start = System.nanoTime();
+        requests.request("Cambridge", ForecastCache.key("Cambridge", urls.getUnits(), mode),
+                urls.forCity("Cambridge", mode));
+        runGuiUntilFinished();
+        long allAtOnceMillis = (recorder.forecastAt - start) / 1000000;
+
+        System.out.printf("168 hourly entries: first rows after %d ms, all after %d ms; all at once after %d ms%n",
+                firstRowMillis, progressiveMillis, allAtOnceMillis);
+        //the partial forecast grew batch by batch and became the whole forecast.
+        assertTrue(recorder.partialSizes.toString(), recorder.partialSizes.size() > 10);
+        assertEquals(8, (int) recorder.partialSizes.get(0));
+        assertEquals("[Boston, Cambridge]", recorder.cities.toString());
+        assertEquals(168, recorder.forecast.size());
+        assertEquals(3600, recorder.forecast.getInterval());
+        assertEquals("Cambridge", recorder.forecast.getCityName());
+        assertTrue(firstRowMillis * 4 < allAtOnceMillis);
+    }
+
+    @Test
+    public void progressiveRequest_completesThePartialForecast() throws Exception {
+        server.addCity("Boston", 2, 0);
+        server.setStreaming(10, 0);
+        Recorder recorder = new Recorder();
+        requests.attach(recorder);
+
+        ForecastUrls.Mode mode = ForecastUrls.Mode.THREE_HOURLY;
+        requests.request("Boston", ForecastCache.key("Boston", urls.getUnits(), mode),
+                urls.forCity("Boston", mode), 10);
+        runGuiUntilFinished();
+
+        //"city" comes after "list", so the partial forecast only gets it at the end.
+        assertSame(recorder.partial, recorder.forecast);
+        assertEquals(2, recorder.forecast.getCityId());
+        assertEquals("Boston", recorder.forecast.getCityName());
+        assertEquals("[10, 20, 30, 40]", recorder.partialSizes.toString());
+        //the whole response was cached.
+        assertEquals(40, cache.getFromMemory(ForecastCache.key("Boston", urls.getUnits(), mode)).forecast.size());
+    }
+
+    @Test
+    public void progressiveRequest_deliversItsIconsBeforeTheForecast() throws Exception {
+        server.addCity("Boston", 2, 0);
+        server.setStreaming(10, 0);
+        Recorder recorder = new Recorder();
+        requests.attach(recorder);
+
+        ForecastUrls.Mode mode = ForecastUrls.Mode.THREE_HOURLY;
+        String key = ForecastCache.key("Boston", urls.getUnits(), mode);
+        requests.request("Boston", key, urls.forCity("Boston", mode), 10);
+        runGuiUntilFinished();
+
+        //every distinct icon of the 40 entries once, in the order of the entries, then the forecast.
+        List<String> expected = new ArrayList<>();
+        for (int day = 0; day < recorder.forecast.size(); day++) {
+            if (!expected.contains(recorder.forecast.getIconName(day))) {
+                expected.add(recorder.forecast.getIconName(day));
+            }
+        }
+        expected.add("forecast");
+        assertEquals(expected, recorder.events);
+
+        //a cached forecast has no icons to prefetch.
+        recorder.events.clear();
+        requests.request("Boston", key, urls.forCity("Boston", mode), 10);
+        runGuiUntilFinished();
+        assertEquals("[forecast]", recorder.events.toString());
+    }
+
+    @Test
+    public void dailyRequest_isNotStreamedAndHasNoIcons() throws Exception {
+        server.addCity("Boston", 2, 0);
+        Recorder recorder = new Recorder();
+        requests.attach(recorder);
+
+        request("Boston");
+        runGuiUntilFinished();
+
+        assertEquals("[forecast]", recorder.events.toString());
+        assertTrue(recorder.partialSizes.isEmpty());
+    }
+
+    @Test
+    public void dailyRequest_retriesAResponseThatBreaksOff() throws Exception {
+        server.addCity("Boston", 2, 0);
+        server.breakOff(1);
+        Recorder recorder = new Recorder();
+        requests.attach(recorder);
+
+        request("Boston");
+        runGuiUntilFinished();
+
+        assertTrue(recorder.errors.isEmpty());
+        assertEquals("[Boston]", recorder.cities.toString());
+        assertEquals(2, server.getForecastRequests());
+    }
+
+    private void request(String city) throws IOException {
+        requests.request(city, ForecastCache.key(city, urls.getUnits()), urls.forCity(city));
+    }
+
+    //wait until the forecast with cacheKey was fetched, and return everything its request handed
+    //to the GUI thread without running it.
+    private List<Runnable> waitForQueuedResults(String cacheKey) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (cache.getFromMemory(cacheKey) == null && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100); //the result is queued right after the forecast is cached
+        List<Runnable> results = new ArrayList<>();
+        guiQueue.drainTo(results);
+        return results;
+    }
+
+    //run what the requests deliver to the GUI thread until none is running.
+    private void runGuiUntilFinished() throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (requests.isRunning() && System.currentTimeMillis() < end) {
+            Runnable runnable = guiQueue.poll(100, TimeUnit.MILLISECONDS);
+            if (runnable != null) {
+                runnable.run();
+            }
+        }
+        assertFalse("still running", requests.isRunning());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Recorder implements ForecastRequests.Listener {
+        final List<String> cities = new ArrayList<>();
+        final List<IOException> errors = new ArrayList<>();
+        final List<Integer> partialSizes = new ArrayList<>();
+        //"icon" and "forecast" events in the order they were delivered.
+        final List<String> events = new ArrayList<>();
+        Forecast forecast;
+        Forecast partial;
+        long firstPartialAt;
+        long forecastAt;
+
+        @Override
+        public void onForecast(String city, Forecast forecast, boolean fresh) {
+            if (fresh) {
+                events.add("forecast");
+                cities.add(city);
+                this.forecast = forecast;
+                forecastAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void onPartialForecast(String city, Forecast partial) {
+            if (this.partial == null) {
+                firstPartialAt = System.nanoTime();
+            }
+            this.partial = partial;
+            partialSizes.add(partial.size());
+        }
+
+        @Override
+        public void onIcon(String city, String iconName) {
+            events.add(iconName);
+        }
+
+        @Override
+        public void onError(String city, IOException error) {
+            errors.add(error);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.deitel.weatherviewer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the snapshot of the last displayed forecasts.
+ */
+public class ForecastSnapshotTest {
+
+    private static final int ROUNDS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_returnsWhatWasSaved() throws Exception {
+        ForecastSnapshot snapshot = new ForecastSnapshot(new File(folder.getRoot(), "snapshot"));
+        Forecast forecast = fixture();
+        snapshot.save(new ForecastSnapshot.Item("Boston, MA, US", forecast, 1234));
+
+        List<ForecastSnapshot.Item> items = new ForecastSnapshot(new File(folder.getRoot(), "snapshot")).read();
+
+        assertEquals(1, items.size());
+        assertEquals("Boston, MA, US", items.get(0).query);
+        assertEquals(ForecastUrls.Mode.DAILY, items.get(0).mode);
+        assertEquals(1234, items.get(0).savedAt);
+        Forecast read = items.get(0).forecast;
+        assertEquals(4930956, read.getCityId());
+        assertEquals("Boston", read.getCityName());
+        assertEquals(forecast.size(), read.size());
+        for (int day = 0; day < forecast.size(); day++) {
+            assertEquals(forecast.getTimeStamp(day), read.getTimeStamp(day));
+            assertEquals(forecast.getMinTemp(day), read.getMinTemp(day), 0);
+            assertEquals(forecast.getMaxTemp(day), read.getMaxTemp(day), 0);
+            assertEquals(forecast.getHumidity(day), read.getHumidity(day), 0);
+            assertEquals(forecast.getCondition(day), read.getCondition(day));
+            assertNull(read.getLabel(day));
+        }
+    }
+
+    @Test
+    public void save_keepsOneForecastPerQueryAndMode() throws Exception {
+        ForecastSnapshot snapshot = new ForecastSnapshot(new File(folder.getRoot(), "snapshot"));
+        snapshot.save(new ForecastSnapshot.Item("Boston", ForecastUrls.Mode.DAILY, fixture(), 1));
+        snapshot.save(new ForecastSnapshot.Item("Boston", ForecastUrls.Mode.HOURLY, fixture(), 2));
+        snapshot.save(new ForecastSnapshot.Item("boston", ForecastUrls.Mode.DAILY, fixture(), 3));
+
+        List<ForecastSnapshot.Item> items = snapshot.read();
+
+        assertEquals(2, items.size());
+        assertEquals(ForecastUrls.Mode.DAILY, items.get(0).mode);
+        assertEquals(3, items.get(0).savedAt);
+        assertEquals(ForecastUrls.Mode.HOURLY, items.get(1).mode);
+        assertEquals(2, items.get(1).savedAt);
+    }
+
+    @Test
+    public void save_keepsTheMostRecentForecastsFirst() throws Exception {
+        ForecastSnapshot snapshot = new ForecastSnapshot(new File(folder.getRoot(), "snapshot"));
+        Forecast forecast = fixture();
+        for (int i = 0; i < ForecastSnapshot.MAX_ITEMS + 2; i++) {
+            snapshot.save(new ForecastSnapshot.Item("City" + i, forecast, i));
+        }
+        snapshot.save(new ForecastSnapshot.Item("city5", forecast, 100));
+
+        List<ForecastSnapshot.Item> items = snapshot.read();
+
+        assertEquals(ForecastSnapshot.MAX_ITEMS, items.size());
+        assertEquals("city5", items.get(0).query);
+        assertEquals("City9", items.get(1).query);
+        for (ForecastSnapshot.Item item : items.subList(1, items.size())) {
+            assertNotEquals("City5", item.query);
+        }
+    }
+
+    @Test
+    public void read_keepsTheOverviewLabels() throws Exception {
+        int rain = ConditionTable.codeFor("light rain", "10d");
+        Forecast overview = new Forecast(2);
+        overview.add(1497542400L, 50, 60, 80, rain, "Boston");
+        overview.add(1497542400L, 70, 90, 20, rain, "S\u00E3o Paulo");
+        ForecastSnapshot snapshot = new ForecastSnapshot(new File(folder.getRoot(), "snapshot"));
+        snapshot.save(new ForecastSnapshot.Item("Boston; Sao Paulo", overview, 1));
+
+        Forecast read = snapshot.read().get(0).forecast;
+
+        assertEquals("Boston", read.getLabel(0));
+        assertEquals("S\u00E3o Paulo", read.getLabel(1));
+        assertEquals("light rain", read.getDescription(1));
+    }
+
+    @Test
+    public void read_damagedOrMissingFileIsEmpty() throws Exception {
+        File file = new File(folder.getRoot(), "snapshot");
+        assertTrue(new ForecastSnapshot(file).read().isEmpty());
+
+        new ForecastSnapshot(file).save(new ForecastSnapshot.Item("Boston", fixture(), 1));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{0x57, 0x56, 0x53, 0x31, 0, 0, 0, 1, 0, 5});
+        }
+        assertTrue(new ForecastSnapshot(file).read().isEmpty());
+    }
+
+    @Test
+    public void read_isFasterThanParsingTheCachedResponses() throws Exception {
+        ForecastSnapshot snapshot = new ForecastSnapshot(new File(folder.getRoot(), "snapshot"));
+        for (int i = 0; i < ForecastSnapshot.MAX_ITEMS; i++) {
+            snapshot.save(new ForecastSnapshot.Item("City" + i, fixture(), i));
+        }
+        byte[] response = fixtureBytes();
+        for (int i = 0; i < ROUNDS; i++) { // warm up
+            snapshot.read();
+            parseAll(response);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            snapshot.read();
+        }
+        long snapshotMicros = (System.nanoTime() - start) / ROUNDS / 1000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            parseAll(response);
+        }
+        long parseMicros = (System.nanoTime() - start) / ROUNDS / 1000;
+
+        System.out.printf("%d forecasts: snapshot of %d bytes read in %d us, responses parsed in %d us%n",
+                ForecastSnapshot.MAX_ITEMS, new File(folder.getRoot(), "snapshot").length(),
+                snapshotMicros, parseMicros);
+        assertTrue(snapshotMicros < parseMicros);
+    }
+
+    // What a cold start would do without the snapshot, even with every response cached.
+    private static void parseAll(byte[] response) throws Exception {
+        for (int i = 0; i < ForecastSnapshot.MAX_ITEMS; i++) {
+            ForecastParser.parse(new ByteArrayInputStream(response));
+        }
+    }
+
+    private static byte[] fixtureBytes() throws Exception {
+        try (InputStream in = ForecastSnapshotTest.class.getClassLoader()
+                .getResourceAsStream("forecast_daily_16.json")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static Forecast fixture() throws Exception {
+        return ForecastParser.parse(new ByteArrayInputStream(fixtureBytes()));
+    }
+}
@@ -0,0 +1,63 @@
+package com.deitel.weatherviewer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the columnar forecast store and the shared condition table.
+ */
+public class ForecastTest {
+
+    @Test
+    public void add_growsPastInitialCapacity() {
+        Forecast forecast = new Forecast(1);
+        int rain = ConditionTable.codeFor("light rain", "10d");
+        for (int i = 0; i < 40; i++) {
+            forecast.add(1497542400L + i * 10800L, i, i + 10, 50 + i, rain);
+        }
+        forecast.trimToSize();
+
+        assertEquals(40, forecast.size());
+        assertEquals(1497542400L + 39 * 10800L, forecast.getTimeStamp(39));
+        assertEquals(39f, forecast.getMinTemp(39), 0);
+        assertEquals(49f, forecast.getMaxTemp(39), 0);
+        assertEquals(89f, forecast.getHumidity(39), 0);
+        assertEquals("light rain", forecast.getDescription(39));
+        assertEquals("10d", forecast.getIconName(39));
+    }
+
+    @Test
+    public void codeFor_sameConditionSharesACode() {
+        int clear = ConditionTable.codeFor("sky is clear", "01d");
+        int clearNight = ConditionTable.codeFor("sky is clear", "01n");
+
+        assertEquals(clear, ConditionTable.codeFor("sky is clear", new String("01d")));
+        assertNotEquals(clear, clearNight);
+        assertEquals("01n", ConditionTable.getIconName(clearNight));
+        assertEquals("sky is clear", ConditionTable.getDescription(clearNight));
+    }
+
+    @Test
+    public void isSameItem_matchesDaysByTimeStampAndCitiesByLabel() {
+        int rain = ConditionTable.codeFor("light rain", "10d");
+        Forecast yesterday = new Forecast(2);
+        yesterday.add(1497542400L, 50, 60, 80, rain);
+        yesterday.add(1497628800L, 51, 61, 81, rain);
+        Forecast today = new Forecast(2);
+        today.add(1497628800L, 51, 61, 81, rain);
+        today.add(1497715200L, 52, 62, 82, rain);
+
+        assertTrue(yesterday.isSameItem(1, today, 0));
+        assertTrue(yesterday.hasSameContents(1, today, 0));
+        assertFalse(yesterday.isSameItem(0, today, 0));
+
+        Forecast overview = new Forecast(1);
+        overview.add(1497542400L, 50, 60, 80, rain, "Boston");
+        Forecast refreshed = new Forecast(1);
+        refreshed.add(1497560000L, 52, 60, 80, rain, "Boston");
+        assertTrue(overview.isSameItem(0, refreshed, 0));
+        assertFalse(overview.hasSameContents(0, refreshed, 0));
+        assertFalse(overview.isSameItem(0, yesterday, 0));
+    }
+}
@@ -0,0 +1,276 @@
+package com.deitel.weatherviewer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the HttpClient against a local server whose answers each test scripts.
+ */
+public class HttpClientTest {
+
+    private static final String BODY;
+
+    static {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            body.append("{\"dt\":").append(1497542400 + i * 86400).append(",\"humidity\":80},");
+        }
+        BODY = body.toString();
+    }
+
+    private HttpServer server;
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    //the status of each coming response, 200 once the queue is empty. -1 answers too late, -2
+    //drops the connection right after the headers of an uncompressed 200, -3 halfway through its body.
+    private final ConcurrentLinkedQueue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private volatile String lastAcceptEncoding;
+    private volatile String lastIfNoneMatch;
+
+    private final HttpClient client = new HttpClient(1000, 300, 3, 10);
+
+    @Before
+    public void setUp() throws Exception {
+        Metrics.reset();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                lastAcceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+                Integer status = statuses.poll();
+                if (status == null) {
+                    status = 200;
+                }
+                if (status == -1) {
+                    try {
+                        Thread.sleep(1000); //longer than the read timeout
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    status = 200;
+                }
+                if (status == -2 || status == -3) {
+                    byte[] body = BODY.getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body, 0, status == -2 ? 0 : body.length / 2);
+                    out.flush();
+                    //the server closes the connection of a handler that fails.
+                    throw new IOException("Dropped the connection");
+                }
+
+                byte[] body = status == 200 ? gzip(BODY.getBytes("UTF-8")) : new byte[0];
+                if (status == 200) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                }
+                exchange.sendResponseHeaders(status, status == 304 ? -1 : body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        //a late answer must not hold up the next request.
+        server.setExecutor(threads);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void get_asksForGzipAndDecompresses() throws Exception {
+        HttpClient.Response response = client.get(url(), null);
+
+        assertEquals("gzip", lastAcceptEncoding);
+        assertEquals(200, response.status);
+        assertEquals(BODY, new String(response.body, "UTF-8"));
+        assertEquals("\"v1\"", response.getHeader("etag"));
+        assertTrue(response.wireBytes * 3 < response.body.length);
+        assertEquals(1, response.attempts);
+        System.out.printf("%d bytes received for %d bytes in %d ms%n",
+                response.wireBytes, response.body.length, response.elapsedMillis);
+    }
+
+    @Test
+    public void get_sendsRequestHeadersAndReturnsNotModified() throws Exception {
+        statuses.add(304);
+
+        HttpClient.Response response = client.get(url(), Collections.singletonMap("If-None-Match", "\"v1\""));
+
+        assertEquals("\"v1\"", lastIfNoneMatch);
+        assertEquals(304, response.status);
+        assertEquals(0, response.body.length);
+    }
+
+    @Test
+    public void get_reusesTheConnection() throws Exception {
+        //error responses are read to the end too, so they don't cost the connection.
+        int[] expected = {200, 404, 200, 404, 200};
+        for (int status : expected) {
+            statuses.add(status);
+        }
+        for (int status : expected) {
+            assertEquals(status, client.get(url(), null).status);
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void get_retriesServerErrors() throws Exception {
+        statuses.add(503);
+        statuses.add(500);
+
+        HttpClient.Response response = client.get(url(), null);
+
+        assertEquals(200, response.status);
+        assertEquals(3, response.attempts);
+        assertEquals(2, Metrics.counter("http.retries").get());
+    }
+
+    @Test
+    public void get_returnsTheLastServerErrorWhenOutOfAttempts() throws Exception {
+        statuses.add(503);
+        statuses.add(503);
+        statuses.add(503);
+
+        assertEquals(503, client.get(url(), null).status);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void get_doesNotRetryClientErrors() throws Exception {
+        statuses.add(404);
+
+        assertEquals(404, client.get(url(), null).status);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void get_retriesTimeouts() throws Exception {
+        statuses.add(-1);
+
+        HttpClient.Response response = client.get(url(), null);
+
+        assertEquals(200, response.status);
+        assertEquals(2, response.attempts);
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void get_throwsTheLastTimeoutWhenOutOfAttempts() throws Exception {
+        statuses.add(-1);
+        statuses.add(-1);
+        statuses.add(-1);
+
+        try {
+            client.get(url(), null);
+        }
+        finally {
+            assertEquals(1, Metrics.counter("http.failures").get());
+        }
+    }
+
+    @Test
+    public void bodyReader_bodyFailingBeforeItsFirstByte_isRetried() throws Exception {
+        statuses.add(-2);
+        final List<Integer> readerCalls = new ArrayList<>();
+
+        HttpClient.Response response = client.get(url(), null, null, new HttpClient.BodyReader() {
+            @Override
+            public void read(InputStream body) throws IOException {
+                readerCalls.add(body.read(new byte[100]));
+            }
+        });
+
+        assertEquals(200, response.status);
+        assertEquals(2, response.attempts);
+        assertEquals(BODY, new String(response.body, "UTF-8"));
+        //the first reader got nothing before the connection dropped.
+        assertEquals(2, readerCalls.size());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void bodyReader_bodyFailingAfterTheReaderGotPartOfIt_isNotRetried() throws Exception {
+        statuses.add(-3);
+
+        try {
+            client.get(url(), null, null, new HttpClient.BodyReader() {
+                @Override
+                public void read(InputStream body) throws IOException {
+                    byte[] buffer = new byte[100];
+                    while (body.read(buffer) != -1) {
+                        //keep reading
+                    }
+                }
+            });
+            fail("expected an IOException");
+        }
+        catch (IOException e) {
+            assertEquals(1, requests.get());
+        }
+    }
+
+    @Test
+    public void get_bodyFailingHalfway_isRetried() throws Exception {
+        statuses.add(-3);
+
+        HttpClient.Response response = client.get(url(), null);
+
+        assertEquals(2, response.attempts);
+        assertEquals(BODY, new String(response.body, "UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void get_connectionRefused_throwsIOException() throws Exception {
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        client.get(new URL("http://127.0.0.1:" + port + "/"), null);
+    }
+
+    private URL url() throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/forecast");
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,96 @@
+package com.deitel.weatherviewer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for working out the decode size and config of the weather-condition images.
+ */
+public class IconDecodePlanTest {
+
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_RGBA = 6;
+
+    @Test
+    public void smallerImage_isDecodedAsIs() throws Exception {
+        IconDecodePlan plan = new IconDecodePlan(png(COLOR_RGBA, false), 50, 50, 150);
+
+        assertEquals(1, plan.sampleSize);
+        assertEquals(0, plan.density);
+        assertEquals(50, plan.width);
+        assertEquals(50, plan.height);
+    }
+
+    @Test
+    public void largerImage_isSampledThenScaledToTheTargetSize() throws Exception {
+        //400 / 2 = 200 is still larger than 75, 400 / 4 = 100 too, 400 / 8 = 50 would be smaller.
+        IconDecodePlan plan = new IconDecodePlan(png(COLOR_RGBA, false), 400, 200, 75);
+
+        assertEquals(4, plan.sampleSize);
+        assertEquals(100, plan.density);
+        assertEquals(75, plan.targetDensity);
+        assertEquals(75, plan.width);
+        assertEquals(38, plan.height); //50 * 0.75 rounded
+    }
+
+    @Test
+    public void imageOfExactlyThePowerOf2_isOnlySampled() throws Exception {
+        IconDecodePlan plan = new IconDecodePlan(png(COLOR_RGBA, false), 200, 200, 100);
+
+        assertEquals(2, plan.sampleSize);
+        assertEquals(0, plan.density);
+        assertEquals(100, plan.width);
+    }
+
+    @Test
+    public void opaque_onlyForPngsWithoutAlphaOrTransparentColor() throws Exception {
+        assertTrue(IconDecodePlan.isOpaquePng(png(COLOR_RGB, false)));
+        assertFalse(IconDecodePlan.isOpaquePng(png(COLOR_RGB, true)));
+        assertFalse(IconDecodePlan.isOpaquePng(png(COLOR_RGBA, false)));
+        assertFalse(IconDecodePlan.isOpaquePng("GIF89a, not a PNG at all....................".getBytes("US-ASCII")));
+    }
+
+    @Test
+    public void truncatedPng_isNotOpaque() throws Exception {
+        byte[] png = png(COLOR_RGB, false);
+        byte[] truncated = new byte[40];
+        System.arraycopy(png, 0, truncated, 0, truncated.length);
+        assertFalse(IconDecodePlan.isOpaquePng(truncated));
+    }
+
+    //a 1x1 PNG with the given color type, with or without a tRNS chunk. The CRCs aren't checked.
+    private static byte[] png(int colorType, boolean transparentColor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+
+        out.writeInt(13);
+        out.writeBytes("IHDR");
+        out.writeInt(1); //width
+        out.writeInt(1); //height
+        out.writeByte(8); //bit depth
+        out.writeByte(colorType);
+        out.writeByte(0); //compression
+        out.writeByte(0); //filter
+        out.writeByte(0); //interlace
+        out.writeInt(0); //CRC
+
+        if (transparentColor) {
+            out.writeInt(6);
+            out.writeBytes("tRNS");
+            out.write(new byte[6]);
+            out.writeInt(0);
+        }
+
+        out.writeInt(4);
+        out.writeBytes("IDAT");
+        out.write(new byte[4]);
+        out.writeInt(0);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,123 @@
+package com.deitel.weatherviewer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the metrics registry. The registry is shared by the whole process, so each test uses
+ * its own names.
+ */
+public class MetricsTest {
+
+    @After
+    public void removeTracer() {
+        Metrics.setTracer(null);
+    }
+
+    @Test
+    public void histogram_sameNameReturnsSameHistogram() {
+        assertSame(Metrics.histogram("test.same", "us"), Metrics.histogram("test.same", "us"));
+        assertSame(Metrics.counter("test.same"), Metrics.counter("test.same"));
+    }
+
+    @Test
+    public void histogram_percentilesAreWithinTwiceTheRealValue() {
+        Metrics.Histogram histogram = Metrics.histogram("test.percentiles", "ms");
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        assertBetween(500, 1000, histogram.getPercentile(0.5));
+        assertBetween(950, 1000, histogram.getPercentile(0.95));
+        assertBetween(990, 1000, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void histogram_recordsZeroAndNegativeValuesInTheFirstBucket() {
+        Metrics.Histogram histogram = Metrics.histogram("test.zero", "us");
+        histogram.record(0);
+        histogram.record(-5);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void histogram_recordsFromManyThreads() throws Exception {
+        final Metrics.Histogram histogram = Metrics.histogram("test.threads", "us");
+        final Metrics.Counter counter = Metrics.counter("test.threads");
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i % 100);
+                        counter.increment();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(40000, counter.get());
+        assertEquals(99, histogram.getMax());
+    }
+
+    @Test
+    public void beginSection_callsTheTracer() {
+        final List<String> calls = new ArrayList<>();
+        Metrics.setTracer(new Metrics.Tracer() {
+            @Override
+            public void beginSection(String name) {
+                calls.add("begin " + name);
+            }
+
+            @Override
+            public void endSection() {
+                calls.add("end");
+            }
+        });
+
+        long start = Metrics.beginSection("parse");
+        Metrics.histogram("test.section", "us").recordSince(start);
+        Metrics.endSection();
+
+        assertEquals(Arrays.asList("begin parse", "end"), calls);
+        assertEquals(1, Metrics.histogram("test.section", "us").getCount());
+    }
+
+    @Test
+    public void dump_writesOneLinePerMetric() {
+        Metrics.counter("test.dump.bytes").add(1234);
+        Metrics.histogram("test.dump.time", "ms").record(20);
+
+        StringWriter out = new StringWriter();
+        Metrics.dump(new PrintWriter(out));
+
+        assertTrue(out.toString(), out.toString().contains("test.dump.bytes: 1234"));
+        assertTrue(out.toString(), out.toString().contains(
+                "test.dump.time: 1 x, avg 20 ms, p50 20, p95 20, p99 20, max 20 ms"));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
@@ -0,0 +1,242 @@
+package com.deitel.weatherviewer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the multi-city fetch against a local stand-in server that answers each city after its own
+ * latency.
+ */
+public class MultiCityFetcherTest {
+
+    private static final long TTL = 30 * 60 * 1000;
+    private static final int MAX_PARALLEL = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInServer server;
+    private ForecastCache cache;
+    private ForecastFetcher fetcher;
+    private ExecutorService network;
+    private ExecutorService callbacks;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer();
+        cache = new ForecastCache(folder.getRoot(), TTL);
+        fetcher = new ForecastFetcher(cache, new HttpClient(2000, 5000, 2, 50));
+        network = Executors.newFixedThreadPool(4);
+        //like the GUI thread, the listener is only ever called from one thread.
+        callbacks = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        network.shutdownNow();
+        callbacks.shutdownNow();
+    }
+
+    @Test
+    public void unknownCities_areFetchedInParallelAndDeliveredAsTheyComplete() throws Exception {
+        server.addCity("Slowtown", 1, 1200);
+        List<String> cities = new ArrayList<>(Collections.singletonList("Slowtown"));
+        for (int i = 2; i <= 9; i++) {
+            server.addCity("City" + i, i, 150);
+            cities.add("City" + i);
+        }
+
+        long start = System.nanoTime();
+        Recorder recorder = fetch(cities);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(9, recorder.loaded.size());
+        assertTrue(recorder.failed.isEmpty());
+        //the slow city doesn't hold back the others.
+        assertEquals("Slowtown", recorder.loaded.get(8));
+        assertTrue("first city after " + recorder.firstMillis + " ms", recorder.firstMillis < 1000);
+        //one after the other this would take 1200 + 8 * 150 ms.
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 2000);
+        assertTrue(server.getMaxConcurrentRequests() <= MAX_PARALLEL);
+        assertEquals(9, server.getForecastRequests());
+        //keep-alive connections are reused by the following requests.
+        assertTrue("connections: " + server.getConnections(), server.getConnections() < 9);
+        System.out.printf("9 cities: first after %d ms, all after %d ms, %d connections%n",
+                recorder.firstMillis, elapsedMillis, server.getConnections());
+    }
+
+    @Test
+    public void staleCitiesWithKnownIds_areRequestedAsAGroup() throws Exception {
+        List<String> cities = Arrays.asList("Boston", "Denver", "Austin");
+        for (int i = 0; i < cities.size(); i++) {
+            server.addCity(cities.get(i), 100 + i, 50);
+        }
+        server.setGroupLatency(100);
+        fetch(cities);
+        expireCache(cities);
+
+        Recorder recorder = fetch(cities);
+
+        assertEquals(3, recorder.loaded.size());
+        assertEquals(1, server.getGroupRequests());
+        assertEquals(3, server.getForecastRequests()); //only the first fetch
+        assertEquals("few clouds", recorder.forecasts.get(0).getDescription(0));
+    }
+
+    @Test
+    public void groupRows_areDeliveredWithoutRequestsWhileFresh() throws Exception {
+        List<String> cities = Arrays.asList("Boston", "Denver");
+        server.addCity("Boston", 100, 50);
+        server.addCity("Denver", 101, 50);
+        fetch(cities);
+        expireCache(cities);
+        fetch(cities);
+
+        Recorder recorder = fetch(cities);
+
+        assertEquals(2, recorder.loaded.size());
+        assertEquals(1, server.getGroupRequests());
+        assertEquals(2, server.getForecastRequests());
+        assertEquals("few clouds", recorder.forecasts.get(0).getDescription(0));
+
+        //once they are as old as a stale forecast they are requested again.
+        for (String city : cities) {
+            String key = ForecastCache.currentKey(city, "imperial");
+            cache.putInMemory(key, cache.getFromMemory(key).revalidatedAt(0));
+        }
+        fetch(cities);
+        assertEquals(2, server.getGroupRequests());
+    }
+
+    @Test
+    public void cancelledBatch_stopsItsRequestsAndDeliversNothing() throws Exception {
+        List<String> cities = new ArrayList<>();
+        for (int i = 1; i <= 9; i++) {
+            server.addCity("City" + i, i, 500);
+            cities.add("City" + i);
+        }
+        MultiCityFetcher multiCityFetcher = new MultiCityFetcher(server.urls(), cache, fetcher,
+                network, callbacks, MAX_PARALLEL);
+        Recorder recorder = new Recorder();
+        final MultiCityFetcher.Batch batch = multiCityFetcher.fetch(cities, recorder);
+        Thread.sleep(200);
+
+        //like the GUI thread leaving the overview.
+        callbacks.submit(new Runnable() {
+            @Override
+            public void run() {
+                batch.cancel();
+            }
+        }).get();
+
+        assertFalse(recorder.finished.await(1500, TimeUnit.MILLISECONDS));
+        assertTrue(recorder.loaded.isEmpty());
+        assertTrue(recorder.failed.isEmpty());
+        //only the requests that were running when it was cancelled reached the server.
+        assertTrue("requests: " + server.getForecastRequests(), server.getForecastRequests() <= MAX_PARALLEL);
+    }
+
+    @Test
+    public void freshCities_areDeliveredWithoutRequests() throws Exception {
+        server.addCity("Boston", 4930956, 50);
+        fetch(Collections.singletonList("Boston"));
+
+        Recorder recorder = fetch(Arrays.asList("Boston", "  boston "));
+
+        assertEquals(Collections.singletonList("Boston"), recorder.loaded);
+        assertEquals(1, server.getForecastRequests());
+        assertEquals(0, server.getGroupRequests());
+    }
+
+    @Test
+    public void citiesMissingFromTheGroup_fallBackToForecastRequests() throws Exception {
+        server.addCity("Boston", 100, 50);
+        server.addCity("Denver", 101, 50);
+        fetch(Arrays.asList("Boston", "Denver"));
+        expireCache(Arrays.asList("Boston", "Denver"));
+        //the group doesn't know Denver by its id any more, but the forecast request still works.
+        server.addCity("Denver", 999, 50);
+
+        Recorder recorder = fetch(Arrays.asList("Boston", "Denver"));
+
+        assertEquals(2, recorder.loaded.size());
+        assertEquals(1, server.getGroupRequests());
+        assertEquals(3, server.getForecastRequests());
+    }
+
+    @Test
+    public void unknownCity_failsWithoutHoldingBackTheOthers() throws Exception {
+        server.addCity("Boston", 100, 50);
+
+        Recorder recorder = fetch(Arrays.asList("Atlantis", "Boston"));
+
+        assertEquals(Collections.singletonList("Boston"), recorder.loaded);
+        assertEquals(Collections.singletonList("Atlantis"), recorder.failed);
+    }
+
+    @Test
+    public void noCities_finishesRightAway() throws Exception {
+        assertTrue(fetch(Collections.<String>emptyList()).loaded.isEmpty());
+    }
+
+    private Recorder fetch(List<String> cities) throws InterruptedException {
+        MultiCityFetcher multiCityFetcher = new MultiCityFetcher(server.urls(), cache, fetcher,
+                network, callbacks, MAX_PARALLEL);
+        Recorder recorder = new Recorder();
+        multiCityFetcher.fetch(cities, recorder);
+        assertTrue(recorder.finished.await(10, TimeUnit.SECONDS));
+        return recorder;
+    }
+
+    //make the cached entries stale, so the next fetch has to ask the server.
+    private void expireCache(List<String> cities) {
+        for (String city : cities) {
+            String key = ForecastCache.key(city, "imperial");
+            cache.put(key, cache.get(key).revalidatedAt(0));
+        }
+    }
+
+    private static class Recorder implements MultiCityFetcher.Listener {
+        final long start = System.nanoTime();
+        final List<String> loaded = new ArrayList<>();
+        final List<Forecast> forecasts = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        long firstMillis = -1;
+
+        @Override
+        public void onCityLoaded(String city, Forecast forecast) {
+            if (firstMillis < 0) {
+                firstMillis = (System.nanoTime() - start) / 1000000;
+            }
+            loaded.add(city);
+            forecasts.add(forecast);
+        }
+
+        @Override
+        public void onCityFailed(String city, IOException error) {
+            failed.add(city);
+        }
+
+        @Override
+        public void onFinished() {
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.deitel.weatherviewer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the prioritized thread pool.
+ */
+public class PriorityExecutorTest {
+
+    @Test
+    public void queuedTasks_runByPriorityThenInSubmissionOrder() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor("test", 1);
+        CountDownLatch release = blockThread(executor);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(4);
+        executor.execute(record(order, "prefetch", done), PriorityExecutor.PRIORITY_PREFETCH);
+        executor.execute(record(order, "visible-1", done), PriorityExecutor.PRIORITY_VISIBLE);
+        executor.execute(record(order, "normal", done));
+        executor.execute(record(order, "visible-2", done), PriorityExecutor.PRIORITY_VISIBLE);
+        assertEquals(4, executor.getQueueDepth());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("visible-1", "visible-2", "normal", "prefetch"), order);
+    }
+
+    @Test
+    public void raisePriority_movesQueuedTaskAhead() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor("test", 1);
+        CountDownLatch release = blockThread(executor);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute(record(order, "normal", done));
+        PriorityExecutor.Task prefetch =
+                executor.execute(record(order, "prefetch", done), PriorityExecutor.PRIORITY_PREFETCH);
+
+        assertTrue(executor.raisePriority(prefetch, PriorityExecutor.PRIORITY_VISIBLE));
+        assertFalse(executor.raisePriority(prefetch, PriorityExecutor.PRIORITY_NORMAL));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("prefetch", "normal"), order);
+    }
+
+    @Test
+    public void remove_dropsQueuedTask() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor("test", 1);
+        CountDownLatch release = blockThread(executor);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(1);
+        PriorityExecutor.Task removed = executor.execute(record(order, "removed", done),
+                PriorityExecutor.PRIORITY_NORMAL);
+        executor.execute(record(order, "kept", done));
+
+        assertTrue(executor.remove(removed));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("kept"), order);
+    }
+
+    @Test
+    public void waitTime_isRecorded() throws Exception {
+        PriorityExecutor executor = new PriorityExecutor("test", 1);
+        CountDownLatch release = blockThread(executor);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(record(new ArrayList<String>(), "waiting", done));
+
+        Thread.sleep(50);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, executor.getStartedCount());
+        assertTrue(executor.getMaxWaitMillis() >= 40);
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    // Occupies the executor's only thread until the returned latch is released.
+    private static CountDownLatch blockThread(PriorityExecutor executor) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private static Runnable record(final List<String> order, final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+}
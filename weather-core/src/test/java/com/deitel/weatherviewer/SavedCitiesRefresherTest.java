@@ -0,0 +1,217 @@
+package com.deitel.weatherviewer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Refreshes the saved cities against the local stand-in server.
+ */
+public class SavedCitiesRefresherTest {
+
+    private static final long TTL = 30 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInServer server;
+    private ForecastUrls urls;
+    private ForecastCache cache;
+    private ForecastSnapshot snapshot;
+    private SavedCitiesRefresher refresher;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer();
+        server.addCity("Boston", 1, 0);
+        server.addCity("Cambridge", 2, 0);
+        server.addCity("Somerville", 3, 0);
+        urls = server.urls();
+        cache = new ForecastCache(new File(folder.getRoot(), "forecasts"), TTL);
+        snapshot = new ForecastSnapshot(new File(folder.getRoot(), "snapshot"));
+        refresher = new SavedCitiesRefresher(snapshot, cache,
+                new ForecastFetcher(cache, new HttpClient(2000, 5000, 1, 50)), urls);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void dueCities_areRefreshedInOneRun() throws Exception {
+        save("Cambridge;Somerville;Boston");
+        save("Boston");
+
+        SavedCitiesRefresher.Result result = refresher.refresh(0);
+
+        //Boston is requested once, though it is saved twice.
+        assertEquals(3, result.refreshed);
+        assertEquals(0, result.failed);
+        assertEquals(3, server.getForecastRequests());
+        for (String city : new String[] {"Boston", "Cambridge", "Somerville"}) {
+            assertNotNull(city, cache.get(ForecastCache.key(city, urls.getUnits())));
+        }
+
+        //the snapshot's single-city forecast was replaced, the app displays it at the next launch.
+        List<ForecastSnapshot.Item> items = snapshot.read();
+        assertEquals("Boston", items.get(0).query);
+        assertEquals(1, items.get(0).forecast.getCityId());
+        assertEquals(2, items.get(0).forecast.size());
+        assertEquals("Cambridge;Somerville;Boston", items.get(1).query);
+    }
+
+    @Test
+    public void freshCities_areNotDue() throws Exception {
+        save("Boston");
+        save("Cambridge");
+        refresher.refresh(0);
+
+        SavedCitiesRefresher.Result result = refresher.refresh(0);
+        assertEquals(0, result.refreshed);
+        assertEquals(2, result.notDue);
+        assertEquals(2, server.getForecastRequests());
+
+        //a city that won't be fresh anymore within the lookahead is refreshed now.
+        result = refresher.refresh(TTL);
+        assertEquals(2, result.refreshed);
+        assertEquals(4, server.getForecastRequests());
+    }
+
+    @Test
+    public void failures_onlyRetryWhenNothingWasRefreshed() throws Exception {
+        save("Atlantis");
+        SavedCitiesRefresher.Result result = refresher.refresh(0);
+        assertEquals(1, result.failed);
+        assertTrue(result.shouldRetry());
+
+        save("Boston");
+        result = refresher.refresh(0);
+        assertEquals(1, result.refreshed);
+        assertEquals(1, result.failed);
+        assertFalse(result.shouldRetry());
+    }
+
+    @Test
+    public void cancelledRefresh_requestsNothing() throws Exception {
+        save("Boston");
+        refresher.cancel();
+
+        SavedCitiesRefresher.Result result = refresher.refresh(0);
+        assertEquals(0, result.refreshed);
+        assertEquals(0, server.getForecastRequests());
+    }
+
+    @Test
+    public void savedMode_isRefreshedInThatMode() throws Exception {
+        save("Cambridge");
+        save("Boston", ForecastUrls.Mode.HOURLY);
+
+        SavedCitiesRefresher.Result result = refresher.refresh(0);
+
+        assertEquals(2, result.refreshed);
+        ForecastCache.Entry hourly = cache.get(ForecastCache.key("Boston", urls.getUnits(), ForecastUrls.Mode.HOURLY));
+        assertEquals(168, hourly.forecast.size());
+        assertEquals(3600, hourly.forecast.getInterval());
+        assertNull(cache.get(ForecastCache.key("Boston", urls.getUnits())));
+
+        //the saved hourly forecast was replaced by the hourly one, not by a daily forecast.
+        List<ForecastSnapshot.Item> items = snapshot.read();
+        assertEquals("Boston", items.get(0).query);
+        assertEquals(ForecastUrls.Mode.HOURLY, items.get(0).mode);
+        assertEquals(3600, items.get(0).forecast.getInterval());
+        assertEquals(168, items.get(0).forecast.size());
+        assertEquals(ForecastUrls.Mode.DAILY, items.get(1).mode);
+        assertEquals(2, items.get(1).forecast.size());
+    }
+
+    @Test
+    public void refresh_whileTheAppRequestsTheSameCity_leavesAWholeEntry() throws Exception {
+        save("Boston");
+        final String key = ForecastCache.key("Boston", urls.getUnits());
+        //the app's request, on its own thread and with the listener called right there.
+        PriorityExecutor network = new PriorityExecutor("test-forecast", 1);
+        ForecastRequests requests = new ForecastRequests(cache,
+                new ForecastFetcher(cache, new HttpClient(2000, 5000, 1, 50)), network, new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        runnable.run();
+                    }
+                });
+        final Semaphore finished = new Semaphore(0);
+        requests.attach(new ForecastRequests.Listener() {
+            @Override
+            public void onForecast(String city, Forecast forecast, boolean fresh) {
+                if (fresh) {
+                    finished.release();
+                }
+            }
+
+            @Override
+            public void onPartialForecast(String city, Forecast partial) {
+            }
+
+            @Override
+            public void onIcon(String city, String iconName) {
+            }
+
+            @Override
+            public void onError(String city, IOException error) {
+                finished.release();
+            }
+        });
+
+        //the job refreshes Boston over and over while the app requests it over and over, both
+        //write the same cache entry.
+        ExecutorService job = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> refreshed = job.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int refreshed = 0;
+                    for (int i = 0; i < 50; i++) {
+                        refreshed += refresher.refresh(TTL).refreshed;
+                    }
+                    return refreshed;
+                }
+            });
+            for (int i = 0; i < 50; i++) {
+                requests.request("Boston", key, urls.forCity("Boston"));
+                assertTrue(finished.tryAcquire(5, TimeUnit.SECONDS));
+            }
+            assertEquals(50, (int) refreshed.get());
+        }
+        finally {
+            job.shutdown();
+        }
+
+        ForecastCache.Entry read = new ForecastCache(new File(folder.getRoot(), "forecasts"), TTL).get(key);
+        assertNotNull(read);
+        assertEquals(2, read.forecast.size());
+        assertEquals(1, new File(folder.getRoot(), "forecasts").listFiles().length);
+    }
+
+    //save a query in the snapshot the way the app does, with an empty forecast.
+    private void save(String query) {
+        save(query, ForecastUrls.Mode.DAILY);
+    }
+
+    private void save(String query, ForecastUrls.Mode mode) {
+        snapshot.save(new ForecastSnapshot.Item(query, mode, new Forecast(0), 0));
+    }
+}
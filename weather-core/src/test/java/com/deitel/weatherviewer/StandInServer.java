@@ -0,0 +1,253 @@
+package com.deitel.weatherviewer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the openweathermap.org daily forecast and group endpoints. Each city answers
+ * after its own latency, and the server records how many requests it got, how many were running
+ * at once and how many connections they used. The 3 hour and hourly forecasts have as many entries
+ * as requested and are sent in chunks, see setStreaming.
+ */
+public class StandInServer {
+
+    private static class City {
+        final long id;
+        final String name;
+        final long latencyMillis;
+
+        City(long id, String name, long latencyMillis) {
+            this.id = id;
+            this.name = name;
+            this.latencyMillis = latencyMillis;
+        }
+    }
+
+    private final Map<String, City> citiesByName = new ConcurrentHashMap<>();
+    private final Map<Long, City> citiesById = new ConcurrentHashMap<>();
+    private volatile long groupLatencyMillis;
+    private volatile int entriesPerChunk = Integer.MAX_VALUE;
+    private volatile long chunkDelayMillis;
+    //the number of coming daily forecasts whose connection drops halfway through the body.
+    private final AtomicInteger breakOffs = new AtomicInteger();
+
+    private final AtomicInteger forecastRequests = new AtomicInteger();
+    private final AtomicInteger groupRequests = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    private final HttpServer server;
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+
+    public StandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/data/2.5/forecast/daily", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                forecastRequests.incrementAndGet();
+                City city = citiesByName.get(normalize(parameter(exchange, "q")));
+                respond(exchange, city == null ? 0 : city.latencyMillis,
+                        city == null ? 404 : 200, city == null ? "{\"cod\":\"404\"}" : forecastJson(city));
+            }
+        });
+        HttpHandler streaming = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                forecastRequests.incrementAndGet();
+                City city = citiesByName.get(normalize(parameter(exchange, "q")));
+                if (city == null) {
+                    respond(exchange, 0, 404, "{\"cod\":\"404\"}");
+                }
+                else {
+                    stream(exchange, city, Integer.parseInt(parameter(exchange, "cnt")));
+                }
+            }
+        };
+        server.createContext("/data/2.5/forecast", streaming);
+        server.createContext("/data/2.5/forecast/hourly", streaming);
+        server.createContext("/data/2.5/group", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                groupRequests.incrementAndGet();
+                StringBuilder list = new StringBuilder();
+                int count = 0;
+                for (String id : parameter(exchange, "id").split(",")) {
+                    City city = citiesById.get(Long.parseLong(id));
+                    if (city != null) {
+                        list.append(count++ > 0 ? "," : "").append(currentJson(city));
+                    }
+                }
+                respond(exchange, groupLatencyMillis, 200, "{\"cnt\":" + count + ",\"list\":[" + list + "]}");
+            }
+        });
+        server.setExecutor(threads);
+        server.start();
+    }
+
+    //add a city, or replace the city with the same name.
+    public void addCity(String name, long id, long latencyMillis) {
+        City city = new City(id, name, latencyMillis);
+        City previous = citiesByName.put(normalize(name), city);
+        if (previous != null) {
+            citiesById.remove(previous.id);
+        }
+        citiesById.put(id, city);
+    }
+
+    public void setGroupLatency(long millis) {
+        groupLatencyMillis = millis;
+    }
+
+    //send the 3 hour and hourly forecasts entriesPerChunk entries at a time, waiting delayMillis
+    //before each chunk, like a slow connection.
+    public void setStreaming(int entriesPerChunk, long delayMillis) {
+        this.entriesPerChunk = entriesPerChunk;
+        this.chunkDelayMillis = delayMillis;
+    }
+
+    //drop the connection halfway through the body of the next count daily forecasts.
+    public void breakOff(int count) {
+        breakOffs.set(count);
+    }
+
+    //the URLs the app would use, pointing at this server.
+    public ForecastUrls urls() {
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/data/2.5/";
+        return new ForecastUrls(base + "forecast/daily?q=", base + "group?id=", "test", "imperial");
+    }
+
+    public int getForecastRequests() {
+        return forecastRequests.get();
+    }
+
+    public int getGroupRequests() {
+        return groupRequests.get();
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxRunning.get();
+    }
+
+    public int getConnections() {
+        return clientPorts.size();
+    }
+
+    public void stop() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange, long latencyMillis, int status, String body) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        int now = running.incrementAndGet();
+        while (true) {
+            int max = maxRunning.get();
+            if (now <= max || maxRunning.compareAndSet(max, now)) {
+                break;
+            }
+        }
+        //the request stops counting as running before its response is sent, otherwise the client
+        //could send its next request before this one was counted down.
+        try {
+            Thread.sleep(latencyMillis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        finally {
+            running.decrementAndGet();
+        }
+
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        if (status == 200 && exchange.getRequestURI().getPath().endsWith("/daily")
+                && breakOffs.getAndDecrement() > 0) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes, 0, bytes.length / 2);
+            out.flush();
+            //the server closes the connection of a handler that fails.
+            throw new IOException("Dropped the connection");
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    //send count 3 hour style entries, one hour apart, then the city, the way the real 3 hour
+    //forecast puts "city" after "list".
+    private void stream(HttpExchange exchange, City city, int count) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        //length 0 sends the body chunked.
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            StringBuilder chunk = new StringBuilder("{\"cod\":\"200\",\"cnt\":" + count + ",\"list\":[");
+            for (int i = 0; i < count; i++) {
+                if (i % entriesPerChunk == 0) {
+                    Thread.sleep(chunkDelayMillis);
+                }
+                chunk.append(i > 0 ? "," : "").append("{\"dt\":").append(1497542400L + i * 3600L)
+                        .append(",\"main\":{\"temp_min\":").append(50 + i % 20)
+                        .append(",\"temp_max\":").append(55 + i % 20).append(",\"humidity\":70},")
+                        .append("\"weather\":[{\"description\":\"few clouds\",\"icon\":\"02d\"}]}");
+                if ((i + 1) % entriesPerChunk == 0) {
+                    out.write(chunk.toString().getBytes("UTF-8"));
+                    out.flush();
+                    chunk.setLength(0);
+                }
+            }
+            chunk.append("],\"city\":{\"id\":").append(city.id).append(",\"name\":\"").append(city.name)
+                    .append("\"}}");
+            out.write(chunk.toString().getBytes("UTF-8"));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String forecastJson(City city) {
+        return "{\"city\":{\"id\":" + city.id + ",\"name\":\"" + city.name + "\"},\"cnt\":2,\"list\":["
+                + "{\"dt\":1497542400,\"temp\":{\"min\":50.4,\"max\":61.6},\"humidity\":80,"
+                + "\"weather\":[{\"description\":\"light rain\",\"icon\":\"10d\"}]},"
+                + "{\"dt\":1497628800,\"temp\":{\"min\":52,\"max\":70},\"humidity\":60,"
+                + "\"weather\":[{\"description\":\"clear sky\",\"icon\":\"01d\"}]}]}";
+    }
+
+    private static String currentJson(City city) {
+        return "{\"id\":" + city.id + ",\"name\":\"" + city.name + "\",\"dt\":1497560000,"
+                + "\"main\":{\"temp\":58,\"temp_min\":55,\"temp_max\":60,\"humidity\":70},"
+                + "\"weather\":[{\"description\":\"few clouds\",\"icon\":\"02d\"}]}";
+    }
+
+    private static String parameter(HttpExchange exchange, String name) throws UnsupportedEncodingException {
+        for (String pair : exchange.getRequestURI().getRawQuery().split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return URLDecoder.decode(pair.substring(name.length() + 1), "UTF-8");
+            }
+        }
+        return "";
+    }
+
+    private static String normalize(String city) {
+        return city.trim().toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,107 @@
+package com.deitel.weatherviewer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for filling the app's String resources into a reused buffer, against String.format.
+ */
+public class TextTemplateTest {
+
+    private static final int ROWS = 100000;
+
+    @Test
+    public void format_matchesStringFormat() {
+        TextBuffer out = new TextBuffer(4);
+        String[] formats = {"High: %s", "%1$s: %2$s", "%2$s, %1$s", "%1$s %2$s: %3$s", "%s%%", "%s and %s", "no args"};
+        for (String format : formats) {
+            new TextTemplate(format).format(out, "Monday", "light rain", "3:00 PM");
+            assertEquals(String.format(format, "Monday", "light rain", "3:00 PM"), out.toString());
+        }
+    }
+
+    @Test
+    public void format_replacesTheBuffersText() {
+        TextBuffer out = new TextBuffer(64);
+        TextTemplate template = new TextTemplate("Low: %s");
+        template.format(out, "a much longer temperature than the next");
+        template.format(out, "50\u00B0F");
+        assertEquals("Low: 50\u00B0F", out.toString());
+        assertEquals(out.length(), "Low: 50\u00B0F".length());
+    }
+
+    @Test
+    public void nullArgument_isFormattedAsNull() {
+        TextBuffer out = new TextBuffer(16);
+        new TextTemplate("%1$s: %2$s").format(out, "Monday", null);
+        assertEquals("Monday: null", out.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedFormat_isRejected() {
+        new TextTemplate("%d days");
+    }
+
+    @Test
+    public void benchmark_perRowFormatting() {
+        TextTemplate day = new TextTemplate("%1$s: %2$s");
+        TextTemplate low = new TextTemplate("Low: %s");
+        TextBuffer dayText = new TextBuffer(16);
+        TextBuffer lowText = new TextBuffer(16);
+        for (int i = 0; i < ROWS; i++) { // warm up, and lets the buffers grow
+            formatRow(day, low, dayText, lowText, i);
+            legacyRow(i);
+        }
+
+        long legacyBytes = allocatedBytes();
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            legacyRow(i);
+        }
+        long legacyNanos = System.nanoTime() - legacyStart;
+        legacyBytes = allocatedBytes() - legacyBytes;
+
+        long templateBytes = allocatedBytes();
+        long templateStart = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            formatRow(day, low, dayText, lowText, i);
+        }
+        long templateNanos = System.nanoTime() - templateStart;
+        templateBytes = allocatedBytes() - templateBytes;
+
+        System.out.printf("per row: String.format %d ns / %d bytes, TextTemplate %d ns / %d bytes%n",
+                legacyNanos / ROWS, legacyBytes / ROWS, templateNanos / ROWS, templateBytes / ROWS);
+
+        if (legacyBytes > 0) { // allocation counters are available on HotSpot only
+            assertEquals(0, templateBytes / ROWS);
+        }
+    }
+
+    private static final String[] DAYS = {"Monday", "Tuesday", "Wednesday"};
+    private static final String[] TEMPS = {"50\u00B0F", "61\u00B0F", "-3\u00B0F"};
+    private static int sink;
+
+    private static void formatRow(TextTemplate day, TextTemplate low, TextBuffer dayText, TextBuffer lowText, int i) {
+        day.format(dayText, DAYS[i % 3], "light rain");
+        low.format(lowText, TEMPS[i % 3]);
+        sink += dayText.length() + lowText.length();
+    }
+
+    // what Context.getString(id, args) does for every row.
+    private static void legacyRow(int i) {
+        sink += String.format("%1$s: %2$s", DAYS[i % 3], "light rain").length()
+                + String.format("Low: %s", TEMPS[i % 3]).length();
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
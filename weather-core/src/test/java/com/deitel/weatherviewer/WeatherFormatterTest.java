@@ -0,0 +1,190 @@
+package com.deitel.weatherviewer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.DateFormat;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static com.deitel.weatherviewer.WeatherFormatter.TemperatureUnit.CELSIUS;
+import static com.deitel.weatherviewer.WeatherFormatter.TemperatureUnit.FAHRENHEIT;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the shared formatters, and a per-row comparison against the formatting the Weather
+ * constructor did before.
+ */
+public class WeatherFormatterTest {
+
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+    private static final int ROWS = 100000;
+
+    @Test
+    public void temperature_matchesNumberFormat() {
+        for (Locale locale : new Locale[]{Locale.US, Locale.GERMANY, new Locale("ar", "EG")}) {
+            WeatherFormatter formatter = new WeatherFormatter(locale, NEW_YORK, FAHRENHEIT);
+            NumberFormat numberFormat = NumberFormat.getNumberInstance(locale);
+            numberFormat.setMaximumFractionDigits(0);
+
+            for (double c = -100; c <= 100; c += 0.125) {
+                assertEquals(numberFormat.format(c * 9 / 5 + 32) + "\u00B0F", formatter.temperature(c));
+            }
+            assertEquals(numberFormat.format(-0.3) + "\u00B0F", formatter.temperature(-17.94));
+        }
+    }
+
+    @Test
+    public void temperature_isConvertedToTheUnit() {
+        WeatherFormatter celsius = new WeatherFormatter(Locale.US, NEW_YORK, CELSIUS);
+        WeatherFormatter fahrenheit = new WeatherFormatter(Locale.US, NEW_YORK, FAHRENHEIT);
+
+        assertEquals("22\u00B0C", celsius.temperature(22.2));
+        assertEquals("72\u00B0F", fahrenheit.temperature(22.2));
+        assertEquals("-40\u00B0C", celsius.temperature(-40));
+        assertEquals("-40\u00B0F", fahrenheit.temperature(-40));
+        assertEquals("-0\u00B0C", celsius.temperature(-0.3));
+        assertEquals("212\u00B0F", fahrenheit.temperature(100));
+    }
+
+    @Test
+    public void getInstance_keepsAFormatterPerUnit() {
+        WeatherFormatter celsius = WeatherFormatter.getInstance(CELSIUS);
+        WeatherFormatter fahrenheit = WeatherFormatter.getInstance(FAHRENHEIT);
+
+        assertNotSame(celsius, fahrenheit);
+        assertSame(celsius, WeatherFormatter.getInstance(CELSIUS));
+        assertSame(fahrenheit, WeatherFormatter.getInstance(FAHRENHEIT));
+        assertEquals(FAHRENHEIT, WeatherFormatter.defaultUnit(Locale.US));
+        assertEquals(CELSIUS, WeatherFormatter.defaultUnit(Locale.UK));
+    }
+
+    @Test
+    public void humidity_matchesPercentFormat() {
+        for (Locale locale : new Locale[]{Locale.US, Locale.FRANCE}) {
+            WeatherFormatter formatter = new WeatherFormatter(locale, NEW_YORK, FAHRENHEIT);
+            NumberFormat percentFormat = NumberFormat.getPercentInstance(locale);
+
+            for (double h = 0; h <= 100; h += 0.5) {
+                assertEquals(percentFormat.format(h / 100.00), formatter.humidity(h));
+            }
+        }
+    }
+
+    @Test
+    public void dayOfWeek_usesTheDayInTheDeviceTimeZone() {
+        WeatherFormatter formatter = new WeatherFormatter(Locale.US, NEW_YORK, FAHRENHEIT);
+
+        assertEquals("Thursday", formatter.dayOfWeek(1497542400L)); // 2017-06-15 16:00 UTC, 12:00 EDT
+        assertEquals("Thursday", formatter.dayOfWeek(1497578400L)); // 2017-06-16 02:00 UTC, 22:00 EDT
+        assertEquals("Friday", formatter.dayOfWeek(1497592800L)); // 2017-06-16 06:00 UTC, 02:00 EDT
+        assertEquals("Tuesday", formatter.dayOfWeek(-86400L)); // 1969-12-31 00:00 UTC, 12-30 19:00 EST
+        assertEquals("Freitag", new WeatherFormatter(Locale.GERMANY, NEW_YORK, CELSIUS).dayOfWeek(1497592800L));
+    }
+
+    @Test
+    public void dayOfWeek_matchesSimpleDateFormatForEveryHourOfAYear() {
+        WeatherFormatter formatter = new WeatherFormatter(Locale.US, NEW_YORK, FAHRENHEIT);
+        SimpleDateFormat dateFormatter = new SimpleDateFormat("EEEE", Locale.US);
+        dateFormatter.setTimeZone(NEW_YORK);
+
+        for (long t = 1483228800L; t < 1483228800L + 366 * 86400L; t += 3600) {
+            assertEquals(dateFormatter.format(new java.util.Date(t * 1000)), formatter.dayOfWeek(t));
+        }
+    }
+
+    @Test
+    public void hour_matchesDateFormatForEveryHalfHourOfAYear() {
+        for (TimeZone timeZone : new TimeZone[]{NEW_YORK, TimeZone.getTimeZone("Asia/Kolkata")}) {
+            WeatherFormatter formatter = new WeatherFormatter(Locale.US, timeZone, CELSIUS);
+            DateFormat timeFormat = DateFormat.getTimeInstance(DateFormat.SHORT, Locale.US);
+            timeFormat.setTimeZone(timeZone);
+
+            for (long t = 1483228800L; t < 1483228800L + 366 * 86400L; t += 1800) {
+                assertEquals(timeFormat.format(new java.util.Date(t * 1000)), formatter.hour(t));
+            }
+        }
+        assertEquals("15:00", new WeatherFormatter(Locale.GERMANY, NEW_YORK, CELSIUS).hour(1497553200L)); // 19:00 UTC
+    }
+
+    @Test
+    public void iconURL_isBuiltOnce() {
+        WeatherFormatter formatter = new WeatherFormatter(Locale.US, NEW_YORK, FAHRENHEIT);
+        assertEquals("http://openweathermap.org/img/w/10d.png", formatter.iconURL("10d"));
+        assertSame(formatter.iconURL("10d"), formatter.iconURL(new String("10d")));
+    }
+
+    @Test
+    public void benchmark_perRowFormatting() {
+        WeatherFormatter formatter = WeatherFormatter.getInstance(FAHRENHEIT);
+        for (int i = 0; i < ROWS; i++) { // warm up
+            legacyRow(i);
+            formatterRow(formatter, i);
+        }
+
+        long legacyBytes = allocatedBytes();
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            legacyRow(i);
+        }
+        long legacyNanos = System.nanoTime() - legacyStart;
+        legacyBytes = allocatedBytes() - legacyBytes;
+
+        long formatterBytes = allocatedBytes();
+        long formatterStart = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            formatterRow(formatter, i);
+        }
+        long formatterNanos = System.nanoTime() - formatterStart;
+        formatterBytes = allocatedBytes() - formatterBytes;
+
+        System.out.printf("per row: legacy %d ns / %d bytes, WeatherFormatter %d ns / %d bytes%n",
+                legacyNanos / ROWS, legacyBytes / ROWS, formatterNanos / ROWS, formatterBytes / ROWS);
+
+        if (legacyBytes > 0) { // allocation counters are available on HotSpot only
+            assertTrue(formatterBytes * 10 < legacyBytes);
+        }
+    }
+
+    private static int sink;
+
+    // The formatting the Weather constructor did for every row before WeatherFormatter.
+    private static void legacyRow(int i) {
+        NumberFormat numberFormat = NumberFormat.getNumberInstance();
+        numberFormat.setMaximumFractionDigits(0);
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis((1497542400L + i * 86400L) * 1000);
+        TimeZone tz = TimeZone.getDefault();
+        calendar.add(Calendar.MILLISECOND, tz.getOffset(calendar.getTimeInMillis()));
+        String day = new SimpleDateFormat("EEEE").format(calendar.getTime());
+
+        String min = numberFormat.format(40 + i % 30 + 0.37) + "\u00B0F";
+        String max = numberFormat.format(60 + i % 30 + 0.62) + "\u00B0F";
+        String humidity = NumberFormat.getPercentInstance().format((i % 101) / 100.00);
+        String iconURL = "http://openweathermap.org/img/w/" + "10d" + ".png";
+        sink += day.length() + min.length() + max.length() + humidity.length() + iconURL.length();
+    }
+
+    private static void formatterRow(WeatherFormatter formatter, int i) {
+        String day = formatter.dayOfWeek(1497542400L + i * 86400L);
+        // the same temperatures as legacyRow, stored in degrees C.
+        String min = formatter.temperature((40 + i % 30 + 0.37 - 32) * 5 / 9);
+        String max = formatter.temperature((60 + i % 30 + 0.62 - 32) * 5 / 9);
+        String humidity = formatter.humidity(i % 101);
+        String iconURL = formatter.iconURL("10d");
+        sink += day.length() + min.length() + max.length() + humidity.length() + iconURL.length();
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
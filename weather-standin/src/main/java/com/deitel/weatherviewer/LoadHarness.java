@@ -0,0 +1,419 @@
+package com.deitel.weatherviewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+//LoadHarness judges networking and caching changes offline: it runs scenarios (a workload against a
+//StandInWeatherServer with a given latency, bandwidth and error rate) through the app's own
+//HttpClient, ForecastFetcher and ForecastCache, and reports the fetch-to-render latency of each
+//request at the 50th, 95th and 99th percentile, and the throughput.
+//A request is measured from asking the cache for the city's forecast until every row of it is
+//formatted the way WeatherArrayAdapter binds it. A device only binds the visible rows and also has
+//to lay them out, so on a device the numbers are higher, but a change that makes them better or
+//worse here does the same there.
+//Run every scenario, or the ones named:
+//  ./gradlew :weather-standin:loadTest
+//  ./gradlew :weather-standin:loadTest -Pargs="cold-daily flaky-daily"
+public class LoadHarness {
+
+    //the units the app requests, ForecastStore.UNITS.
+    private static final String UNITS = "metric";
+    //the bytes HttpClient received. The scenarios run one at a time, so a scenario's bytes are the
+    //difference between its start and its end.
+    private static final Metrics.Counter WIRE_BYTES = Metrics.counter("http.bytes.wire");
+
+    //the app's row Strings: day_description, day_hour_description and so on in strings.xml.
+    private static final TextTemplate DAY_TEMPLATE = new TextTemplate("%1$s: %2$s");
+    private static final TextTemplate DAY_HOUR_TEMPLATE = new TextTemplate("%1$s %2$s: %3$s");
+    private static final TextTemplate LOW_TEMPLATE = new TextTemplate("Low: %s");
+    private static final TextTemplate HIGH_TEMPLATE = new TextTemplate("High: %s");
+    private static final TextTemplate HUMIDITY_TEMPLATE = new TextTemplate("Humidity: %s");
+
+    //the app's MainActivity.BATCH_SIZE, the rows of a 3 hour or hourly forecast are delivered this
+    //many at a time while they download.
+    private static final int BATCH_SIZE = 8;
+    //the screen scenarios have no list to add the batches to.
+    private static final ForecastParser.BatchListener IGNORE_BATCHES = new ForecastParser.BatchListener() {
+        @Override
+        public void onBatch(Forecast batch) {
+        }
+    };
+
+    //the icons of the openweathermap.org icon set.
+    private static final String[] ICON_NAMES = {"01d", "01n", "02d", "02n", "03d", "03n", "04d", "04n",
+            "09d", "09n", "10d", "10n", "11d", "11n", "13d", "13n", "50d", "50n"};
+
+    //Scenario is a workload and how the server behaves while it runs.
+    public static class Scenario {
+        final String name;
+        long latencyMillis;
+        long jitterMillis;
+        long bytesPerSecond;
+        double errorRate;
+        ForecastUrls.Mode mode = ForecastUrls.Mode.DAILY;
+        int cities = 1; //requests cycle through this many cities
+        int requests = 1;
+        int concurrency = 1;
+        long cacheTtlMillis;
+        boolean warmUp; //run the workload once before measuring it, to fill the cache
+        boolean icons; //download condition icons instead of forecasts
+        boolean screen; //download a forecast and then every icon it shows
+        boolean pipelined; //start a screen's icon downloads while the forecast is parsed
+
+        public Scenario(String name) {
+            this.name = name;
+        }
+
+        public Scenario latency(long latencyMillis, long jitterMillis) {
+            this.latencyMillis = latencyMillis;
+            this.jitterMillis = jitterMillis;
+            return this;
+        }
+
+        public Scenario bandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public Scenario errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        public Scenario mode(ForecastUrls.Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        public Scenario requests(int requests, int cities, int concurrency) {
+            this.requests = requests;
+            this.cities = cities;
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public Scenario cache(long ttlMillis, boolean warmUp) {
+            this.cacheTtlMillis = ttlMillis;
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        public Scenario icons() {
+            this.icons = true;
+            return this;
+        }
+
+        public Scenario screen(boolean pipelined) {
+            this.screen = true;
+            this.pipelined = pipelined;
+            return this;
+        }
+    }
+
+    //Result is what a scenario measured.
+    public static class Result {
+        public final String name;
+        public final int requests;
+        public final int failures;
+        public final long wallMillis;
+        public final long wireBytes;
+        public final long notModified;
+        //the latency of each successful request, in microseconds, sorted.
+        private final long[] latencies;
+
+        Result(String name, int requests, int failures, long[] latencies, long wallMillis, long wireBytes,
+               long notModified) {
+            this.name = name;
+            this.requests = requests;
+            this.failures = failures;
+            this.latencies = latencies;
+            this.wallMillis = wallMillis;
+            this.wireBytes = wireBytes;
+            this.notModified = notModified;
+            Arrays.sort(this.latencies);
+        }
+
+        //the latency the given fraction (0 to 1) of the successful requests took at most, in
+        //microseconds (nearest rank). 0 if every request failed.
+        public long getPercentile(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(fraction * latencies.length);
+            return latencies[Math.max(0, Math.min(latencies.length, rank) - 1)];
+        }
+
+        //completed requests per second.
+        public double getThroughput() {
+            return wallMillis == 0 ? 0 : (requests - failures) * 1000.0 / wallMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-24s %5d %5d %9.1f %9.1f %9.1f %9.1f %8.1f %8d %6d", name, requests, failures,
+                    getPercentile(0.5) / 1000.0, getPercentile(0.95) / 1000.0, getPercentile(0.99) / 1000.0,
+                    latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1000.0,
+                    getThroughput(), wireBytes / 1024, notModified);
+        }
+
+        static String header() {
+            return String.format("%-24s %5s %5s %9s %9s %9s %9s %8s %8s %6s", "scenario", "reqs", "fail",
+                    "p50 ms", "p95 ms", "p99 ms", "max ms", "req/s", "KB recv", "304s");
+        }
+    }
+
+    //the scenarios main runs.
+    public static List<Scenario> scenarios() {
+        List<Scenario> scenarios = new ArrayList<>();
+        //every city is requested for the first time, 3 at once like the overview.
+        scenarios.add(new Scenario("cold-daily").latency(40, 20).requests(200, 200, 3).cache(30 * 60 * 1000, false));
+        //every city is in the cache and still fresh, nothing is requested.
+        scenarios.add(new Scenario("fresh-daily").latency(40, 20).requests(200, 50, 3).cache(30 * 60 * 1000, true));
+        //every city is in the cache but stale, it is revalidated and the server answers 304.
+        scenarios.add(new Scenario("revalidate-daily").latency(40, 20).requests(200, 50, 3).cache(0, true));
+        //168 hourly entries over a 3G connection.
+        scenarios.add(new Scenario("hourly-3g").latency(300, 100).bandwidth(50 * 1024)
+                .mode(ForecastUrls.Mode.HOURLY).requests(20, 20, 1).cache(30 * 60 * 1000, false));
+        //a fifth of the responses are 503, HttpClient retries them.
+        scenarios.add(new Scenario("flaky-daily").latency(40, 20).errorRate(0.2).requests(200, 200, 3)
+                .cache(30 * 60 * 1000, false));
+        //the condition icons the app doesn't bundle are downloaded and decoded.
+        scenarios.add(new Scenario("icons").latency(40, 20).requests(90, ICON_NAMES.length, 3).icons());
+        //a whole screen: the forecast and all of its icons. Serial starts the icon downloads when
+        //the rows are bound, pipelined as soon as the parser reads each icon. A daily forecast
+        //isn't parsed while it downloads, so it is always serial.
+        scenarios.add(new Scenario("screen-daily").latency(40, 20).bandwidth(50 * 1024)
+                .requests(20, 20, 1).cache(30 * 60 * 1000, false).screen(false));
+        scenarios.add(new Scenario("screen-hourly-serial").latency(300, 100).bandwidth(50 * 1024)
+                .mode(ForecastUrls.Mode.HOURLY).requests(10, 10, 1).cache(30 * 60 * 1000, false).screen(false));
+        scenarios.add(new Scenario("screen-hourly-pipelined").latency(300, 100).bandwidth(50 * 1024)
+                .mode(ForecastUrls.Mode.HOURLY).requests(10, 10, 1).cache(30 * 60 * 1000, false).screen(true));
+        return scenarios;
+    }
+
+    //run a scenario against a new server, with a new cache in cacheDir.
+    public static Result run(Scenario scenario, File cacheDir) throws IOException, InterruptedException {
+        StandInWeatherServer server = new StandInWeatherServer(0);
+        Workload workload = null;
+        try {
+            server.setLatency(scenario.latencyMillis, scenario.jitterMillis);
+            server.setBandwidth(scenario.bytesPerSecond);
+            server.setErrorRate(scenario.errorRate);
+            workload = new Workload(scenario, server, new ForecastCache(cacheDir, scenario.cacheTtlMillis));
+            if (scenario.warmUp) {
+                workload.run(null);
+            }
+
+            long wireBytes = WIRE_BYTES.get();
+            long notModified = server.getNotModifiedCount();
+            long[] latencies = new long[scenario.requests];
+            long start = System.nanoTime();
+            int failures = workload.run(latencies);
+            long wallMillis = (System.nanoTime() - start) / 1000000;
+
+            long[] succeeded = new long[scenario.requests - failures];
+            int count = 0;
+            for (long latency : latencies) {
+                if (latency >= 0 && count < succeeded.length) {
+                    succeeded[count++] = latency;
+                }
+            }
+            return new Result(scenario.name, scenario.requests, failures, succeeded, wallMillis,
+                    WIRE_BYTES.get() - wireBytes, server.getNotModifiedCount() - notModified);
+        }
+        finally {
+            if (workload != null) {
+                workload.iconThreads.shutdown();
+            }
+            server.stop();
+        }
+    }
+
+    //Workload makes a scenario's requests.
+    private static class Workload {
+        final Scenario scenario;
+        final StandInWeatherServer server;
+        final ForecastCache cache;
+        final HttpClient client = new HttpClient(5000, 15000, 3, 100);
+        //downloads a screen's icons, with as many threads as WeatherExecutors.ICON_NETWORK.
+        final ExecutorService iconThreads = Executors.newFixedThreadPool(4);
+        final ForecastFetcher fetcher;
+        final ForecastUrls urls;
+
+        Workload(Scenario scenario, StandInWeatherServer server, ForecastCache cache) {
+            this.scenario = scenario;
+            this.server = server;
+            this.cache = cache;
+            fetcher = new ForecastFetcher(cache, client);
+            urls = server.urls(UNITS);
+        }
+
+        //make every request, recording the latency of request i in latencies[i] (-1 if it failed)
+        //if latencies isn't null. Returns the number of failed requests.
+        int run(final long[] latencies) throws InterruptedException {
+            ExecutorService threads = Executors.newFixedThreadPool(scenario.concurrency);
+            final CountDownLatch done = new CountDownLatch(scenario.requests);
+            final AtomicInteger failures = new AtomicInteger();
+            for (int i = 0; i < scenario.requests; i++) {
+                final int request = i;
+                threads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        long latency = -1;
+                        try {
+                            if (scenario.icons) {
+                                fetchIcon(ICON_NAMES[request % scenario.cities]);
+                            }
+                            else if (scenario.screen) {
+                                fetchScreen("City " + request % scenario.cities);
+                            }
+                            else {
+                                render(fetchForecast("City " + request % scenario.cities));
+                            }
+                            latency = (System.nanoTime() - start) / 1000;
+                        }
+                        catch (IOException | InterruptedException e) {
+                            failures.incrementAndGet();
+                        }
+                        finally {
+                            if (latencies != null) {
+                                latencies[request] = latency;
+                            }
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            done.await();
+            threads.shutdown();
+            return failures.get();
+        }
+
+        //the city's forecast from the cache if it is fresh, otherwise from the server.
+        Forecast fetchForecast(String city) throws IOException {
+            String key = ForecastCache.key(city, UNITS, scenario.mode);
+            ForecastCache.Entry cached = cache.get(key);
+            if (cached != null && cache.isFresh(cached, System.currentTimeMillis())) {
+                return cached.forecast;
+            }
+            return fetcher.fetch(key, urls.forCity(city, scenario.mode), cached).forecast;
+        }
+
+        //download the city's forecast, format its rows and download every icon they show. Icons
+        //aren't cached, each screen is the first one showing them. In the pipelined scenarios the
+        //parser starts each icon's download as soon as it reads it, like ForecastRequests does for
+        //the app, otherwise the downloads start once the rows are formatted, like rows that load
+        //their icons when they are bound. As in the app, a 3 hour or hourly forecast is parsed
+        //while it downloads and a daily one once it has arrived, so only the former are pipelined.
+        void fetchScreen(String city) throws IOException, InterruptedException {
+            IconDownloads downloads = new IconDownloads();
+            String key = ForecastCache.key(city, UNITS, scenario.mode);
+            boolean progressive = scenario.mode != ForecastUrls.Mode.DAILY;
+            Forecast forecast = fetcher.fetch(key, urls.forCity(city, scenario.mode), cache.get(key), null,
+                    progressive ? BATCH_SIZE : 0, progressive ? IGNORE_BATCHES : null,
+                    progressive && scenario.pipelined ? downloads : null).forecast;
+            render(forecast);
+            for (int day = 0; day < forecast.size(); day++) {
+                downloads.onIcon(forecast.getIconName(day));
+            }
+            downloads.await();
+        }
+
+        //IconDownloads downloads each icon of a screen once, on the iconThreads.
+        class IconDownloads implements ForecastParser.IconListener {
+            private final List<String> started = new ArrayList<>();
+            private final List<Future<Void>> downloads = new ArrayList<>();
+
+            @Override
+            public synchronized void onIcon(final String iconName) {
+                if (started.contains(iconName)) {
+                    return;
+                }
+                started.add(iconName);
+                downloads.add(iconThreads.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        fetchIcon(iconName);
+                        return null;
+                    }
+                }));
+            }
+
+            //wait until every icon is downloaded and decoded.
+            synchronized void await() throws IOException, InterruptedException {
+                for (Future<Void> download : downloads) {
+                    try {
+                        download.get();
+                    }
+                    catch (ExecutionException e) {
+                        throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                    }
+                }
+            }
+        }
+
+        //download and decode an icon.
+        void fetchIcon(String iconName) throws IOException {
+            HttpClient.Response response = client.get(new URL(server.iconUrl(iconName)), null);
+            if (response.status != 200) {
+                throw new ForecastFetcher.StatusException(response.status);
+            }
+            if (ImageIO.read(new ByteArrayInputStream(response.body)) == null) {
+                throw new IOException("Not an image: " + iconName);
+            }
+        }
+    }
+
+    //format every row of the forecast like WeatherArrayAdapter.onBindViewHolder, into the buffers
+    //of one ViewHolder.
+    static void render(Forecast forecast) {
+        WeatherFormatter formatter = WeatherFormatter.getInstance(WeatherFormatter.TemperatureUnit.CELSIUS);
+        TextBuffer dayText = new TextBuffer(64);
+        TextBuffer lowText = new TextBuffer(32);
+        TextBuffer hiText = new TextBuffer(32);
+        TextBuffer humidityText = new TextBuffer(32);
+        long interval = forecast.getInterval();
+        boolean hourly = interval > 0 && interval < 24 * 60 * 60;
+        for (int position = 0; position < forecast.size(); position++) {
+            long timeStamp = forecast.getTimeStamp(position);
+            if (hourly) {
+                DAY_HOUR_TEMPLATE.format(dayText, formatter.dayOfWeek(timeStamp), formatter.hour(timeStamp),
+                        forecast.getDescription(position));
+            }
+            else {
+                DAY_TEMPLATE.format(dayText, formatter.dayOfWeek(timeStamp), forecast.getDescription(position));
+            }
+            LOW_TEMPLATE.format(lowText, formatter.temperature(forecast.getMinTemp(position)));
+            HIGH_TEMPLATE.format(hiText, formatter.temperature(forecast.getMaxTemp(position)));
+            HUMIDITY_TEMPLATE.format(humidityText, formatter.humidity(forecast.getHumidity(position)));
+        }
+    }
+
+    //run the scenarios named in args, or all of them, and print a line per scenario.
+    public static void main(String[] args) throws Exception {
+        List<String> names = Arrays.asList(args);
+        File cacheRoot = new File(System.getProperty("java.io.tmpdir"), "weather-loadtest-" + System.nanoTime());
+        System.out.println(Result.header());
+        for (Scenario scenario : scenarios()) {
+            if (names.isEmpty() || names.contains(scenario.name)) {
+                System.out.println(run(scenario, new File(cacheRoot, scenario.name)));
+            }
+        }
+    }
+}
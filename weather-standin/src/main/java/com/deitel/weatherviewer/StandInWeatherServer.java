@@ -0,0 +1,447 @@
+package com.deitel.weatherviewer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.imageio.ImageIO;
+
+//StandInWeatherServer is a local stand-in for the openweathermap.org web service, so the app and
+//the LoadHarness can be run without the live service or an API key. It answers the requests the
+//app makes from the responses recorded in weather-core/fixtures:
+//  /data/2.5/forecast/daily?q=... (or id=...)  the 16 day forecast
+//  /data/2.5/forecast?q=...                    the 3 hour forecast
+//  /data/2.5/forecast/hourly?q=...             the hourly forecast
+//  /data/2.5/group?id=1,2,3                    the current weather of several cities
+//  /img/w/10d.png                              a condition icon
+//Every city exists, its id is derived from its name. The "cnt" parameter is honored by repeating
+//the recorded entries, so any payload size can be asked for. Responses have an ETag and are gzip
+//compressed when the client accepts it, like the real service.
+//How slow and unreliable the server is can be changed at any time: a latency before each response,
+//a bandwidth the body is sent at and the fraction of requests answered with 503 Service Unavailable.
+//Start it from the command line with
+//  ./gradlew :weather-standin:run -Pargs="--port 8080 --latency 200 --bandwidth 50000"
+//and point the app at it with the loadtest build type.
+public class StandInWeatherServer {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    //the recorded responses, in weather-core/fixtures.
+    private static final String DAILY_FIXTURE = "forecast_daily_16.json";
+    private static final String THREE_HOURLY_FIXTURE = "forecast_3hourly_5day.json";
+    private static final String GROUP_FIXTURE = "group_batch_200.json";
+
+    //the recorded temperatures are in degrees F.
+    private static final String RECORDED_UNITS = "imperial";
+
+    static {
+        //the JDK's server writes the headers and the body separately, without TCP_NODELAY the body
+        //waits for the client's delayed ACK of the headers, adding 40 ms to every response.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    //the recorded "list" entries of the group response, as JSON text.
+    private final List<String> groupEntries;
+
+    //the responses by their request, built once and served again and again. The body is kept both
+    //as it is and gzip compressed.
+    private final Map<String, Body> bodies = new ConcurrentHashMap<>();
+
+    //the behaviour, see the setters.
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile long bytesPerSecond;
+    private volatile double errorRate;
+    private volatile int entries;
+
+    //statistics
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final Random random = new Random();
+    private final HttpServer server;
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+
+    //a Body is a response body and its ETag.
+    private static class Body {
+        final byte[] plain;
+        final byte[] gzipped;
+        final String eTag;
+
+        Body(byte[] plain) throws IOException {
+            this.plain = plain;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(plain);
+            }
+            gzipped = out.toByteArray();
+            eTag = "\"" + Integer.toHexString(Arrays.hashCode(plain)) + "\"";
+        }
+    }
+
+    //start a server on the given port of the loopback address, 0 picks a free port.
+    public StandInWeatherServer(int port) throws IOException {
+        List<String> dailyEntries = readEntries(DAILY_FIXTURE);
+        List<String> threeHourlyEntries = readEntries(THREE_HOURLY_FIXTURE);
+        groupEntries = readEntries(GROUP_FIXTURE);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/data/2.5/forecast/daily", new ForecastHandler(dailyEntries, 86400));
+        server.createContext("/data/2.5/forecast/hourly", new ForecastHandler(threeHourlyEntries, 3600));
+        server.createContext("/data/2.5/forecast", new ForecastHandler(threeHourlyEntries, 3 * 3600));
+        server.createContext("/data/2.5/group", new GroupHandler());
+        server.createContext("/img/w/", new IconHandler());
+        server.setExecutor(threads);
+        server.start();
+    }
+
+    //wait latencyMillis, plus up to jitterMillis more, before each response.
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    //send the bodies at this many bytes per second (after compression), 0 for as fast as possible.
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    //answer this fraction (0 to 1) of the requests with 503 Service Unavailable.
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    //answer every forecast with this many entries whatever "cnt" asks for, 0 to honor "cnt".
+    public void setEntries(int entries) {
+        this.entries = entries;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    //the ForecastUrls for this server, like the app's loadtest build type uses.
+    public ForecastUrls urls(String units) {
+        String base = "http://127.0.0.1:" + getPort() + "/data/2.5/";
+        return new ForecastUrls(base + "forecast/daily?q=", base + "forecast?q=", base + "forecast/hourly?q=",
+                base + "group?id=", "standin", units);
+    }
+
+    //the URL of a condition icon, e.g. "10d".
+    public String iconUrl(String iconName) {
+        return "http://127.0.0.1:" + getPort() + "/img/w/" + iconName + ".png";
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    //the forecast of one city, with the entries of a recorded forecast.
+    private class ForecastHandler implements HttpHandler {
+        private final List<String> recorded;
+        private final long intervalSeconds;
+
+        ForecastHandler(List<String> recorded, long intervalSeconds) {
+            this.recorded = recorded;
+            this.intervalSeconds = intervalSeconds;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String city = parameter(exchange, "q");
+            String id = parameter(exchange, "id");
+            long cityId = id != null ? Long.parseLong(id) : cityId(city);
+            String name = city != null ? city.split(",")[0].trim() : "City " + cityId;
+            String units = parameter(exchange, "units");
+            int count = entries;
+            if (count == 0) {
+                String cnt = parameter(exchange, "cnt");
+                count = cnt != null ? Integer.parseInt(cnt) : recorded.size();
+            }
+
+            String key = exchange.getHttpContext().getPath() + "|" + cityId + "|" + units + "|" + count;
+            Body body = bodies.get(key);
+            if (body == null) {
+                body = new Body(forecastJson(recorded, intervalSeconds, cityId, name, units, count).getBytes("UTF-8"));
+                bodies.put(key, body);
+            }
+            respond(exchange, "application/json; charset=utf-8", body);
+        }
+    }
+
+    //the current weather of several cities.
+    private class GroupHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String ids = parameter(exchange, "id");
+            String units = parameter(exchange, "units");
+            String key = "group|" + ids + "|" + units;
+            Body body = bodies.get(key);
+            if (body == null) {
+                body = new Body(groupJson(ids.split(","), units).getBytes("UTF-8"));
+                bodies.put(key, body);
+            }
+            respond(exchange, "application/json; charset=utf-8", body);
+        }
+    }
+
+    //a condition icon. Nothing was recorded, so each icon is a 50 by 50 pixel square in a color of
+    //its own, about the size of the real ones.
+    private class IconHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String name = path.substring(path.lastIndexOf('/') + 1).replace(".png", "");
+            String key = "icon|" + name;
+            Body body = bodies.get(key);
+            if (body == null) {
+                BufferedImage image = new BufferedImage(50, 50, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D graphics = image.createGraphics();
+                graphics.setColor(new Color(name.hashCode() | 0xFF000000, true));
+                graphics.fillOval(5, 5, 40, 40);
+                graphics.dispose();
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                ImageIO.write(image, "png", png);
+                body = new Body(png.toByteArray());
+                bodies.put(key, body);
+            }
+            respond(exchange, "image/png", body);
+        }
+    }
+
+    //send a body, or 304 if the client has it already, or 503 for a share of the requests.
+    private void respond(HttpExchange exchange, String contentType, Body body) throws IOException {
+        requests.incrementAndGet();
+        try {
+            long jitter = jitterMillis;
+            Thread.sleep(latencyMillis + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0));
+
+            if (errorRate > 0 && random.nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                send(exchange, 503, "text/plain", "Service Unavailable".getBytes("UTF-8"), false);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("ETag", body.eTag);
+            if (body.eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            send(exchange, 200, contentType, gzip ? body.gzipped : body.plain, gzip);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+        }
+    }
+
+    //send the body at the configured bandwidth, in pieces of 1/20 s.
+    private void send(HttpExchange exchange, int status, String contentType, byte[] bytes, boolean gzip)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            long rate = bytesPerSecond;
+            if (rate <= 0) {
+                out.write(bytes);
+            }
+            else {
+                int piece = (int) Math.max(1, rate / 20);
+                long start = System.nanoTime();
+                for (int offset = 0; offset < bytes.length; offset += piece) {
+                    int length = Math.min(piece, bytes.length - offset);
+                    out.write(bytes, offset, length);
+                    out.flush();
+                    //wait until the bytes sent so far are due.
+                    long dueNanos = (offset + length) * 1000000000L / rate;
+                    long waitMillis = (dueNanos - (System.nanoTime() - start)) / 1000000;
+                    if (waitMillis > 0) {
+                        Thread.sleep(waitMillis);
+                    }
+                }
+            }
+        }
+        bytesSent.addAndGet(bytes.length);
+    }
+
+    //a forecast response with count entries: the recorded ones, repeated as often as needed and
+    //intervalSeconds apart.
+    private static String forecastJson(List<String> recorded, long intervalSeconds, long cityId, String name,
+                                       String units, int count) {
+        StringBuilder json = new StringBuilder(count * 300);
+        json.append("{\"city\":{\"id\":").append(cityId).append(",\"name\":\"").append(escape(name))
+                .append("\"},\"cod\":\"200\",\"cnt\":").append(count).append(",\"list\":[");
+        JsonParser parser = new JsonParser();
+        long start = 1497542400L;
+        for (int i = 0; i < count; i++) {
+            JsonObject entry = parser.parse(recorded.get(i % recorded.size())).getAsJsonObject();
+            entry.addProperty("dt", start + i * intervalSeconds);
+            convertTemperatures(entry, units);
+            json.append(i > 0 ? "," : "").append(entry);
+        }
+        return json.append("]}").toString();
+    }
+
+    //a group response with the recorded current weather, one entry per id.
+    private String groupJson(String[] ids, String units) {
+        StringBuilder json = new StringBuilder("{\"cnt\":").append(ids.length).append(",\"list\":[");
+        JsonParser parser = new JsonParser();
+        for (int i = 0; i < ids.length; i++) {
+            JsonObject entry = parser.parse(groupEntries.get(i % groupEntries.size())).getAsJsonObject();
+            long id = Long.parseLong(ids[i].trim());
+            entry.addProperty("id", id);
+            entry.addProperty("name", "City " + id);
+            convertTemperatures(entry, units);
+            json.append(i > 0 ? "," : "").append(entry);
+        }
+        return json.append("]}").toString();
+    }
+
+    //the recorded temperatures are in degrees F, a request for other units gets them converted:
+    //"metric" is degrees C and no units (the default) is Kelvin.
+    private static void convertTemperatures(JsonObject entry, String units) {
+        if (RECORDED_UNITS.equals(units)) {
+            return;
+        }
+        for (String objectName : new String[] {"temp", "main"}) {
+            JsonElement object = entry.get(objectName);
+            if (object == null || !object.isJsonObject()) {
+                continue;
+            }
+            for (Map.Entry<String, JsonElement> value : object.getAsJsonObject().entrySet()) {
+                //"temp_kf" is a correction, not a temperature.
+                boolean temperature = objectName.equals("temp")
+                        || value.getKey().startsWith("temp") && !value.getKey().equals("temp_kf");
+                if (temperature) {
+                    double celsius = (value.getValue().getAsDouble() - 32) * 5 / 9;
+                    double converted = "metric".equals(units) ? celsius : celsius + 273.15;
+                    value.setValue(new JsonPrimitive(Math.round(converted * 100) / 100.0));
+                }
+            }
+        }
+    }
+
+    //the "list" entries of a recorded response.
+    private static List<String> readEntries(String fixture) throws IOException {
+        InputStream in = StandInWeatherServer.class.getClassLoader().getResourceAsStream(fixture);
+        if (in == null) {
+            throw new IOException("Missing fixture " + fixture);
+        }
+        try (InputStreamReader reader = new InputStreamReader(in, "UTF-8")) {
+            JsonArray list = new JsonParser().parse(reader).getAsJsonObject().getAsJsonArray("list");
+            List<String> entries = new ArrayList<>();
+            for (JsonElement entry : list) {
+                entries.add(entry.toString());
+            }
+            return entries;
+        }
+    }
+
+    //every city exists, its id is the same every time.
+    private static long cityId(String city) {
+        return (city == null ? 0 : city.trim().toLowerCase(Locale.US).hashCode()) & 0x7fffffffL;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String parameter(HttpExchange exchange, String name) throws UnsupportedEncodingException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return URLDecoder.decode(pair.substring(name.length() + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    //run the server until it is killed. Options: --port, --latency and --jitter (ms), --bandwidth
+    //(bytes per second), --error-rate (0 to 1) and --entries.
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = options(args);
+        StandInWeatherServer server = new StandInWeatherServer(Integer.parseInt(option(options, "port", "" + DEFAULT_PORT)));
+        server.setLatency(Long.parseLong(option(options, "latency", "0")), Long.parseLong(option(options, "jitter", "0")));
+        server.setBandwidth(Long.parseLong(option(options, "bandwidth", "0")));
+        server.setErrorRate(Double.parseDouble(option(options, "error-rate", "0")));
+        server.setEntries(Integer.parseInt(option(options, "entries", "0")));
+        System.out.println("Stand-in openweathermap.org service at http://127.0.0.1:" + server.getPort()
+                + "/data/2.5/ (for a device: adb reverse tcp:" + server.getPort() + " tcp:" + server.getPort() + ")");
+    }
+
+    //"--name value" pairs.
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --option value: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
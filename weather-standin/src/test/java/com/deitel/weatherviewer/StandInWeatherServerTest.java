@@ -0,0 +1,140 @@
+package com.deitel.weatherviewer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Requests forecasts and icons from the stand-in server with the app's own HttpClient and
+ * ForecastFetcher, and runs a small LoadHarness scenario against it.
+ */
+public class StandInWeatherServerTest {
+
+    private static final long TTL = 30 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInWeatherServer server;
+    private final HttpClient client = new HttpClient(1000, 5000, 3, 10);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInWeatherServer(0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void forecast_honorsCountModeAndUnits() throws Exception {
+        ForecastFetcher fetcher = new ForecastFetcher(new ForecastCache(folder.getRoot(), TTL), client);
+        String key = ForecastCache.key("Boston", "metric", ForecastUrls.Mode.HOURLY);
+        Forecast forecast = fetcher.fetch(key, server.urls("metric").forCity("Boston", ForecastUrls.Mode.HOURLY),
+                null).forecast;
+
+        assertEquals(168, forecast.size());
+        assertEquals(3600, forecast.getInterval());
+        assertEquals("Boston", forecast.getCityName());
+        //the recorded Fahrenheit temperatures are converted to Celsius.
+        for (int i = 0; i < forecast.size(); i++) {
+            assertTrue(forecast.getMinTemp(i) > -40 && forecast.getMaxTemp(i) < 45);
+        }
+    }
+
+    @Test
+    public void staleForecast_isRevalidatedWith304() throws Exception {
+        ForecastCache cache = new ForecastCache(folder.getRoot(), 0);
+        ForecastFetcher fetcher = new ForecastFetcher(cache, client);
+        String key = ForecastCache.key("Boston", "metric");
+        URL url = server.urls("metric").forCity("Boston");
+        ForecastCache.Entry first = fetcher.fetch(key, url, null);
+        ForecastCache.Entry second = fetcher.fetch(key, url, cache.get(key));
+
+        assertEquals(1, server.getNotModifiedCount());
+        assertEquals(first.eTag, second.eTag);
+        assertEquals(16, second.forecast.size());
+    }
+
+    @Test
+    public void errorRate_failsRequestsWith503() throws Exception {
+        server.setErrorRate(1);
+        ForecastFetcher fetcher = new ForecastFetcher(new ForecastCache(folder.getRoot(), TTL), client);
+        try {
+            fetcher.fetch(ForecastCache.key("Boston", "metric"), server.urls("metric").forCity("Boston"), null);
+            fail("expected a StatusException");
+        }
+        catch (ForecastFetcher.StatusException e) {
+            assertEquals(503, e.status);
+        }
+        //HttpClient retried each of them.
+        assertEquals(3, server.getErrorCount());
+    }
+
+    @Test
+    public void latencyAndBandwidth_slowTheResponse() throws Exception {
+        server.setLatency(100, 0);
+        server.setBandwidth(20 * 1024);
+        //without Accept-Encoding the body isn't compressed: 16 days take more than a second at 20KB/s.
+        HttpURLConnection connection =
+                (HttpURLConnection) server.urls("metric").forCity("Boston").openConnection();
+        long start = System.nanoTime();
+        byte[] body = readAll(connection.getInputStream());
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        connection.disconnect();
+
+        long expectedMillis = 100 + body.length * 1000L / (20 * 1024);
+        assertTrue(elapsedMillis + " ms for " + body.length + " bytes", elapsedMillis >= expectedMillis * 8 / 10);
+    }
+
+    @Test
+    public void icon_isAPng() throws Exception {
+        HttpClient.Response response = client.get(new URL(server.iconUrl("10d")), null);
+        BufferedImage icon = ImageIO.read(new ByteArrayInputStream(response.body));
+
+        assertEquals("image/png", response.getHeader("Content-Type"));
+        assertEquals(50, icon.getWidth());
+        assertEquals(50, icon.getHeight());
+    }
+
+    @Test
+    public void loadHarness_reportsEveryRequest() throws Exception {
+        LoadHarness.Scenario scenario = new LoadHarness.Scenario("test").latency(5, 5).requests(30, 10, 3)
+                .cache(0, true);
+        LoadHarness.Result result = LoadHarness.run(scenario, folder.newFolder());
+
+        assertEquals(30, result.requests);
+        assertEquals(0, result.failures);
+        //the warm-up filled the cache, so every measured request was revalidated.
+        assertEquals(30, result.notModified);
+        assertTrue(result.getPercentile(0.5) > 0);
+        assertTrue(result.getPercentile(0.5) <= result.getPercentile(0.95));
+        assertTrue(result.getPercentile(0.95) <= result.getPercentile(0.99));
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}